@@ -0,0 +1,41 @@
+package com.apm.core.abstracts;
+
+import com.apm.core.contracts.IImageBatchListener;
+
+import java.io.File;
+
+/**
+ * {@link IImageBatchListener} with empty events, override only the needed ones
+ */
+public abstract class ImageBatchListener implements IImageBatchListener {
+
+    @Override
+    public void onBatchStart(int total) {
+
+    }
+
+    @Override
+    public void onItemProcessed(int index, byte[] imageBytes) {
+
+    }
+
+    @Override
+    public void onItemProcessed(int index, File imageFile) {
+
+    }
+
+    @Override
+    public void onItemFailed(int index, Exception exception) {
+
+    }
+
+    @Override
+    public void onBatchProgress(int completed, int total) {
+
+    }
+
+    @Override
+    public void onBatchFinish(int succeeded, int failed, boolean cancelled) {
+
+    }
+}
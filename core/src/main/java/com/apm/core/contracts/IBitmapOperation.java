@@ -0,0 +1,27 @@
+package com.apm.core.contracts;
+
+import android.graphics.Bitmap;
+
+/**
+ * Step of a {@link com.apm.core.utils.ImageBatchProcessor} chain, run on a worker thread
+ */
+public interface IBitmapOperation {
+
+    /**
+     * Apply the operation to a decoded image
+     *
+     * @param bitmap mutable image from the previous step
+     * @return the same bitmap modified in place, or a new bitmap (the input is then given back
+     * to the bitmap pool)
+     */
+    Bitmap apply(Bitmap bitmap);
+
+    /**
+     * Extra bytes allocated by the operation, used to limit how many images are processed at once
+     *
+     * @param width  input width
+     * @param height input height
+     * @return estimated bytes of new bitmaps created by {@link #apply(Bitmap)}, 0 if done in place
+     */
+    long estimateExtraBytes(int width, int height);
+}
@@ -0,0 +1,17 @@
+package com.apm.core.contracts;
+
+import com.apm.core.utils.FileChunk;
+
+/**
+ * Follows a {@link com.apm.core.utils.ChunkedFileTransfer}, triggered on the transferring thread
+ */
+public interface IChunkTransferListener {
+
+    /**
+     * Trigger when a chunk was sent and recorded in the manifest
+     * @param chunk     sent chunk
+     * @param completed chunks sent so far, previous runs included
+     * @param total     number of chunks of the file
+     */
+    void onChunkTransferred(FileChunk chunk, int completed, int total);
+}
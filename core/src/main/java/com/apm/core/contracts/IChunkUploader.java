@@ -0,0 +1,23 @@
+package com.apm.core.contracts;
+
+import com.apm.core.utils.FileChunk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sends the chunks of a {@link com.apm.core.utils.ChunkedFileTransfer}, e.g.
+ * {@link com.apm.core.utils.HttpChunkUploader}. Called on the transferring thread, one chunk at
+ * a time.
+ */
+public interface IChunkUploader {
+
+    /**
+     * Send one chunk, returning only once the receiver stored it
+     * @param chunk chunk position, length and hash
+     * @param data  chunk bytes between position and limit, reused for the next chunk so it must
+     *              not be kept nor modified
+     * @throws IOException to stop the transfer, it resumes from this chunk next time
+     */
+    void uploadChunk(FileChunk chunk, ByteBuffer data) throws IOException;
+}
@@ -0,0 +1,23 @@
+package com.apm.core.contracts;
+
+import com.apm.core.utils.DirectoryStats;
+
+/**
+ * Handles events of a {@link com.apm.core.utils.DirectoryScanner} scan, always triggered on the
+ * main thread
+ */
+public interface IDirectoryScanListener {
+
+    /**
+     * Trigger periodically while the scan runs
+     * @param partial totals of the directories walked so far, a copy the listener may keep
+     */
+    void onScanProgress(DirectoryStats partial);
+
+    /**
+     * Trigger when every directory is walked, or once the scan is cancelled
+     * @param result    totals of the walked directories
+     * @param cancelled true if the scan was cancelled, result is partial then
+     */
+    void onScanFinish(DirectoryStats result, boolean cancelled);
+}
@@ -0,0 +1,17 @@
+package com.apm.core.contracts;
+
+/**
+ * Decides which disk cache bucket stores an image downloaded by
+ * {@link com.apm.core.utils.ImageUtils}
+ */
+public interface IDiskCacheBucketResolver {
+
+    /**
+     * Resolve the bucket of an image url
+     *
+     * @param url image url
+     * @return bucket name registered in {@link com.apm.core.utils.ImageEngineConfig}, or null to
+     * use the default bucket
+     */
+    String getBucket(String url);
+}
@@ -0,0 +1,31 @@
+package com.apm.core.contracts;
+
+/**
+ * Receives metrics of {@link com.apm.core.utils.BudgetImageEncoder} encodes, triggered on the
+ * encoding thread
+ */
+public interface IEncodeMetricsListener {
+
+    /**
+     * Trigger after every encode attempt
+     *
+     * @param quality       0 - 100 quality of the attempt
+     * @param width         encoded width
+     * @param height        encoded height
+     * @param byteCount     encoded bytes
+     * @param elapsedMillis duration of the attempt
+     */
+    void onEncodeAttempt(int quality, int width, int height, int byteCount, long elapsedMillis);
+
+    /**
+     * Trigger when the search ends
+     *
+     * @param attempts      encodes done
+     * @param elapsedMillis duration of the whole search, scaling included
+     * @param quality       quality of the result, -1 if the budget could not be met
+     * @param width         width of the result
+     * @param height        height of the result
+     * @param byteCount     bytes of the result, 0 if the budget could not be met
+     */
+    void onEncodeFinished(int attempts, long elapsedMillis, int quality, int width, int height, int byteCount);
+}
@@ -0,0 +1,52 @@
+package com.apm.core.contracts;
+
+import java.io.File;
+
+/**
+ * Handles events of a {@link com.apm.core.utils.ImageBatchProcessor} batch, always triggered on
+ * the main thread
+ */
+public interface IImageBatchListener {
+
+    /**
+     * Trigger when the batch starts
+     * @param total number of images in the batch
+     */
+    void onBatchStart(int total);
+
+    /**
+     * Trigger when an image was processed and encoded in memory
+     * @param index       image index in the source list
+     * @param imageBytes  encoded image
+     */
+    void onItemProcessed(int index, byte[] imageBytes);
+
+    /**
+     * Trigger when an image was processed and saved in the output directory
+     * @param index      image index in the source list
+     * @param imageFile  encoded image file
+     */
+    void onItemProcessed(int index, File imageFile);
+
+    /**
+     * Trigger when an image cannot be processed, the rest of the batch goes on
+     * @param index     image index in the source list
+     * @param exception failure cause
+     */
+    void onItemFailed(int index, Exception exception);
+
+    /**
+     * Trigger after every processed or failed image
+     * @param completed images completed so far
+     * @param total     number of images in the batch
+     */
+    void onBatchProgress(int completed, int total);
+
+    /**
+     * Trigger when every image is completed, or once the batch is cancelled
+     * @param succeeded processed images
+     * @param failed    failed images
+     * @param cancelled true if the batch was cancelled
+     */
+    void onBatchFinish(int succeeded, int failed, boolean cancelled);
+}
@@ -0,0 +1,20 @@
+package com.apm.core.contracts;
+
+/**
+ * Receives runtime metrics of the shared image engine of {@link com.apm.core.utils.ImageUtils}
+ */
+public interface IImageEngineMetricsListener {
+
+    /**
+     * Trigger when a network fetch is served by a fetch of the same url already in flight (e.g.
+     * one url shown at several sizes). Only network fetches after a disk cache miss are counted:
+     * identical requests (same source, size and transformations) are merged into one decode by
+     * the Picasso dispatcher before reaching the downloader, and are not part of these counts.
+     * Fetch coalescing ratio is coalescedCount / fetchCount.
+     *
+     * @param url            coalesced image url
+     * @param fetchCount     network fetches requested after a disk cache miss, since engine creation
+     * @param coalescedCount fetches that shared an in-flight fetch, since engine creation
+     */
+    void onFetchCoalesced(String url, long fetchCount, long coalescedCount);
+}
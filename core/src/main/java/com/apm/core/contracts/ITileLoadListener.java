@@ -0,0 +1,29 @@
+package com.apm.core.contracts;
+
+import android.graphics.Bitmap;
+
+/**
+ * Handles background tile loads of {@link com.apm.core.utils.TiledImageDecoder}, always
+ * triggered on the main thread
+ */
+public interface ITileLoadListener {
+
+    /**
+     * Trigger when a tile is decoded or found in cache
+     *
+     * @param sampleSize power of two sample size (zoom level) of the tile
+     * @param column     tile column
+     * @param row        tile row
+     * @param tile       decoded tile, owned by the tile cache (do not recycle it)
+     */
+    void onTileLoaded(int sampleSize, int column, int row, Bitmap tile);
+
+    /**
+     * Trigger when a tile cannot be decoded
+     *
+     * @param sampleSize power of two sample size (zoom level) of the tile
+     * @param column     tile column
+     * @param row        tile row
+     */
+    void onTileLoadFailed(int sampleSize, int column, int row);
+}
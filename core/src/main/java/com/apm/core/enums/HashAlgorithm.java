@@ -0,0 +1,14 @@
+package com.apm.core.enums;
+
+/**
+ * Hash algorithms of {@link com.apm.core.utils.HashUtils} file and stream hashing
+ */
+public enum HashAlgorithm {
+    SHA256,
+    SHA1,
+    MD5,
+    /**
+     * Non cryptographic checksum, fastest to detect transfer corruption
+     */
+    CRC32
+}
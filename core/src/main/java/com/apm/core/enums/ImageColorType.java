@@ -0,0 +1,16 @@
+package com.apm.core.enums;
+
+/**
+ * Color type stored in an image header
+ */
+public enum ImageColorType {
+
+    GRAYSCALE,
+    GRAYSCALE_ALPHA,
+    RGB,
+    RGBA,
+    PALETTE,
+    PALETTE_ALPHA,
+    CMYK,
+    UNKNOWN
+}
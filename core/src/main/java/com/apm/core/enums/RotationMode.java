@@ -0,0 +1,16 @@
+package com.apm.core.enums;
+
+/**
+ * How an image rotation is stored
+ */
+public enum RotationMode {
+    /**
+     * Only rewrite the EXIF orientation tag of JPEG output (no decode, no quality loss),
+     * falls back to PIXELS for other formats
+     */
+    EXIF,
+    /**
+     * Rotate the pixels and re-encode the image
+     */
+    PIXELS
+}
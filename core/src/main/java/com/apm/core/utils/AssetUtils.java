@@ -99,7 +99,7 @@ public class AssetUtils {
     }
 
     /**
-     * Get an Asset file as {@link File} instance
+     * Get an Asset file as {@link File} instance, stored in the size bounded {@link TempFileCache}
      *
      * @param activity  Current activity
      * @param assetName Asset name (including subdirectories)
@@ -107,6 +107,11 @@ public class AssetUtils {
      * @throws IOException
      */
     public static File GetAssetAsFile(Activity activity, String assetName) throws IOException {
-        return FileUtils.SaveTempFileFromStream(activity, assetName, activity.getAssets().open(assetName));
+        InputStream in = activity.getAssets().open(assetName);
+        try {
+            return FileUtils.SaveTempFileFromStream(activity, assetName, in);
+        } finally {
+            in.close();
+        }
     }
 }
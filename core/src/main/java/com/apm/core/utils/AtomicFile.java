@@ -0,0 +1,260 @@
+package com.apm.core.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Replace a file as a whole or not at all. New content is written to a temporary sibling file,
+ * flushed to the storage device (fsync) and renamed over the file, so readers and crashes only
+ * ever see the previous or the new content, never a truncated mix.
+ * <p>
+ * With a backup the previous content is kept as "name.bak" until the next write; if a crash
+ * happens between both renames, {@link #openRead()} restores it.
+ * <p>
+ * Temporary files left by a crash are deleted on the first write of the file in the process, so
+ * a file must not be written by several processes at once.
+ * <p>
+ * Usage:
+ * <pre>
+ * FileOutputStream out = atomicFile.startWrite();
+ * try {
+ *     out.write(content);
+ *     atomicFile.finishWrite(out);
+ * } catch (IOException e) {
+ *     atomicFile.failWrite(out);
+ *     throw e;
+ * }
+ * </pre>
+ */
+public class AtomicFile {
+
+    // CONSTANTS
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String BACKUP_SUFFIX = ".bak";
+
+    // Files whose stale temporary files were deleted in this process
+    private static final Set<String> sSweptFiles = new HashSet<>();
+
+    private final File mBaseFile;
+    private final File mBackupFile;
+    private final boolean mKeepBackup;
+
+    /**
+     * AtomicFile constructor without backup
+     *
+     * @param baseFile File to be written
+     */
+    public AtomicFile(File baseFile) {
+        this(baseFile, false);
+    }
+
+    /**
+     * AtomicFile constructor
+     *
+     * @param baseFile   File to be written
+     * @param keepBackup Keep the previous content as "name.bak" on every write
+     */
+    public AtomicFile(File baseFile, boolean keepBackup) {
+        this.mBaseFile = baseFile.getAbsoluteFile();
+        this.mBackupFile = new File(mBaseFile.getPath() + BACKUP_SUFFIX);
+        this.mKeepBackup = keepBackup;
+    }
+
+    public File getBaseFile() {
+        return mBaseFile;
+    }
+
+    public File getBackupFile() {
+        return mBackupFile;
+    }
+
+    /**
+     * Open a stream to a new temporary sibling file, every call gets its own so concurrent
+     * writers never mix their content (the last one finished wins)
+     *
+     * @return Stream to be passed to {@link #finishWrite} or {@link #failWrite}
+     * @throws IOException If the temporary file cannot be created
+     */
+    public FileOutputStream startWrite() throws IOException {
+        File parent = mBaseFile.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+
+        String tempPrefix = "." + mBaseFile.getName() + ".";
+        synchronized (sSweptFiles) {
+            // Temporary files of this process are created after the sweep, older ones are leftovers
+            if (sSweptFiles.add(mBaseFile.getPath())) {
+                DeleteTempFiles(parent, tempPrefix);
+            }
+        }
+
+        File tempFile = File.createTempFile(tempPrefix, TEMP_SUFFIX, parent);
+        return new PendingOutputStream(tempFile);
+    }
+
+    /**
+     * Flush the written content to the storage device and replace the file with it
+     *
+     * @param out Stream returned by {@link #startWrite()}, closed by this method
+     * @throws IOException If the content cannot be synced or the file cannot be replaced, the
+     *                     previous content is kept in that case
+     */
+    public void finishWrite(FileOutputStream out) throws IOException {
+        finishWrite(out, true);
+    }
+
+    /**
+     * Discard the written content, the file keeps its previous content
+     *
+     * @param out Stream returned by {@link #startWrite()}, closed by this method
+     */
+    public void failWrite(FileOutputStream out) {
+        if (out == null) {
+            return;
+        }
+
+        try {
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        ((PendingOutputStream) out).mTempFile.delete();
+    }
+
+    /**
+     * Replace the file content with a byte array
+     *
+     * @param content New content
+     * @throws IOException If something was wrong with the write, the previous content is kept
+     */
+    public void write(byte[] content) throws IOException {
+        write(content, true);
+    }
+
+    /**
+     * Replace the file content with a text
+     *
+     * @param content New content
+     * @param charset Content charset
+     * @throws IOException If something was wrong with the write, the previous content is kept
+     */
+    public void write(String content, Charset charset) throws IOException {
+        write(content.getBytes(charset), true);
+    }
+
+    /**
+     * Open the file for reading, restoring the backup first if a crash happened while it was
+     * being replaced
+     *
+     * @return File stream
+     * @throws IOException If neither the file nor its backup exist
+     */
+    public FileInputStream openRead() throws IOException {
+        if (mKeepBackup && !mBaseFile.exists() && mBackupFile.exists()) {
+            mBackupFile.renameTo(mBaseFile);
+        }
+        return new FileInputStream(mBaseFile);
+    }
+
+    /**
+     * Read the whole file, restoring the backup first if needed
+     *
+     * @return File content
+     * @throws IOException If the file cannot be read
+     */
+    public byte[] readFully() throws IOException {
+        if (mKeepBackup && !mBaseFile.exists() && mBackupFile.exists()) {
+            mBackupFile.renameTo(mBaseFile);
+        }
+        return FileUtils.ReadFileBytes(mBaseFile);
+    }
+
+    /**
+     * Delete the file and its backup
+     */
+    public void delete() {
+        mBaseFile.delete();
+        mBackupFile.delete();
+    }
+
+    void write(byte[] content, boolean sync) throws IOException {
+        FileOutputStream out = startWrite();
+        try {
+            out.write(content);
+            finishWrite(out, sync);
+        } catch (IOException e) {
+            failWrite(out);
+            throw e;
+        }
+    }
+
+    /**
+     * @param sync false to skip the fsync, for {@link AtomicWriteBatch} whose journal is already
+     *             durable
+     */
+    void finishWrite(FileOutputStream out, boolean sync) throws IOException {
+        File tempFile = ((PendingOutputStream) out).mTempFile;
+        try {
+            out.flush();
+            if (sync) {
+                out.getFD().sync();
+            }
+        } catch (IOException e) {
+            failWrite(out);
+            throw e;
+        }
+        out.close();
+
+        if (mKeepBackup && mBaseFile.exists()) {
+            mBackupFile.delete();
+            if (!mBaseFile.renameTo(mBackupFile)) {
+                tempFile.delete();
+                throw new IOException("Cannot back up " + mBaseFile.getAbsolutePath());
+            }
+        }
+
+        if (!tempFile.renameTo(mBaseFile)) {
+            tempFile.delete();
+            throw new IOException("Cannot replace " + mBaseFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Delete the temporary files named prefix + random number + {@link #TEMP_SUFFIX}, the number
+     * check keeps the ones of other files sharing the prefix (e.g. "a" and "a.b")
+     */
+    private static void DeleteTempFiles(File directory, String prefix) {
+        File[] files = directory != null ? directory.listFiles() : null;
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(prefix) && name.endsWith(TEMP_SUFFIX)
+                    && name.length() > prefix.length() + TEMP_SUFFIX.length()
+                    && name.substring(prefix.length(), name.length() - TEMP_SUFFIX.length()).matches("-?\\d+")) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Output stream of a temporary file
+     */
+    private static class PendingOutputStream extends FileOutputStream {
+
+        private final File mTempFile;
+
+        private PendingOutputStream(File tempFile) throws IOException {
+            super(tempFile);
+            this.mTempFile = tempFile;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.apm.core.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Group many small atomic writes (e.g. JSON snapshots) under a single fsync.
+ * <p>
+ * Writes are staged in memory, a later write to the same file replacing the earlier one. On
+ * {@link #commit()} the whole batch is appended to a journal file with a checksum and the journal
+ * alone is synced; every file is then replaced through {@link AtomicFile} without its own sync.
+ * If the device loses power before the kernel flushed those files, {@link #recover()} writes them
+ * again from the journal. Once the journal grows past the checkpoint size, the written files are
+ * synced and the journal is emptied.
+ * <p>
+ * Files written through a batch should not be written by other means, a recovery would bring
+ * back their journaled content. After a process start, call {@link #recover()} before the first
+ * read of any batched file, which may otherwise still hold content older than the journal;
+ * the first {@link #commit()} recovers too, but only once it runs.
+ */
+public class AtomicWriteBatch {
+
+    // CONSTANTS
+    private static final int FRAME_MAGIC = 0x4a524e31;
+    private static final int FRAME_HEADER_SIZE = 12;
+    private static final int FRAME_TRAILER_SIZE = 8;
+    private static final long DEFAULT_CHECKPOINT_BYTES = 4 * 1024 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mJournalFile;
+    private final long mCheckpointBytes;
+    private final Map<File, byte[]> mPending = new LinkedHashMap<>();
+    private final Set<File> mUnsynced = new LinkedHashSet<>();
+    private long mJournalLength = -1;
+
+    /**
+     * AtomicWriteBatch constructor with a 4 MB checkpoint size
+     *
+     * @param journalFile Journal file, private to this batch
+     */
+    public AtomicWriteBatch(File journalFile) {
+        this(journalFile, DEFAULT_CHECKPOINT_BYTES);
+    }
+
+    /**
+     * AtomicWriteBatch constructor
+     *
+     * @param journalFile     Journal file, private to this batch
+     * @param checkpointBytes Journal size that triggers a checkpoint
+     */
+    public AtomicWriteBatch(File journalFile, long checkpointBytes) {
+        if (checkpointBytes <= 0) {
+            throw new IllegalArgumentException("Checkpoint size must be positive");
+        }
+        this.mJournalFile = journalFile;
+        this.mCheckpointBytes = checkpointBytes;
+    }
+
+    /**
+     * Stage a file write until the next commit
+     *
+     * @param file    File to be replaced
+     * @param content New content, must not be modified until committed
+     */
+    public synchronized void write(File file, byte[] content) {
+        mPending.put(file.getAbsoluteFile(), content);
+    }
+
+    /**
+     * Stage a file write until the next commit
+     *
+     * @param file    File to be replaced
+     * @param content New content
+     * @param charset Content charset
+     */
+    public synchronized void write(File file, String content, Charset charset) {
+        write(file, content.getBytes(charset));
+    }
+
+    /**
+     * @return Staged writes not committed yet
+     */
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    /**
+     * Make the staged writes durable with a single sync and replace their files
+     *
+     * @throws IOException If the journal cannot be written (nothing is lost, the writes stay
+     *                     staged) or a file cannot be replaced (it is written again on the next
+     *                     commit or recovery)
+     */
+    public synchronized void commit() throws IOException {
+        if (mJournalLength < 0) {
+            recover();
+        }
+        if (mPending.isEmpty()) {
+            return;
+        }
+
+        appendJournal(EncodeFrame(mPending));
+
+        Iterator<Map.Entry<File, byte[]>> iterator = mPending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<File, byte[]> entry = iterator.next();
+            new AtomicFile(entry.getKey()).write(entry.getValue(), false);
+            mUnsynced.add(entry.getKey());
+            iterator.remove();
+        }
+
+        if (mJournalLength >= mCheckpointBytes) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Sync every file written since the last checkpoint and empty the journal
+     *
+     * @throws IOException If a file cannot be synced, the journal is kept in that case
+     */
+    public synchronized void checkpoint() throws IOException {
+        for (File file : mUnsynced) {
+            if (file.exists()) {
+                SyncFile(file);
+            }
+        }
+        mUnsynced.clear();
+
+        if (mJournalFile.exists()) {
+            RandomAccessFile journal = new RandomAccessFile(mJournalFile, "rw");
+            try {
+                journal.setLength(0);
+                journal.getFD().sync();
+            } finally {
+                journal.close();
+            }
+        }
+        mJournalLength = 0;
+    }
+
+    /**
+     * Write again the files of every complete batch left in the journal, a torn last batch
+     * (crash during its commit) is dropped
+     *
+     * @return Files written again
+     * @throws IOException If the journal cannot be read or a file cannot be written
+     */
+    public synchronized int recover() throws IOException {
+        mJournalLength = 0;
+        if (!mJournalFile.exists()) {
+            return 0;
+        }
+
+        byte[] journal = FileUtils.ReadFileBytes(mJournalFile);
+        Map<File, byte[]> replay = new LinkedHashMap<>();
+        int offset = 0;
+        while (true) {
+            int frameLength = DecodeFrame(journal, offset, replay);
+            if (frameLength <= 0) {
+                break;
+            }
+            offset += frameLength;
+        }
+        mJournalLength = offset;
+
+        for (Map.Entry<File, byte[]> entry : replay.entrySet()) {
+            new AtomicFile(entry.getKey()).write(entry.getValue(), false);
+            mUnsynced.add(entry.getKey());
+        }
+        checkpoint();
+        return replay.size();
+    }
+
+    private void appendJournal(byte[] frame) throws IOException {
+        File parent = mJournalFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+
+        RandomAccessFile journal = new RandomAccessFile(mJournalFile, "rw");
+        try {
+            // Drop the torn tail of a failed commit, if any
+            journal.setLength(mJournalLength);
+            journal.seek(mJournalLength);
+            journal.write(frame);
+            journal.getFD().sync();
+            mJournalLength += frame.length;
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Frame layout: magic, entry count, body length, body (path, content length, content per
+     * entry), CRC32 of the body
+     */
+    private static byte[] EncodeFrame(Map<File, byte[]> entries) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bodyOutput = new DataOutputStream(body);
+        for (Map.Entry<File, byte[]> entry : entries.entrySet()) {
+            byte[] path = entry.getKey().getPath().getBytes(UTF_8);
+            bodyOutput.writeInt(path.length);
+            bodyOutput.write(path);
+            bodyOutput.writeInt(entry.getValue().length);
+            bodyOutput.write(entry.getValue());
+        }
+        bodyOutput.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(body.toByteArray());
+
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(body.size() + FRAME_HEADER_SIZE + FRAME_TRAILER_SIZE);
+        DataOutputStream frameOutput = new DataOutputStream(frame);
+        frameOutput.writeInt(FRAME_MAGIC);
+        frameOutput.writeInt(entries.size());
+        frameOutput.writeInt(body.size());
+        body.writeTo(frameOutput);
+        frameOutput.writeLong(crc.getValue());
+        frameOutput.flush();
+        return frame.toByteArray();
+    }
+
+    /**
+     * Decode a frame and add its entries, only if the whole frame is valid
+     *
+     * @return Frame length, 0 if there is no complete valid frame at the offset
+     */
+    private static int DecodeFrame(byte[] journal, int offset, Map<File, byte[]> entries) throws IOException {
+        if (journal.length - offset < FRAME_HEADER_SIZE + FRAME_TRAILER_SIZE) {
+            return 0;
+        }
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(journal, offset, journal.length - offset));
+        if (input.readInt() != FRAME_MAGIC) {
+            return 0;
+        }
+        int count = input.readInt();
+        int bodyLength = input.readInt();
+        if (bodyLength < 0 || bodyLength > journal.length - offset - FRAME_HEADER_SIZE - FRAME_TRAILER_SIZE) {
+            return 0;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(journal, offset + FRAME_HEADER_SIZE, bodyLength);
+        input.skipBytes(bodyLength);
+        if (input.readLong() != crc.getValue()) {
+            return 0;
+        }
+
+        // A batch is replayed as a whole or not at all, decode it aside before adding it
+        Map<File, byte[]> frameEntries = new LinkedHashMap<>();
+        input = new DataInputStream(new ByteArrayInputStream(journal, offset + FRAME_HEADER_SIZE, bodyLength));
+        try {
+            for (int i = 0; i < count; i++) {
+                int pathLength = input.readInt();
+                if (pathLength < 0 || pathLength > input.available()) {
+                    return 0;
+                }
+                byte[] path = new byte[pathLength];
+                input.readFully(path);
+                int contentLength = input.readInt();
+                if (contentLength < 0 || contentLength > input.available()) {
+                    return 0;
+                }
+                byte[] content = new byte[contentLength];
+                input.readFully(content);
+                frameEntries.put(new File(new String(path, UTF_8)), content);
+            }
+        } catch (EOFException e) {
+            return 0;
+        }
+        if (input.available() != 0) {
+            return 0;
+        }
+
+        entries.putAll(frameEntries);
+        return FRAME_HEADER_SIZE + bodyLength + FRAME_TRAILER_SIZE;
+    }
+
+    private static void SyncFile(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            in.getFD().sync();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.apm.core.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pool of mutable bitmaps to be reused with {@link android.graphics.BitmapFactory.Options#inBitmap}
+ * or as drawing surfaces, instead of allocating a new bitmap on every decode.
+ * <p>
+ * Bitmaps are bucketed by {@link Bitmap.Config} and allocation size. Since KitKat any bitmap whose
+ * allocation is at least the requested size can be reused, so the smallest fitting bitmap is
+ * returned (never more than {@link #MAX_SIZE_MULTIPLE} times the requested size, to avoid
+ * pinning big allocations for small images). When the byte budget is exceeded the least recently
+ * pooled bitmaps are recycled.
+ */
+public class BitmapPool {
+
+    // CONSTANTS
+    public static final int MAX_SIZE_MULTIPLE = 4;
+
+    private final long mMaxSize;
+    private final Map<Bitmap.Config, TreeMap<Integer, LinkedList<Bitmap>>> mBuckets = new HashMap<>();
+    private final LinkedHashSet<Bitmap> mLruOrder = new LinkedHashSet<>();
+
+    private long mCurrentSize;
+    private long mHitCount;
+    private long mMissCount;
+    private long mPutCount;
+    private long mEvictionCount;
+
+    /**
+     * BitmapPool constructor
+     *
+     * @param maxSize Maximum bytes held by pooled bitmaps
+     */
+    public BitmapPool(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size must be positive");
+        }
+        this.mMaxSize = maxSize;
+    }
+
+    /**
+     * Get a pooled bitmap to be given as inBitmap to a decode of the requested size
+     *
+     * @param byteCount Bytes of the decoded bitmap
+     * @param config    Config of the decoded bitmap
+     * @return A mutable bitmap whose allocation fits the decode, with the default density, or
+     * null if none is pooled
+     */
+    public synchronized Bitmap getForDecode(int byteCount, Bitmap.Config config) {
+        TreeMap<Integer, LinkedList<Bitmap>> bucket = mBuckets.get(config);
+        Map.Entry<Integer, LinkedList<Bitmap>> entry = bucket == null ? null : bucket.ceilingEntry(byteCount);
+
+        if (entry == null || entry.getKey() > (long) byteCount * MAX_SIZE_MULTIPLE) {
+            mMissCount++;
+            return null;
+        }
+
+        Bitmap bitmap = entry.getValue().removeFirst();
+        if (entry.getValue().isEmpty()) {
+            bucket.remove(entry.getKey());
+        }
+        mLruOrder.remove(bitmap);
+        mCurrentSize -= entry.getKey();
+        mHitCount++;
+        // A previous scaled decode may have left its target density, region decodes and
+        // drawing into the bitmap would keep it
+        bitmap.setDensity(BitmapUtils.GetDefaultDensity());
+        return bitmap;
+    }
+
+    /**
+     * Get a cleared mutable bitmap of exact dimensions, reusing a pooled one if possible
+     *
+     * @param width  Bitmap width
+     * @param height Bitmap height
+     * @param config Bitmap config
+     * @return A transparent mutable bitmap with the default density, pooled or newly allocated
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = getForDecode(width * height * GetBytesPerPixel(config), config);
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+
+        bitmap.reconfigure(width, height, config);
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Return a bitmap to the pool. Immutable, recycled or too big bitmaps are recycled instead.
+     * The bitmap must not be used by the caller afterwards.
+     *
+     * @param bitmap Bitmap no longer used
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+
+        int byteCount = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || bitmap.getConfig() == null || byteCount > mMaxSize
+                || mLruOrder.contains(bitmap)) {
+            if (!mLruOrder.contains(bitmap)) {
+                bitmap.recycle();
+            }
+            return;
+        }
+
+        TreeMap<Integer, LinkedList<Bitmap>> bucket = mBuckets.get(bitmap.getConfig());
+        if (bucket == null) {
+            bucket = new TreeMap<>();
+            mBuckets.put(bitmap.getConfig(), bucket);
+        }
+
+        LinkedList<Bitmap> bitmaps = bucket.get(byteCount);
+        if (bitmaps == null) {
+            bitmaps = new LinkedList<>();
+            bucket.put(byteCount, bitmaps);
+        }
+
+        bitmaps.addFirst(bitmap);
+        mLruOrder.add(bitmap);
+        mCurrentSize += byteCount;
+        mPutCount++;
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Recycle every pooled bitmap
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Recycle pooled bitmaps until the pool holds at most the given bytes (e.g. on low memory)
+     *
+     * @param maxSize Bytes to keep
+     */
+    public synchronized void trimToSize(long maxSize) {
+        Iterator<Bitmap> iterator = mLruOrder.iterator();
+        while (mCurrentSize > maxSize && iterator.hasNext()) {
+            Bitmap eldest = iterator.next();
+            iterator.remove();
+
+            int byteCount = eldest.getAllocationByteCount();
+            TreeMap<Integer, LinkedList<Bitmap>> bucket = mBuckets.get(eldest.getConfig());
+            LinkedList<Bitmap> bitmaps = bucket.get(byteCount);
+            bitmaps.remove(eldest);
+            if (bitmaps.isEmpty()) {
+                bucket.remove(byteCount);
+            }
+
+            mCurrentSize -= byteCount;
+            mEvictionCount++;
+            eldest.recycle();
+        }
+    }
+
+    /**
+     * @return Bytes currently held by pooled bitmaps
+     */
+    public synchronized long getCurrentSize() {
+        return mCurrentSize;
+    }
+
+    /**
+     * @return Maximum bytes held by pooled bitmaps
+     */
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return Requests served with a pooled bitmap
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return Requests that found no fitting pooled bitmap
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return Hits over requests, 0 if nothing was requested
+     */
+    public synchronized float getHitRate() {
+        long requestCount = mHitCount + mMissCount;
+        return requestCount == 0 ? 0 : (float) mHitCount / requestCount;
+    }
+
+    /**
+     * @return Bitmaps accepted by the pool
+     */
+    public synchronized long getPutCount() {
+        return mPutCount;
+    }
+
+    /**
+     * @return Pooled bitmaps recycled to respect the byte budget
+     */
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * Get the bytes used by each pixel of a config
+     *
+     * @param config Bitmap config
+     * @return Bytes per pixel
+     */
+    public static int GetBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+}
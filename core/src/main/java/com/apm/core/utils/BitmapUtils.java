@@ -3,15 +3,20 @@ package com.apm.core.utils;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Point;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by Ing. Oscar G. Medina Cruz on 19/06/17.
@@ -21,22 +26,84 @@ import java.io.IOException;
 
 public class BitmapUtils {
 
+    // CONSTANTS
+    private static final int DENSITY_PRECISION = 10000;
+
+    private static BitmapPool sBitmapPool = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
+    private static int sDefaultDensity;
+
     /**
-     * Save an image byte array into temporary file
+     * Get the pool of bitmaps reused by decode methods of this class
+     *
+     * @return Shared {@link BitmapPool}
+     */
+    public static BitmapPool GetBitmapPool() {
+        return sBitmapPool;
+    }
+
+    /**
+     * Replace the pool of bitmaps reused by decode methods of this class (e.g. to change its
+     * byte budget). Bitmaps held by the previous pool are recycled.
+     *
+     * @param bitmapPool New {@link BitmapPool}
+     */
+    public static void SetBitmapPool(BitmapPool bitmapPool) {
+        BitmapPool previous = sBitmapPool;
+        sBitmapPool = bitmapPool;
+        previous.clear();
+    }
+
+    /**
+     * Return a bitmap obtained from this class to the bitmap pool, so next decodes can reuse its
+     * memory. The bitmap must not be used afterwards.
+     *
+     * @param bitmap Bitmap no longer used
+     */
+    public static void ReleaseBitmap(Bitmap bitmap) {
+        sBitmapPool.put(bitmap);
+    }
+
+    /**
+     * Get the density BitmapFactory gives to unscaled decodes and new bitmaps (the device
+     * density). Scaled decodes of this class are reset to it, see
+     * {@link #ApplyDecodeScale(BitmapFactory.Options, float, boolean)}.
+     *
+     * @return Default bitmap density
+     */
+    public static int GetDefaultDensity() {
+        if (sDefaultDensity == Bitmap.DENSITY_NONE) {
+            // Bitmap.getDefaultDensity() is hidden, read it from a new bitmap
+            Bitmap probe = Bitmap.createBitmap(1, 1, Bitmap.Config.ALPHA_8);
+            sDefaultDensity = probe.getDensity();
+            probe.recycle();
+        }
+        return sDefaultDensity;
+    }
+
+    /**
+     * Give a decoded bitmap the density of an unscaled decode
+     *
+     * @param bitmap Decoded bitmap, may be null
+     * @return The same bitmap
+     */
+    static Bitmap ResetDensity(Bitmap bitmap) {
+        if (bitmap != null && bitmap.getDensity() != GetDefaultDensity()) {
+            bitmap.setDensity(GetDefaultDensity());
+        }
+        return bitmap;
+    }
+
+    /**
+     * Save an image byte array into temporary file of the external {@link TempFileCache}
      *
      * @param context     current application context
      * @param bitmapBytes image byte array
-     * @param imageName   name of the file to save
+     * @param imageName   unused, temporary files are named after their content
      * @return temporary file
      * @throws IOException if something was wrong with file creation
      */
     public static File SaveBitmapInTemporaryFile(Context context, byte[] bitmapBytes, String imageName) throws IOException {
-        File tempFile = File.createTempFile(imageName.replace(" ", "_"), ".jpg", context.getExternalCacheDir());
-        FileOutputStream fos = new FileOutputStream(tempFile);
-        fos.write(bitmapBytes);
-        fos.flush();
-        fos.close();
-        return tempFile;
+        return TempFileCache.GetExternal(context).put(bitmapBytes, ".jpg");
     }
 
     /**
@@ -49,11 +116,7 @@ public class BitmapUtils {
      */
     public static File SaveImageBytesInFolder(byte[] bitmapBytes, File storePath, String imageName) throws IOException {
         File outFile = new File(storePath, imageName);
-        outFile.createNewFile();
-        FileOutputStream fos = new FileOutputStream(outFile);
-        fos.write(bitmapBytes);
-        fos.flush();
-        fos.close();
+        new AtomicFile(outFile).write(bitmapBytes);
         return outFile;
     }
 
@@ -64,6 +127,12 @@ public class BitmapUtils {
      * @return Point object that contains with and height in x and y properties
      */
     public static Point GetImageSize(File imageFile) {
+        ImageHeader header = ImageHeaderParser.Parse(imageFile);
+        if (header != null) {
+            return new Point(header.getWidth(), header.getHeight());
+        }
+
+        // Formats without header parser (BMP, HEIF...)
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
 
@@ -71,7 +140,6 @@ public class BitmapUtils {
         int width = options.outWidth;
         int height = options.outHeight;
 
-        String type = options.outMimeType;
         return new Point(width, height);
     }
 
@@ -82,6 +150,12 @@ public class BitmapUtils {
      * @return              Point object that contains with and height in x and y properties
      */
     public static Point GetImageSize(byte[] imageBytes) {
+        ImageHeader header = ImageHeaderParser.Parse(imageBytes);
+        if (header != null) {
+            return new Point(header.getWidth(), header.getHeight());
+        }
+
+        // Formats without header parser (BMP, HEIF...)
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
 
@@ -89,7 +163,6 @@ public class BitmapUtils {
         int width = options.outWidth;
         int height = options.outHeight;
 
-        String type = options.outMimeType;
         return new Point(width, height);
     }
 
@@ -105,27 +178,161 @@ public class BitmapUtils {
         return new Point(width, height);
     }
 
+    /**
+     * Get the scale factor that fits a source size into a target size
+     *
+     * @param sourceW      Source width
+     * @param sourceH      Source height
+     * @param targetW      Target width, 0 to scale by height only
+     * @param targetH      Target height, 0 to scale by width only
+     * @param centerInside true to fit the whole source inside target (smallest factor), false to
+     *                     fill the target (largest factor, as center crop)
+     * @return Scale factor from source to target size
+     */
+    public static float GetScaleFactor(int sourceW, int sourceH, int targetW, int targetH, boolean centerInside) {
+        float widthRatio = targetW > 0 ? (float) targetW / sourceW : Float.NaN;
+        float heightRatio = targetH > 0 ? (float) targetH / sourceH : Float.NaN;
+
+        if (Float.isNaN(widthRatio)) {
+            return Float.isNaN(heightRatio) ? 1f : heightRatio;
+        } else if (Float.isNaN(heightRatio)) {
+            return widthRatio;
+        }
+
+        return centerInside ? Math.min(widthRatio, heightRatio) : Math.max(widthRatio, heightRatio);
+    }
+
+    /**
+     * Shared sizing of every scaled decode: set the options of a bounds-decoded image so the next
+     * decode fills the target size (like a center crop, keeping aspect ratio) without
+     * decoding more pixels than needed
+     *
+     * @param options   Options with outWidth and outHeight set by an inJustDecodeBounds decode
+     * @param targetW   Target width, 0 to scale by height only
+     * @param targetH   Target height, 0 to scale by width only
+     * @param exactSize true to let the decoder downscale the sampled image to the exact fill size,
+     *                  false to only use power of two sampling (up to 2x the target size)
+     */
+    public static void SetDecodeSize(BitmapFactory.Options options, int targetW, int targetH, boolean exactSize) {
+        ApplyDecodeScale(options,
+                GetScaleFactor(options.outWidth, options.outHeight, targetW, targetH, false),
+                exactSize);
+    }
+
+    /**
+     * Set decode options for a scale factor: power of two inSampleSize, optionally followed by an
+     * inDensity / inTargetDensity downscale done by the decoder to the exact scaled size.
+     * The decoder stamps inTargetDensity on the bitmap, so drawables would shrink it again
+     * against the display density: pass the decoded bitmap to {@link #ResetDensity(Bitmap)}
+     * (the pooled decode methods of this class do it).
+     *
+     * @param options     Decode options
+     * @param scaleFactor Scale factor from source to target size
+     * @param exactSize   true to downscale to the exact scaled size after sampling
+     */
+    public static void ApplyDecodeScale(BitmapFactory.Options options, float scaleFactor, boolean exactSize) {
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = CalculateInSampleSize(scaleFactor);
+
+        float remainingScale = scaleFactor * options.inSampleSize;
+        if (exactSize && remainingScale < 1f) {
+            options.inScaled = true;
+            options.inDensity = DENSITY_PRECISION;
+            options.inTargetDensity = Math.max(1, Math.round(remainingScale * DENSITY_PRECISION));
+        } else {
+            options.inDensity = 0;
+            options.inTargetDensity = 0;
+        }
+    }
+
+    /**
+     * Get the largest power of two sample size that still decodes an image at least as big as
+     * the requested scale factor, so the decoder never allocates more than needed
+     *
+     * @param scaleFactor Scale factor from source to target size, see
+     *                    {@link #GetScaleFactor(int, int, int, int, boolean)}
+     * @return Power of two sample size, 1 if the image is not scaled down
+     */
+    public static int CalculateInSampleSize(float scaleFactor) {
+        int sampleSize = 1;
+        if (scaleFactor <= 0 || scaleFactor >= 1) {
+            return sampleSize;
+        }
+
+        while (sampleSize * 2 * scaleFactor <= 1) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
     /**
      * Get scaled bitmap from file source
      * @param imageFile     Image file to be scaled
      * @param targetW       Image target width
      * @param targetH       Image target height
-     * @return              Bitmap of scaled image
+     * @return              Bitmap of scaled image, decoded into a pooled bitmap when possible.
+     *                      Give it back with {@link #ReleaseBitmap(Bitmap)} when no longer used
      */
     public static Bitmap GetScaledBitmapFromFile(File imageFile, int targetW, int targetH) {
         BitmapFactory.Options bmOptions = new BitmapFactory.Options();
         bmOptions.inJustDecodeBounds = true;
         BitmapFactory.decodeFile(imageFile.getAbsolutePath(), bmOptions);
-        int photoW = bmOptions.outWidth;
-        int photoH = bmOptions.outHeight;
+        SetDecodeSize(bmOptions, targetW, targetH, true);
 
-        int scaleFactor = Math.min(photoW/targetW, photoH/targetH);
+        return DecodePooledFile(imageFile.getAbsolutePath(), bmOptions);
+    }
 
-        bmOptions.inJustDecodeBounds = false;
-        bmOptions.inSampleSize = scaleFactor;
-        bmOptions.inPurgeable = true;
+    /**
+     * Decode only a crop rectangle of an image file, without decoding the rest of the image
+     * @param imageFile     Source image file
+     * @param region        Crop rectangle in source image pixels, clamped to image bounds
+     * @param targetW       Target width, 0 to scale by height only
+     * @param targetH       Target height, 0 to scale by width only
+     * @return              Bitmap of the region, power of two sampled to fill target size, or
+     *                      null if region is outside the image. Give it back with
+     *                      {@link #ReleaseBitmap(Bitmap)} when no longer used
+     * @throws IOException  If image cannot be read or its format is not JPEG, PNG or WebP
+     */
+    public static Bitmap GetRegionBitmapFromFile(File imageFile, Rect region, int targetW, int targetH) throws IOException {
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(imageFile.getAbsolutePath(), false);
+        try {
+            return DecodeRegionAtSize(decoder, region, targetW, targetH);
+        } finally {
+            decoder.recycle();
+        }
+    }
 
-        return BitmapFactory.decodeFile(imageFile.getAbsolutePath(), bmOptions);
+    /**
+     * Decode only a crop rectangle of an image byte array, without decoding the rest of the image
+     * @param imageBytes    Source image byte array
+     * @param region        Crop rectangle in source image pixels, clamped to image bounds
+     * @param targetW       Target width, 0 to scale by height only
+     * @param targetH       Target height, 0 to scale by width only
+     * @return              Bitmap of the region, power of two sampled to fill target size, or
+     *                      null if region is outside the image. Give it back with
+     *                      {@link #ReleaseBitmap(Bitmap)} when no longer used
+     * @throws IOException  If image format is not JPEG, PNG or WebP
+     */
+    public static Bitmap GetRegionBitmapFromBytes(byte[] imageBytes, Rect region, int targetW, int targetH) throws IOException {
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(imageBytes, 0, imageBytes.length, false);
+        try {
+            return DecodeRegionAtSize(decoder, region, targetW, targetH);
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    private static Bitmap DecodeRegionAtSize(BitmapRegionDecoder decoder, Rect region, int targetW, int targetH) {
+        Rect clamped = new Rect(region);
+        if (!clamped.intersect(0, 0, decoder.getWidth(), decoder.getHeight())) {
+            return null;
+        }
+
+        // Region decodes ignore inDensity scaling, only power of two sampling applies
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = CalculateInSampleSize(
+                GetScaleFactor(clamped.width(), clamped.height(), targetW, targetH, false));
+        return DecodePooledRegion(decoder, clamped, options);
     }
 
     /**
@@ -141,23 +348,14 @@ public class BitmapUtils {
         BitmapFactory.Options bitmapOptions = new BitmapFactory.Options();
         bitmapOptions.inJustDecodeBounds = true;
         BitmapFactory.decodeFile(imageFile.getAbsolutePath(), bitmapOptions);
-        int photoW = bitmapOptions.outWidth;
-        int photoH = bitmapOptions.outHeight;
-
-        int scaleFactor = Math.min(photoW/targetW, photoH/targetH);
-
-        bitmapOptions.inJustDecodeBounds = false;
-        bitmapOptions.inSampleSize = scaleFactor;
-        bitmapOptions.inPurgeable = true;
-
-        Bitmap finalBitmap = BitmapFactory.decodeFile(imageFile.getAbsolutePath(), bitmapOptions);
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        finalBitmap.compress(compressFormat, imageQuality, stream);
-        byte[] imageBytes = stream.toByteArray();
-
-        String[] path = FileUtils.GetFilePathNameExt(imageFile);
-
-        SaveImageBytesInFolder(imageBytes, new File(path[0]), imageFile.getName());
+        SetDecodeSize(bitmapOptions, targetW, targetH, true);
+
+        Bitmap finalBitmap = DecodePooledFile(imageFile.getAbsolutePath(), bitmapOptions);
+        try {
+            FileUtils.CompressBitmapToFile(finalBitmap, imageFile, compressFormat, imageQuality);
+        } finally {
+            ReleaseBitmap(finalBitmap);
+        }
     }
 
     /**
@@ -165,29 +363,17 @@ public class BitmapUtils {
      * @param bitmap            Bitmap source to be scaled
      * @param targetW           Image target width
      * @param targetH           Image target height
-     * @param compressFormat    Image compress format
-     * @param imageQuality      Image compress quality
-     * @return                  Bitmap of scaled image
+     * @param compressFormat    Not used anymore, the bitmap is scaled in memory without encoding
+     * @param imageQuality      Not used anymore, the bitmap is scaled in memory without encoding
+     * @return                  New bitmap of scaled image, drawn into a pooled bitmap when possible.
+     *                          Give it back with {@link #ReleaseBitmap(Bitmap)} when no longer used
      */
     public static Bitmap GetScaledBitmapFromBitmap(Bitmap bitmap, int targetW, int targetH, Bitmap.CompressFormat compressFormat, int imageQuality) {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        bitmap.compress(compressFormat, imageQuality, stream);
-        byte[] imageBytes = stream.toByteArray();
-
-        BitmapFactory.Options bitmapOptions = new BitmapFactory.Options();
-        bitmapOptions.inJustDecodeBounds = true;
-        BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, bitmapOptions);
-
-        int photoW = bitmapOptions.outWidth;
-        int photoH = bitmapOptions.outHeight;
-
-        int scaleFactor = Math.min(photoW/targetW, photoH/targetH);
-
-        bitmapOptions.inJustDecodeBounds = false;
-        bitmapOptions.inSampleSize = scaleFactor;
-        bitmapOptions.inPurgeable = true;
-
-        return BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, bitmapOptions);
+        Bitmap scaledBitmap = ScaleBitmapInMemory(bitmap, targetW, targetH);
+        if (scaledBitmap == bitmap) {
+            return bitmap.copy(GetDrawConfig(bitmap), true);
+        }
+        return scaledBitmap;
     }
 
     /**
@@ -202,26 +388,14 @@ public class BitmapUtils {
      * @throws IOException
      */
     public static File GetScaledImageFileFromBitmap(Bitmap bitmap, File destFile, int targetW, int targetH, Bitmap.CompressFormat compressFormat, int imageQuality) throws IOException {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        bitmap.compress(compressFormat, imageQuality, stream);
-        byte[] imageBytes = stream.toByteArray();
-
-        BitmapFactory.Options bitmapOptions = new BitmapFactory.Options();
-        bitmapOptions.inJustDecodeBounds = true;
-        BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, bitmapOptions);
-
-        int photoW = bitmapOptions.outWidth;
-        int photoH = bitmapOptions.outHeight;
-
-        int scaleFactor = Math.min(photoW/targetW, photoH/targetH);
-
-        bitmapOptions.inJustDecodeBounds = false;
-        bitmapOptions.inSampleSize = scaleFactor;
-        bitmapOptions.inPurgeable = true;
-
-        String[] path = FileUtils.GetFilePathNameExt(destFile);
-
-        return SaveImageBytesInFolder(imageBytes, new File(path[0]), destFile.getName());
+        Bitmap scaledBitmap = ScaleBitmapInMemory(bitmap, targetW, targetH);
+        try {
+            return FileUtils.CompressBitmapToFile(scaledBitmap, destFile, compressFormat, imageQuality);
+        } finally {
+            if (scaledBitmap != bitmap) {
+                ReleaseBitmap(scaledBitmap);
+            }
+        }
     }
 
     /**
@@ -234,26 +408,13 @@ public class BitmapUtils {
      * @return                  Byte array of scaled image
      */
     public static byte[] GetScaledImageBytesFromBitmap(Bitmap bitmap, int targetW, int targetH, Bitmap.CompressFormat compressFormat, int imageQuality) {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        bitmap.compress(compressFormat, imageQuality, stream);
-        byte[] imageBytes = stream.toByteArray();
-
-        BitmapFactory.Options bitmapOptions = new BitmapFactory.Options();
-        bitmapOptions.inJustDecodeBounds = true;
-        BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, bitmapOptions);
-
-        int photoW = bitmapOptions.outWidth;
-        int photoH = bitmapOptions.outHeight;
+        Bitmap scaledBitmap = ScaleBitmapInMemory(bitmap, targetW, targetH);
 
-        int scaleFactor = Math.min(photoW/targetW, photoH/targetH);
-
-        bitmapOptions.inJustDecodeBounds = false;
-        bitmapOptions.inSampleSize = scaleFactor;
-        bitmapOptions.inPurgeable = true;
-
-        stream = new ByteArrayOutputStream();
-        BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, bitmapOptions)
-                .compress(compressFormat, imageQuality, stream);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        scaledBitmap.compress(compressFormat, imageQuality, stream);
+        if (scaledBitmap != bitmap) {
+            ReleaseBitmap(scaledBitmap);
+        }
 
         return stream.toByteArray();
     }
@@ -272,47 +433,146 @@ public class BitmapUtils {
         bitmapOptions.inJustDecodeBounds = true;
         BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, bitmapOptions);
 
-        int photoW = bitmapOptions.outWidth;
-        int photoH = bitmapOptions.outHeight;
-
-        int scaleFactor = Math.min(photoW/targetW, photoH/targetH);
-
-        bitmapOptions.inJustDecodeBounds = false;
-        bitmapOptions.inSampleSize = scaleFactor;
-        bitmapOptions.inPurgeable = true;
+        SetDecodeSize(bitmapOptions, targetW, targetH, true);
 
         ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, bitmapOptions)
-                .compress(compressFormat, imageQuality, stream);
+        Bitmap scaledBitmap = DecodePooledByteArray(imageBytes, bitmapOptions);
+        scaledBitmap.compress(compressFormat, imageQuality, stream);
+        ReleaseBitmap(scaledBitmap);
 
         return stream.toByteArray();
     }
 
     /**
-     * Combine two bitmap (in byte array format) in same byte array
+     * Combine two bitmap (in byte array format) in same byte array. The overlay is anchored at the
+     * top left corner: an overlay bigger than the base is scaled down to fill it, a smaller one
+     * (e.g. a watermark) is drawn at its natural size.
      *
      * @param baseImage    base byte array bitmap
      * @param overlayImage overlay byte array bitmap
      * @param config       output configuration
      * @param compressFormat    compress format for final image
      * @return combined byte array
-     * @throws IOException if the file cannot be created
+     * @throws IOException if an image cannot be decoded or the result cannot be encoded
      */
     public static byte[] CombineBitmapArraysInSameBitmap(byte[] baseImage, byte[] overlayImage, Bitmap.Config config, Bitmap.CompressFormat compressFormat) throws IOException {
         Point frameBitmapSize = GetImageSize(baseImage);
-        Bitmap resultBitmap = Bitmap.createBitmap(frameBitmapSize.x, frameBitmapSize.y, config);
 
-        Canvas canvas = new Canvas(resultBitmap);
-        canvas.drawBitmap(resultBitmap, new Matrix(), (Paint)null);
-        canvas.drawBitmap(BitmapFactory.decodeByteArray(baseImage, 0, baseImage.length), 0.0F, 0.0F, (Paint)null);
-        byte[] scaledOverlay = GetScaledImageBytesFromBytes(overlayImage, frameBitmapSize.x, frameBitmapSize.y, Bitmap.CompressFormat.PNG, 100);
-        canvas.drawBitmap(BitmapFactory.decodeByteArray(scaledOverlay, 0, scaledOverlay.length), 0.0F, 0.0F, (Paint)null);
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        resultBitmap.compress(compressFormat, 100, byteArrayOutputStream);
-        byte[] finalBitmap = byteArrayOutputStream.toByteArray();
-        byteArrayOutputStream.close();
-        resultBitmap.recycle();
-        return finalBitmap;
+        List<ImageLayer> layers = new ArrayList<>();
+        layers.add(new ImageLayer.Builder(baseImage).build());
+        Point overlaySize = GetImageSize(overlayImage);
+        ImageLayer.Builder overlayLayer = new ImageLayer.Builder(overlayImage);
+        // Only scale down, never stretch a small overlay over the base
+        if (GetScaleFactor(overlaySize.x, overlaySize.y, frameBitmapSize.x, frameBitmapSize.y, false) < 1f) {
+            overlayLayer.size(frameBitmapSize.x, frameBitmapSize.y);
+        }
+        layers.add(overlayLayer.build());
+        return CompositeLayersToBytes(frameBitmapSize.x, frameBitmapSize.y, layers, config, compressFormat, 100);
+    }
+
+    /**
+     * Composite image layers, bottom to top, in a single pass: every layer is decoded once at its
+     * final size and drawn into a pooled bitmap. A first layer that covers the whole composition
+     * opaquely is decoded straight into the result, with no extra canvas.
+     *
+     * @param width  Composition width
+     * @param height Composition height
+     * @param layers {@link ImageLayer} list, bottom first
+     * @param config Composition config
+     * @return Composed bitmap. Give it back with {@link #ReleaseBitmap(Bitmap)} when no longer used
+     * @throws IOException If a layer cannot be decoded
+     */
+    public static Bitmap CompositeLayers(int width, int height, List<ImageLayer> layers, Bitmap.Config config) throws IOException {
+        Bitmap canvasBitmap = null;
+        Canvas canvas = null;
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        boolean composed = false;
+
+        try {
+            for (int i = 0; i < layers.size(); i++) {
+                ImageLayer layer = layers.get(i);
+                Bitmap layerBitmap = DecodeLayer(layer, config);
+                if (layerBitmap == null) {
+                    throw new IOException("Cannot decode layer " + i);
+                }
+
+                if (canvasBitmap == null && IsCanvasLayer(layer, layerBitmap, width, height, config)) {
+                    canvasBitmap = layerBitmap;
+                    canvas = new Canvas(canvasBitmap);
+                    continue;
+                }
+
+                if (canvasBitmap == null) {
+                    canvasBitmap = sBitmapPool.get(width, height, config);
+                    canvas = new Canvas(canvasBitmap);
+                }
+
+                try {
+                    DrawLayer(canvas, layer, layerBitmap, paint);
+                } finally {
+                    if (layerBitmap != layer.getBitmap()) {
+                        ReleaseBitmap(layerBitmap);
+                    }
+                }
+            }
+
+            if (canvasBitmap == null) {
+                canvasBitmap = sBitmapPool.get(width, height, config);
+            }
+            composed = true;
+            return canvasBitmap;
+        } finally {
+            if (!composed && canvasBitmap != null) {
+                ReleaseBitmap(canvasBitmap);
+            }
+        }
+    }
+
+    /**
+     * Composite image layers and encode the result once
+     *
+     * @param width          Composition width
+     * @param height         Composition height
+     * @param layers         {@link ImageLayer} list, bottom first
+     * @param config         Composition config
+     * @param compressFormat Output compress format
+     * @param imageQuality   0 - 100 output quality
+     * @return Encoded composition
+     * @throws IOException If a layer cannot be decoded or the result cannot be encoded
+     */
+    public static byte[] CompositeLayersToBytes(int width, int height, List<ImageLayer> layers, Bitmap.Config config, Bitmap.CompressFormat compressFormat, int imageQuality) throws IOException {
+        Bitmap composition = CompositeLayers(width, height, layers, config);
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            if (!composition.compress(compressFormat, imageQuality, stream)) {
+                throw new IOException("Cannot encode composition");
+            }
+            return stream.toByteArray();
+        } finally {
+            ReleaseBitmap(composition);
+        }
+    }
+
+    /**
+     * Composite image layers and encode the result straight into a file
+     *
+     * @param width          Composition width
+     * @param height         Composition height
+     * @param layers         {@link ImageLayer} list, bottom first
+     * @param config         Composition config
+     * @param destFile       Destination file
+     * @param compressFormat Output compress format
+     * @param imageQuality   0 - 100 output quality
+     * @return Destination file
+     * @throws IOException If a layer cannot be decoded or the file cannot be written
+     */
+    public static File CompositeLayersToFile(int width, int height, List<ImageLayer> layers, Bitmap.Config config, File destFile, Bitmap.CompressFormat compressFormat, int imageQuality) throws IOException {
+        Bitmap composition = CompositeLayers(width, height, layers, config);
+        try {
+            return FileUtils.CompressBitmapToFile(composition, destFile, compressFormat, imageQuality);
+        } finally {
+            ReleaseBitmap(composition);
+        }
     }
 
     /**
@@ -328,6 +588,83 @@ public class BitmapUtils {
         return Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), matrix, true);
     }
 
+    /**
+     * Rotate a bitmap by a right angle with {@link PixelOps}, across cores for big bitmaps
+     *
+     * @param source      Bitmap to be rotated, never modified
+     * @param degrees     Clockwise rotation, multiple of 90
+     * @param destination Mutable bitmap of the rotated size to write into, null to use a pooled one
+     * @return Rotated bitmap
+     */
+    public static Bitmap RotateBitmap(Bitmap source, int degrees, Bitmap destination) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        boolean swapSides = ((degrees % 360) + 360) % 360 % 180 != 0;
+
+        int[] pixels = PixelOps.Rotate(GetPixels(source), width, height, degrees, null);
+        return SetPixels(pixels, swapSides ? height : width, swapSides ? width : height, source, destination);
+    }
+
+    /**
+     * Mirror a bitmap with {@link PixelOps}
+     *
+     * @param source      Bitmap to be mirrored, never modified
+     * @param horizontal  true to mirror left to right, false to mirror top to bottom
+     * @param destination Mutable bitmap of the same size to write into, null to use a pooled one
+     * @return Mirrored bitmap
+     */
+    public static Bitmap FlipBitmap(Bitmap source, boolean horizontal, Bitmap destination) {
+        int[] pixels = PixelOps.Flip(GetPixels(source), source.getWidth(), source.getHeight(), horizontal, null);
+        return SetPixels(pixels, source.getWidth(), source.getHeight(), source, destination);
+    }
+
+    /**
+     * Crop a bitmap with {@link PixelOps}
+     *
+     * @param source      Bitmap to be cropped, never modified
+     * @param region      Crop rectangle, inside the bitmap
+     * @param destination Mutable bitmap of the region size to write into, null to use a pooled one
+     * @return Cropped bitmap
+     */
+    public static Bitmap CropBitmap(Bitmap source, Rect region, Bitmap destination) {
+        int[] pixels = PixelOps.Crop(GetPixels(source), source.getWidth(), source.getHeight(),
+                region.left, region.top, region.width(), region.height(), null);
+        return SetPixels(pixels, region.width(), region.height(), source, destination);
+    }
+
+    /**
+     * Convert a bitmap to grayscale with {@link PixelOps}
+     *
+     * @param source      Bitmap to be converted
+     * @param destination Mutable bitmap of the same size to write into (may be source), null to
+     *                    use a pooled one
+     * @return Grayscale bitmap
+     */
+    public static Bitmap GrayscaleBitmap(Bitmap source, Bitmap destination) {
+        int[] pixels = GetPixels(source);
+        PixelOps.Grayscale(pixels, source.getWidth(), source.getHeight(), pixels);
+        return SetPixels(pixels, source.getWidth(), source.getHeight(), source, destination);
+    }
+
+    /**
+     * Downscale a bitmap to an exact size with {@link PixelOps}
+     *
+     * @param source      Bitmap to be scaled, never modified
+     * @param width       Destination width, not bigger than source
+     * @param height      Destination height, not bigger than source
+     * @param boxFilter   true to average every covered pixel (best quality), false for bilinear
+     * @param destination Mutable bitmap of the destination size to write into, null to use a
+     *                    pooled one
+     * @return Scaled bitmap
+     */
+    public static Bitmap DownscaleBitmap(Bitmap source, int width, int height, boolean boxFilter, Bitmap destination) {
+        int[] sourcePixels = GetPixels(source);
+        int[] pixels = boxFilter
+                ? PixelOps.DownscaleBox(sourcePixels, source.getWidth(), source.getHeight(), width, height, null)
+                : PixelOps.DownscaleBilinear(sourcePixels, source.getWidth(), source.getHeight(), width, height, null);
+        return SetPixels(pixels, width, height, source, destination);
+    }
+
     /**
      * Resize a bitmap in desired size
      *
@@ -347,17 +684,250 @@ public class BitmapUtils {
     }
 
     /**
-     * Get rotated image from image byte array
+     * Get rotated image from image byte array, the pixels are rotated and re-encoded
      * @param imageRotation     Final rotation degrees
      * @param compressFormat    Final compress format
      * @param fileData          Byte array of image file
      * @return                  Byte array of rotated image
      */
     public static byte[] RotateImageFromBytes(int imageRotation, Bitmap.CompressFormat compressFormat, byte[] fileData) {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        Bitmap bitmap = BitmapUtils.RotateBitmap(BitmapFactory.decodeByteArray(fileData, 0, fileData.length), imageRotation);
-        bitmap.compress(compressFormat, 100, stream);
-        bitmap.recycle();
-        return stream.toByteArray();
+        return FileUtils.RotateImageFromBytes(fileData, imageRotation, compressFormat, 100);
+    }
+
+    /**
+     * Decode a whole image byte array reusing a pooled bitmap
+     *
+     * @param imageBytes Image byte array
+     * @return Decoded mutable bitmap, to be given back with {@link #ReleaseBitmap(Bitmap)}
+     */
+    static Bitmap DecodePooledBytes(byte[] imageBytes) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, options);
+        options.inJustDecodeBounds = false;
+        return DecodePooledByteArray(imageBytes, options);
+    }
+
+    /**
+     * Decode an image byte array reusing a pooled bitmap as inBitmap
+     *
+     * @param imageBytes Image byte array
+     * @param options    Options with outWidth, outHeight (from a bounds decode) and inSampleSize set
+     * @return Decoded mutable bitmap, with the density of an unscaled decode
+     */
+    static Bitmap DecodePooledByteArray(byte[] imageBytes, BitmapFactory.Options options) {
+        Bitmap pooled = AttachPooledBitmap(options);
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, options);
+        } catch (IllegalArgumentException e) {
+            // Pooled bitmap rejected by the decoder, decode into a new allocation
+            DetachPooledBitmap(options, pooled);
+            bitmap = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, options);
+        }
+        return ResetDensity(bitmap);
+    }
+
+    /**
+     * Decode an image file reusing a pooled bitmap as inBitmap
+     *
+     * @param imagePath Image file path
+     * @param options   Options with outWidth, outHeight (from a bounds decode) and inSampleSize set
+     * @return Decoded mutable bitmap, with the density of an unscaled decode, or null if the
+     * file cannot be decoded
+     */
+    static Bitmap DecodePooledFile(String imagePath, BitmapFactory.Options options) {
+        Bitmap pooled = AttachPooledBitmap(options);
+        // decodeFile catches and logs every decoder error, a rejected pooled bitmap gives null
+        Bitmap bitmap = BitmapFactory.decodeFile(imagePath, options);
+        if (bitmap == null && pooled != null) {
+            // Give the pooled bitmap back and decode into a new allocation
+            DetachPooledBitmap(options, pooled);
+            bitmap = BitmapFactory.decodeFile(imagePath, options);
+        }
+        return ResetDensity(bitmap);
+    }
+
+    /**
+     * Decode an image region reusing a pooled bitmap as inBitmap
+     *
+     * @param decoder Region decoder of the image
+     * @param region  Region inside image bounds
+     * @param options Options with inSampleSize set
+     * @return Decoded mutable bitmap
+     */
+    static Bitmap DecodePooledRegion(BitmapRegionDecoder decoder, Rect region, BitmapFactory.Options options) {
+        options.outWidth = region.width();
+        options.outHeight = region.height();
+        Bitmap pooled = AttachPooledBitmap(options);
+        try {
+            return decoder.decodeRegion(region, options);
+        } catch (IllegalArgumentException e) {
+            // Pooled bitmap rejected by the decoder, decode into a new allocation
+            DetachPooledBitmap(options, pooled);
+            return decoder.decodeRegion(region, options);
+        }
+    }
+
+    private static Bitmap AttachPooledBitmap(BitmapFactory.Options options) {
+        int sampleSize = Math.max(1, options.inSampleSize);
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+        Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+
+        options.inMutable = true;
+        if (width > 0 && height > 0) {
+            options.inBitmap = sBitmapPool.getForDecode(width * height * BitmapPool.GetBytesPerPixel(config), config);
+        }
+        return options.inBitmap;
+    }
+
+    private static void DetachPooledBitmap(BitmapFactory.Options options, Bitmap pooled) {
+        options.inBitmap = null;
+        sBitmapPool.put(pooled);
+    }
+
+    /**
+     * Scale a bitmap in memory to fill the target size (keeping aspect ratio, like the decode
+     * paths), without any encode. Big reductions are done by successive filtered halvings, which
+     * keeps quality close to a box filter; every intermediate is drawn into a pooled bitmap.
+     *
+     * @param source  Bitmap to scale, never modified nor recycled
+     * @param targetW Target width, 0 to scale by height only
+     * @param targetH Target height, 0 to scale by width only
+     * @return Scaled bitmap, or source itself if it is not bigger than target
+     */
+    private static Bitmap ScaleBitmapInMemory(Bitmap source, int targetW, int targetH) {
+        float scaleFactor = GetScaleFactor(source.getWidth(), source.getHeight(), targetW, targetH, false);
+        if (scaleFactor >= 1f) {
+            return source;
+        }
+
+        int finalW = Math.max(1, Math.round(source.getWidth() * scaleFactor));
+        int finalH = Math.max(1, Math.round(source.getHeight() * scaleFactor));
+        Bitmap.Config config = GetDrawConfig(source);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+        Bitmap current = source;
+        while (current.getWidth() / 2 >= finalW && current.getHeight() / 2 >= finalH) {
+            Bitmap half = DrawScaled(current, current.getWidth() / 2, current.getHeight() / 2, config, paint);
+            if (current != source) {
+                ReleaseBitmap(current);
+            }
+            current = half;
+        }
+
+        if (current.getWidth() != finalW || current.getHeight() != finalH) {
+            Bitmap scaled = DrawScaled(current, finalW, finalH, config, paint);
+            if (current != source) {
+                ReleaseBitmap(current);
+            }
+            current = scaled;
+        }
+
+        return current;
+    }
+
+    private static Bitmap DrawScaled(Bitmap source, int width, int height, Bitmap.Config config, Paint paint) {
+        Bitmap destination = sBitmapPool.get(width, height, config);
+        new Canvas(destination).drawBitmap(source, null, new Rect(0, 0, width, height), paint);
+        return destination;
+    }
+
+    /**
+     * Decode a layer at its final size
+     *
+     * @return Layer bitmap, the layer own bitmap if it needs no scaling
+     */
+    private static Bitmap DecodeLayer(ImageLayer layer, Bitmap.Config config) {
+        if (layer.getBitmap() != null) {
+            if (layer.getWidth() <= 0 && layer.getHeight() <= 0) {
+                return layer.getBitmap();
+            }
+            return ScaleBitmapInMemory(layer.getBitmap(), layer.getWidth(), layer.getHeight());
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        if (layer.getImageFile() != null) {
+            BitmapFactory.decodeFile(layer.getImageFile().getAbsolutePath(), options);
+        } else {
+            BitmapFactory.decodeByteArray(layer.getImageBytes(), 0, layer.getImageBytes().length, options);
+        }
+
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        if (layer.getWidth() > 0 || layer.getHeight() > 0) {
+            SetDecodeSize(options, layer.getWidth(), layer.getHeight(), true);
+        } else {
+            options.inJustDecodeBounds = false;
+        }
+        options.inPreferredConfig = config;
+
+        return layer.getImageFile() != null
+                ? DecodePooledFile(layer.getImageFile().getAbsolutePath(), options)
+                : DecodePooledByteArray(layer.getImageBytes(), options);
+    }
+
+    /**
+     * Check if a decoded layer can be used as the composition bitmap itself
+     */
+    private static boolean IsCanvasLayer(ImageLayer layer, Bitmap layerBitmap, int width, int height, Bitmap.Config config) {
+        return layerBitmap != layer.getBitmap() && layerBitmap.isMutable()
+                && layerBitmap.getConfig() == config
+                && layerBitmap.getWidth() == width && layerBitmap.getHeight() == height
+                && layer.getLeft() == 0 && layer.getTop() == 0 && layer.getAlpha() == 255
+                && (layer.getBlendMode() == PorterDuff.Mode.SRC_OVER || layer.getBlendMode() == PorterDuff.Mode.SRC);
+    }
+
+    /**
+     * Draw a layer bitmap scaled to fill the layer size and cropped to it. Explicit source and
+     * destination rects also keep the odd densities of scaled decodes from rescaling the layer.
+     */
+    private static void DrawLayer(Canvas canvas, ImageLayer layer, Bitmap layerBitmap, Paint paint) {
+        int bitmapW = layerBitmap.getWidth();
+        int bitmapH = layerBitmap.getHeight();
+        float scale = layer.getWidth() > 0 || layer.getHeight() > 0
+                ? GetScaleFactor(bitmapW, bitmapH, layer.getWidth(), layer.getHeight(), false) : 1f;
+
+        int drawW = layer.getWidth() > 0 ? layer.getWidth() : Math.round(bitmapW * scale);
+        int drawH = layer.getHeight() > 0 ? layer.getHeight() : Math.round(bitmapH * scale);
+        int sourceW = Math.min(bitmapW, Math.round(drawW / scale));
+        int sourceH = Math.min(bitmapH, Math.round(drawH / scale));
+
+        Rect source = new Rect(0, 0, sourceW, sourceH);
+        Rect destination = new Rect(layer.getLeft(), layer.getTop(),
+                layer.getLeft() + Math.round(sourceW * scale), layer.getTop() + Math.round(sourceH * scale));
+
+        paint.setAlpha(layer.getAlpha());
+        paint.setXfermode(layer.getBlendMode() == PorterDuff.Mode.SRC_OVER ? null
+                : new PorterDuffXfermode(layer.getBlendMode()));
+        canvas.drawBitmap(layerBitmap, source, destination, paint);
+    }
+
+    private static int[] GetPixels(Bitmap bitmap) {
+        int[] pixels = new int[bitmap.getWidth() * bitmap.getHeight()];
+        bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        return pixels;
+    }
+
+    /**
+     * Write pixel ops output into the destination bitmap, or into a pooled one
+     */
+    private static Bitmap SetPixels(int[] pixels, int width, int height, Bitmap source, Bitmap destination) {
+        if (destination != null && (!destination.isMutable()
+                || destination.getWidth() != width || destination.getHeight() != height)) {
+            throw new IllegalArgumentException("Destination must be a mutable " + width + "x" + height + " bitmap");
+        }
+
+        Bitmap result = destination != null ? destination : sBitmapPool.get(width, height, GetDrawConfig(source));
+        result.setPixels(pixels, 0, width, 0, 0, width, height);
+        return result;
+    }
+
+    private static Bitmap.Config GetDrawConfig(Bitmap bitmap) {
+        return bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
     }
 }
@@ -0,0 +1,268 @@
+package com.apm.core.utils;
+
+import android.graphics.Bitmap;
+
+import com.apm.core.contracts.IEncodeMetricsListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Encode bitmaps under a byte budget (e.g. an upload size cap) with as few encodes as possible.
+ * <p>
+ * Quality is found by a binary search bounded by a maximum number of attempts, stopping early
+ * once a result fills the budget within the tolerance. If even the minimum quality is too big
+ * and downscaling is allowed, the bitmap is scaled by the square root of the missing ratio
+ * (encoded size grows with pixel count) and the search goes on. Every attempt encodes into the
+ * same output buffer, only the best result so far is copied out.
+ * <p>
+ * An instance encodes one bitmap at a time, create one per thread to encode in parallel.
+ */
+public class BudgetImageEncoder {
+
+    // CONSTANTS
+    private static final float DOWNSCALE_MARGIN = 0.9f;
+
+    private final int mMaxBytes;
+    private final Bitmap.CompressFormat mCompressFormat;
+    private final int mMinQuality;
+    private final int mMaxQuality;
+    private final int mMaxAttempts;
+    private final float mTolerance;
+    private final int mMinSide;
+    private final IEncodeMetricsListener mMetricsListener;
+    private final ReusableOutputStream mBuffer;
+
+    private BudgetImageEncoder(Builder builder) {
+        this.mMaxBytes = builder.mMaxBytes;
+        this.mCompressFormat = builder.mCompressFormat;
+        this.mMinQuality = builder.mMinQuality;
+        this.mMaxQuality = builder.mMaxQuality;
+        this.mMaxAttempts = builder.mMaxAttempts;
+        this.mTolerance = builder.mTolerance;
+        this.mMinSide = builder.mMinSide;
+        this.mMetricsListener = builder.mMetricsListener;
+        this.mBuffer = new ReusableOutputStream(builder.mMaxBytes);
+    }
+
+    /**
+     * Encode a bitmap under the byte budget
+     *
+     * @param bitmap Bitmap to encode, never modified nor recycled
+     * @return Encoded image of at most the budget bytes
+     * @throws IOException If the budget cannot be met within the attempts, quality and size limits
+     */
+    public synchronized byte[] encode(Bitmap bitmap) throws IOException {
+        long start = System.nanoTime();
+        int attempts = 0;
+        Bitmap current = bitmap;
+
+        try {
+            while (true) {
+                // PNG ignores quality, a single attempt per size is enough
+                boolean lossless = mCompressFormat == Bitmap.CompressFormat.PNG;
+                int low = lossless ? 100 : mMinQuality;
+                int high = lossless ? 100 : mMaxQuality;
+
+                byte[] best = null;
+                int bestQuality = -1;
+                int smallestSize = Integer.MAX_VALUE;
+
+                while (low <= high && attempts < mMaxAttempts) {
+                    int quality = (low + high) >>> 1;
+                    int size = encodeAttempt(current, quality);
+                    attempts++;
+                    smallestSize = Math.min(smallestSize, size);
+
+                    if (size <= mMaxBytes) {
+                        best = mBuffer.toByteArray();
+                        bestQuality = quality;
+                        if (size >= mMaxBytes * (1f - mTolerance)) {
+                            break;
+                        }
+                        low = quality + 1;
+                    } else {
+                        high = quality - 1;
+                    }
+                }
+
+                if (best != null) {
+                    notifyFinished(attempts, start, bestQuality, current, best.length);
+                    return best;
+                }
+
+                Bitmap scaled = downscale(current, smallestSize);
+                if (scaled == null || attempts >= mMaxAttempts) {
+                    if (scaled != null) {
+                        BitmapUtils.ReleaseBitmap(scaled);
+                    }
+                    notifyFinished(attempts, start, -1, current, 0);
+                    throw new IOException("Cannot encode image in " + mMaxBytes + " bytes");
+                }
+
+                if (current != bitmap) {
+                    BitmapUtils.ReleaseBitmap(current);
+                }
+                current = scaled;
+            }
+        } finally {
+            if (current != bitmap) {
+                BitmapUtils.ReleaseBitmap(current);
+            }
+            mBuffer.trim(mMaxBytes);
+        }
+    }
+
+    private int encodeAttempt(Bitmap bitmap, int quality) throws IOException {
+        long start = System.nanoTime();
+        mBuffer.reset();
+        if (!bitmap.compress(mCompressFormat, quality, mBuffer)) {
+            throw new IOException("Cannot encode image");
+        }
+
+        if (mMetricsListener != null) {
+            mMetricsListener.onEncodeAttempt(quality, bitmap.getWidth(), bitmap.getHeight(), mBuffer.size(),
+                    (System.nanoTime() - start) / 1000000);
+        }
+        return mBuffer.size();
+    }
+
+    /**
+     * Scale down so the smallest encode of the current size would fit the budget
+     *
+     * @return Scaled pooled bitmap, or null if it would be smaller than the minimum side
+     */
+    private Bitmap downscale(Bitmap bitmap, int smallestSize) {
+        if (mMinSide <= 0 || smallestSize == Integer.MAX_VALUE) {
+            return null;
+        }
+
+        float scale = Math.min(DOWNSCALE_MARGIN, (float) Math.sqrt((double) mMaxBytes / smallestSize) * DOWNSCALE_MARGIN);
+        int width = Math.round(bitmap.getWidth() * scale);
+        int height = Math.round(bitmap.getHeight() * scale);
+        if (Math.min(width, height) < mMinSide) {
+            return null;
+        }
+        return BitmapUtils.DownscaleBitmap(bitmap, width, height, false, null);
+    }
+
+    private void notifyFinished(int attempts, long start, int quality, Bitmap bitmap, int byteCount) {
+        if (mMetricsListener != null) {
+            mMetricsListener.onEncodeFinished(attempts, (System.nanoTime() - start) / 1000000, quality,
+                    bitmap.getWidth(), bitmap.getHeight(), byteCount);
+        }
+    }
+
+    /**
+     * Output buffer kept between attempts and encodes
+     */
+    private static class ReusableOutputStream extends ByteArrayOutputStream {
+
+        private ReusableOutputStream(int size) {
+            super(size);
+        }
+
+        /**
+         * Drop a buffer grown far beyond the budget by a too big attempt
+         */
+        private void trim(int maxBytes) {
+            if (buf.length > maxBytes * 2) {
+                buf = Arrays.copyOf(buf, maxBytes);
+            }
+            reset();
+        }
+    }
+
+    public static class Builder {
+        private int mMaxBytes;
+        private Bitmap.CompressFormat mCompressFormat = Bitmap.CompressFormat.JPEG;
+        private int mMinQuality = 40;
+        private int mMaxQuality = 95;
+        private int mMaxAttempts = 8;
+        private float mTolerance = 0.1f;
+        private int mMinSide;
+        private IEncodeMetricsListener mMetricsListener;
+
+        /**
+         * Builder constructor
+         *
+         * @param maxBytes Byte budget of encoded images
+         */
+        public Builder(int maxBytes) {
+            if (maxBytes <= 0) {
+                throw new IllegalArgumentException("Byte budget must be positive");
+            }
+            this.mMaxBytes = maxBytes;
+        }
+
+        /**
+         * @param compressFormat {@link Bitmap.CompressFormat compress format}, default JPEG
+         * @return Builder
+         */
+        public Builder compressFormat(Bitmap.CompressFormat compressFormat) {
+            this.mCompressFormat = compressFormat;
+            return this;
+        }
+
+        /**
+         * @param minQuality Lowest quality tried, default 40
+         * @param maxQuality Highest quality tried, default 95
+         * @return Builder
+         */
+        public Builder qualityRange(int minQuality, int maxQuality) {
+            if (minQuality < 0 || maxQuality > 100 || minQuality > maxQuality) {
+                throw new IllegalArgumentException("Quality range must be inside 0 - 100");
+            }
+            this.mMinQuality = minQuality;
+            this.mMaxQuality = maxQuality;
+            return this;
+        }
+
+        /**
+         * @param maxAttempts Maximum encodes per image, default 8
+         * @return Builder
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts <= 0) {
+                throw new IllegalArgumentException("Max attempts must be positive");
+            }
+            this.mMaxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * @param tolerance Accept a result filling at least (1 - tolerance) of the budget without
+         *                  searching further, default 0.1
+         * @return Builder
+         */
+        public Builder tolerance(float tolerance) {
+            this.mTolerance = tolerance;
+            return this;
+        }
+
+        /**
+         * Allow scaling the image down when the minimum quality does not fit the budget
+         *
+         * @param minSide Smallest side allowed after scaling, 0 to never scale (default)
+         * @return Builder
+         */
+        public Builder allowDownscale(int minSide) {
+            this.mMinSide = minSide;
+            return this;
+        }
+
+        /**
+         * @param metricsListener Encode metrics listener, may be null
+         * @return Builder
+         */
+        public Builder metricsListener(IEncodeMetricsListener metricsListener) {
+            this.mMetricsListener = metricsListener;
+            return this;
+        }
+
+        public BudgetImageEncoder build() {
+            return new BudgetImageEncoder(this);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.apm.core.utils;
+
+import com.apm.core.contracts.IChunkTransferListener;
+import com.apm.core.contracts.IChunkUploader;
+import com.apm.core.enums.HashAlgorithm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Send a large file (e.g. a video) in fixed size chunks that survive failures and restarts.
+ * <p>
+ * Chunks are read with positional channel reads into a single reused buffer and hashed, then
+ * handed to an {@link IChunkUploader}. Every sent chunk is recorded in a small manifest file
+ * written through {@link AtomicFile}, so {@link #transfer(IChunkUploader)} called again, even
+ * from a new process, skips the chunks already sent. The manifest is dropped when the file
+ * length, modification time, chunk size or hash algorithm change.
+ * <p>
+ * Usage:
+ * <pre>
+ * ChunkedFileTransfer transfer = new ChunkedFileTransfer.Builder(videoFile, manifestFile).build();
+ * transfer.transfer(new HttpChunkUploader(client, uploadUrl));
+ * </pre>
+ */
+public class ChunkedFileTransfer {
+
+    // CONSTANTS
+    private static final String MANIFEST_MAGIC = "com.apm.core.ChunkedFileTransfer";
+    private static final String MANIFEST_VERSION = "1";
+    private static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private final File mManifestFile;
+    private final int mChunkSize;
+    private final HashAlgorithm mHashAlgorithm;
+    private final IChunkTransferListener mListener;
+    private final Map<Integer, String> mCompleted = new TreeMap<>();
+
+    private long mFileLength = -1;
+    private long mFileLastModified;
+    private ByteBuffer mBuffer;
+
+    private ChunkedFileTransfer(Builder builder) {
+        this.mFile = builder.mFile;
+        this.mManifestFile = builder.mManifestFile;
+        this.mChunkSize = builder.mChunkSize;
+        this.mHashAlgorithm = builder.mHashAlgorithm;
+        this.mListener = builder.mListener;
+    }
+
+    /**
+     * Send every chunk not sent yet, in order. Stops at the first failing chunk, call it again
+     * to resume from there.
+     *
+     * @param uploader Chunk uploader
+     * @throws IOException If the file cannot be read, the manifest cannot be written or the
+     *                     uploader fails
+     */
+    public synchronized void transfer(IChunkUploader uploader) throws IOException {
+        loadManifest();
+        int chunkCount = getChunkCount();
+        if (mCompleted.size() == chunkCount) {
+            return;
+        }
+
+        int bufferSize = (int) Math.min(mChunkSize, mFileLength);
+        if (mBuffer == null || mBuffer.capacity() < bufferSize) {
+            mBuffer = ByteBuffer.allocate(bufferSize);
+        }
+
+        FileInputStream in = new FileInputStream(mFile);
+        try {
+            FileChannel channel = in.getChannel();
+            for (int index = 0; index < chunkCount; index++) {
+                if (mCompleted.containsKey(index)) {
+                    continue;
+                }
+
+                FileChunk chunk = readChunk(channel, index);
+                uploader.uploadChunk(chunk, mBuffer.duplicate());
+
+                mCompleted.put(index, chunk.getHash());
+                saveManifest();
+                if (mListener != null) {
+                    mListener.onChunkTransferred(chunk, mCompleted.size(), chunkCount);
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return Number of chunks of the file, 0 for an empty file
+     * @throws IOException If the manifest cannot be read
+     */
+    public synchronized int getChunkCount() throws IOException {
+        loadManifest();
+        return (int) ((mFileLength + mChunkSize - 1) / mChunkSize);
+    }
+
+    /**
+     * @return Number of chunks sent, previous runs included
+     * @throws IOException If the manifest cannot be read
+     */
+    public synchronized int getCompletedCount() throws IOException {
+        loadManifest();
+        return mCompleted.size();
+    }
+
+    /**
+     * @return true if every chunk was sent
+     * @throws IOException If the manifest cannot be read
+     */
+    public synchronized boolean isComplete() throws IOException {
+        return getCompletedCount() == getChunkCount();
+    }
+
+    /**
+     * Forget the sent chunks and delete the manifest, the next transfer starts from zero
+     */
+    public synchronized void reset() {
+        mCompleted.clear();
+        mFileLength = -1;
+        new AtomicFile(mManifestFile).delete();
+    }
+
+    /**
+     * Read and hash a chunk into the shared buffer
+     */
+    private FileChunk readChunk(FileChannel channel, int index) throws IOException {
+        long offset = (long) index * mChunkSize;
+        int length = (int) Math.min(mChunkSize, mFileLength - offset);
+
+        mBuffer.clear();
+        mBuffer.limit(length);
+        while (mBuffer.hasRemaining()) {
+            if (channel.read(mBuffer, offset + mBuffer.position()) < 0) {
+                throw new IOException("File truncated during transfer: " + mFile.getAbsolutePath());
+            }
+        }
+        mBuffer.flip();
+
+        HashUtils.Hasher hasher = new HashUtils.Hasher(mHashAlgorithm);
+        hasher.update(mBuffer.array(), mBuffer.arrayOffset(), length);
+        return new FileChunk(index, offset, length, mFileLength, HashUtils.ToHex(hasher.digest()));
+    }
+
+    /**
+     * Load the sent chunks, or start over if the manifest is missing, corrupt or stale. Done on
+     * every transfer so a file changed meanwhile is never resumed.
+     */
+    private void loadManifest() throws IOException {
+        long fileLength = mFile.length();
+        long fileLastModified = mFile.lastModified();
+        if (fileLength == mFileLength && fileLastModified == mFileLastModified) {
+            return;
+        }
+
+        if (!mFile.isFile()) {
+            throw new IOException("Cannot transfer " + mFile.getAbsolutePath() + ", not a file");
+        }
+
+        mCompleted.clear();
+        mFileLength = fileLength;
+        mFileLastModified = fileLastModified;
+
+        if (!mManifestFile.exists()) {
+            return;
+        }
+
+        String[] lines = FileUtils.ReadTextFile(mManifestFile, UTF_8).split("\n");
+        String expectedHeader = fileLength + " " + fileLastModified + " " + mChunkSize + " " + mHashAlgorithm;
+        if (lines.length < 3 || !MANIFEST_MAGIC.equals(lines[0]) || !MANIFEST_VERSION.equals(lines[1])
+                || !expectedHeader.equals(lines[2])) {
+            // Another file version or settings, its chunks cannot be reused
+            new AtomicFile(mManifestFile).delete();
+            return;
+        }
+
+        int chunkCount = (int) ((fileLength + mChunkSize - 1) / mChunkSize);
+        try {
+            for (int i = 3; i < lines.length; i++) {
+                String[] parts = lines[i].split(" ");
+                int index = parts.length == 2 ? Integer.parseInt(parts[0]) : -1;
+                if (index >= 0 && index < chunkCount) {
+                    mCompleted.put(index, parts[1]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            mCompleted.clear();
+        }
+    }
+
+    private void saveManifest() throws IOException {
+        StringBuilder manifest = new StringBuilder();
+        manifest.append(MANIFEST_MAGIC).append('\n')
+                .append(MANIFEST_VERSION).append('\n')
+                .append(mFileLength).append(' ').append(mFileLastModified).append(' ')
+                .append(mChunkSize).append(' ').append(mHashAlgorithm).append('\n');
+        for (Map.Entry<Integer, String> entry : mCompleted.entrySet()) {
+            manifest.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        new AtomicFile(mManifestFile).write(manifest.toString(), UTF_8);
+    }
+
+    public static class Builder {
+        private File mFile;
+        private File mManifestFile;
+        private int mChunkSize = DEFAULT_CHUNK_SIZE;
+        private HashAlgorithm mHashAlgorithm = HashAlgorithm.SHA256;
+        private IChunkTransferListener mListener;
+
+        /**
+         * Builder constructor
+         *
+         * @param file         File to transfer
+         * @param manifestFile File recording the sent chunks, one per transferred file
+         */
+        public Builder(File file, File manifestFile) {
+            this.mFile = file;
+            this.mManifestFile = manifestFile;
+        }
+
+        /**
+         * @param chunkSize Chunk size in bytes, default 4 MB. One buffer of this size is kept
+         *                  during the transfer.
+         * @return Builder
+         */
+        public Builder chunkSize(int chunkSize) {
+            if (chunkSize <= 0) {
+                throw new IllegalArgumentException("Chunk size must be positive");
+            }
+            this.mChunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * @param hashAlgorithm {@link HashAlgorithm} of chunk hashes, default SHA256
+         * @return Builder
+         */
+        public Builder hashAlgorithm(HashAlgorithm hashAlgorithm) {
+            this.mHashAlgorithm = hashAlgorithm;
+            return this;
+        }
+
+        /**
+         * @param listener Transfer listener, may be null
+         * @return Builder
+         */
+        public Builder listener(IChunkTransferListener listener) {
+            this.mListener = listener;
+            return this;
+        }
+
+        public ChunkedFileTransfer build() {
+            return new ChunkedFileTransfer(this);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.apm.core.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.apm.core.contracts.IDirectoryScanListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walk directory trees on a worker pool to sum file sizes and counts, e.g. for storage cleanup
+ * screens over media folders with tens of thousands of files.
+ * <p>
+ * Every directory is a task: it sums its own files in local totals, submits its subdirectories
+ * as new tasks and merges its totals once, so workers only share a lock per directory. Symbolic
+ * links to directories are not followed. Progress is streamed to the listener at most once per
+ * progress interval.
+ */
+public class DirectoryScanner {
+
+    // CONSTANTS
+    private static final long DEFAULT_PROGRESS_INTERVAL = 200;
+
+    private static DirectoryScanner sDefaultScanner;
+
+    private final ExecutorService mExecutor;
+    private final long mProgressInterval;
+    private final Handler mMainHandler;
+
+    private DirectoryScanner(Builder builder) {
+        this.mExecutor = Executors.newFixedThreadPool(builder.mMaxThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "DirectoryScanner");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.mProgressInterval = builder.mProgressInterval;
+        this.mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Get the shared scanner, with one thread per core
+     *
+     * @return Shared scanner
+     */
+    public static synchronized DirectoryScanner GetDefault() {
+        if (sDefaultScanner == null) {
+            sDefaultScanner = new Builder().build();
+        }
+        return sDefaultScanner;
+    }
+
+    /**
+     * Scan a directory tree, or a single file
+     *
+     * @param root     Directory to walk
+     * @param listener Scan listener, triggered on the main thread, may be null
+     * @return Running scan, to follow, wait for or cancel it
+     */
+    public Scan scan(File root, IDirectoryScanListener listener) {
+        Scan scan = new Scan(listener);
+        if (root.isDirectory()) {
+            scan.submit(root);
+        } else {
+            DirectoryStats stats = new DirectoryStats();
+            if (root.isFile()) {
+                stats.addFile(GetExtension(root.getName()), root.length());
+            }
+            scan.merge(stats);
+            scan.finish();
+        }
+        return scan;
+    }
+
+    /**
+     * Stop the worker pool once running scans are done, no scan can be started afterwards
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * @return Lowercase extension without dot, "" if there is none
+     */
+    private static String GetExtension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && dot < name.length() - 1 ? name.substring(dot + 1).toLowerCase(Locale.US) : "";
+    }
+
+    private static boolean IsSymbolicLink(File directory) {
+        try {
+            File parent = directory.getParentFile();
+            File canonicalParent = parent == null ? directory : new File(parent.getCanonicalFile(), directory.getName());
+            return !canonicalParent.getCanonicalFile().equals(canonicalParent.getAbsoluteFile());
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Scan being walked
+     */
+    public class Scan {
+        private final IDirectoryScanListener mListener;
+        private final DirectoryStats mStats = new DirectoryStats();
+        private final AtomicInteger mPending = new AtomicInteger();
+        private final AtomicBoolean mCancelled = new AtomicBoolean();
+        private final AtomicBoolean mFinished = new AtomicBoolean();
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private long mLastProgress;
+
+        private Scan(IDirectoryScanListener listener) {
+            this.mListener = listener;
+            this.mLastProgress = System.currentTimeMillis();
+        }
+
+        /**
+         * Cancel the scan: queued directories are dropped and running ones stop at their next
+         * file. onScanFinish is triggered with the totals walked so far.
+         */
+        public void cancel() {
+            if (mCancelled.compareAndSet(false, true)) {
+                finish();
+            }
+        }
+
+        public boolean isCancelled() {
+            return mCancelled.get();
+        }
+
+        public boolean isFinished() {
+            return mFinished.get();
+        }
+
+        /**
+         * Block until the scan is finished or cancelled, never call it from the main thread
+         *
+         * @return Totals of the walked directories
+         * @throws InterruptedException If the waiting thread is interrupted
+         */
+        public DirectoryStats await() throws InterruptedException {
+            mDone.await();
+            return getStats();
+        }
+
+        /**
+         * @return Copy of the totals walked so far
+         */
+        public DirectoryStats getStats() {
+            synchronized (mStats) {
+                return mStats.copy();
+            }
+        }
+
+        private void submit(final File directory) {
+            mPending.incrementAndGet();
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!isCancelled()) {
+                            walk(directory);
+                        }
+                    } finally {
+                        if (mPending.decrementAndGet() == 0) {
+                            finish();
+                        }
+                    }
+                }
+            });
+        }
+
+        private void walk(File directory) {
+            DirectoryStats stats = new DirectoryStats();
+            File[] children = directory.listFiles();
+            stats.addDirectory(children != null);
+
+            if (children != null) {
+                for (File child : children) {
+                    if (isCancelled()) {
+                        break;
+                    }
+
+                    if (child.isDirectory()) {
+                        if (!IsSymbolicLink(child)) {
+                            submit(child);
+                        }
+                    } else {
+                        stats.addFile(GetExtension(child.getName()), child.length());
+                    }
+                }
+            }
+
+            merge(stats);
+        }
+
+        private void merge(DirectoryStats stats) {
+            DirectoryStats progress = null;
+            synchronized (mStats) {
+                mStats.merge(stats);
+
+                long now = System.currentTimeMillis();
+                if (mListener != null && now - mLastProgress >= mProgressInterval) {
+                    mLastProgress = now;
+                    progress = mStats.copy();
+                }
+            }
+
+            if (progress != null) {
+                final DirectoryStats partial = progress;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isFinished()) {
+                            mListener.onScanProgress(partial);
+                        }
+                    }
+                });
+            }
+        }
+
+        private void finish() {
+            if (!mFinished.compareAndSet(false, true)) {
+                return;
+            }
+            mDone.countDown();
+
+            if (mListener != null) {
+                final DirectoryStats result = getStats();
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.onScanFinish(result, isCancelled());
+                    }
+                });
+            }
+        }
+    }
+
+    public static class Builder {
+        private int mMaxThreads = Runtime.getRuntime().availableProcessors();
+        private long mProgressInterval = DEFAULT_PROGRESS_INTERVAL;
+
+        /**
+         * @param maxThreads Worker threads, default one per core. Flash storage serves parallel
+         *                   listings well, more threads than cores rarely help.
+         * @return Builder
+         */
+        public Builder maxThreads(int maxThreads) {
+            if (maxThreads <= 0) {
+                throw new IllegalArgumentException("Max threads must be positive");
+            }
+            this.mMaxThreads = maxThreads;
+            return this;
+        }
+
+        /**
+         * @param progressInterval Minimum milliseconds between progress events, default 200
+         * @return Builder
+         */
+        public Builder progressInterval(long progressInterval) {
+            this.mProgressInterval = progressInterval;
+            return this;
+        }
+
+        public DirectoryScanner build() {
+            return new DirectoryScanner(this);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.apm.core.utils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Totals of a {@link DirectoryScanner} walk, in bytes and counts. Format sizes with
+ * {@link FileUtils#FormatFileSize(long, com.apm.core.enums.FileSizeType)}.
+ */
+public class DirectoryStats {
+
+    private long mTotalBytes;
+    private int mFileCount;
+    private int mDirectoryCount;
+    private int mUnreadableCount;
+    private final Map<String, ExtensionStats> mExtensions = new HashMap<>();
+
+    DirectoryStats() {
+    }
+
+    /**
+     * @return Size of every file found
+     */
+    public long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * @return Number of files found
+     */
+    public int getFileCount() {
+        return mFileCount;
+    }
+
+    /**
+     * @return Number of directories walked, the root included
+     */
+    public int getDirectoryCount() {
+        return mDirectoryCount;
+    }
+
+    /**
+     * @return Number of directories that could not be listed (e.g. no permission)
+     */
+    public int getUnreadableCount() {
+        return mUnreadableCount;
+    }
+
+    /**
+     * @return Totals by lowercase extension without dot, "" for files without extension
+     */
+    public Map<String, ExtensionStats> getExtensions() {
+        return Collections.unmodifiableMap(mExtensions);
+    }
+
+    void addFile(String extension, long bytes) {
+        mTotalBytes += bytes;
+        mFileCount++;
+
+        ExtensionStats extensionStats = mExtensions.get(extension);
+        if (extensionStats == null) {
+            extensionStats = new ExtensionStats();
+            mExtensions.put(extension, extensionStats);
+        }
+        extensionStats.mTotalBytes += bytes;
+        extensionStats.mFileCount++;
+    }
+
+    void addDirectory(boolean readable) {
+        mDirectoryCount++;
+        if (!readable) {
+            mUnreadableCount++;
+        }
+    }
+
+    void merge(DirectoryStats other) {
+        mTotalBytes += other.mTotalBytes;
+        mFileCount += other.mFileCount;
+        mDirectoryCount += other.mDirectoryCount;
+        mUnreadableCount += other.mUnreadableCount;
+
+        for (Map.Entry<String, ExtensionStats> entry : other.mExtensions.entrySet()) {
+            ExtensionStats extensionStats = mExtensions.get(entry.getKey());
+            if (extensionStats == null) {
+                extensionStats = new ExtensionStats();
+                mExtensions.put(entry.getKey(), extensionStats);
+            }
+            extensionStats.mTotalBytes += entry.getValue().mTotalBytes;
+            extensionStats.mFileCount += entry.getValue().mFileCount;
+        }
+    }
+
+    DirectoryStats copy() {
+        DirectoryStats copy = new DirectoryStats();
+        copy.merge(this);
+        return copy;
+    }
+
+    /**
+     * Totals of the files of one extension
+     */
+    public static class ExtensionStats {
+        private long mTotalBytes;
+        private int mFileCount;
+
+        public long getTotalBytes() {
+            return mTotalBytes;
+        }
+
+        public int getFileCount() {
+            return mFileCount;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package com.apm.core.utils;
+
+import android.support.media.ExifInterface;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Handle EXIF orientation of JPEG images without decoding them.
+ * <p>
+ * Orientation is patched in place in the IFD0 of an existing Exif APP1 segment, or a minimal
+ * APP1 segment holding only the orientation is inserted right after the SOI marker.
+ */
+public class ExifUtils {
+
+    // CONSTANTS
+    private static final int MARKER_PREFIX = 0xFF;
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TYPE_SHORT = 3;
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    /**
+     * Check if a byte array starts like a JPEG image
+     *
+     * @param imageBytes Image byte array
+     * @return true if bytes start with the JPEG SOI marker
+     */
+    public static boolean IsJpeg(byte[] imageBytes) {
+        return imageBytes != null && imageBytes.length > 3
+                && (imageBytes[0] & 0xFF) == MARKER_PREFIX && (imageBytes[1] & 0xFF) == MARKER_SOI;
+    }
+
+    /**
+     * Get the EXIF orientation of a JPEG image
+     *
+     * @param jpegBytes JPEG image byte array
+     * @return {@link ExifInterface} orientation constant, ORIENTATION_UNDEFINED if there is none
+     */
+    public static int GetJpegOrientation(byte[] jpegBytes) {
+        int offset = FindOrientationValueOffset(jpegBytes);
+        if (offset < 0) {
+            return ExifInterface.ORIENTATION_UNDEFINED;
+        }
+        return ReadShort(jpegBytes, offset, IsLittleEndian(jpegBytes));
+    }
+
+    /**
+     * Rotate a JPEG image by rewriting its EXIF orientation, the compressed data is untouched.
+     * <p>
+     * The rotation applies to the stored pixels, as a pixel rotation of the BitmapFactory decode
+     * (which ignores EXIF) would: the new orientation is the given rotation, any orientation
+     * already in the image is replaced and not composed with it.
+     *
+     * @param jpegBytes JPEG image byte array
+     * @param degrees   Clockwise rotation of the stored pixels, multiple of 90
+     * @return New JPEG byte array, or null if the image cannot be rotated this way (not a JPEG,
+     * rotation not multiple of 90, or Exif data without an orientation tag)
+     */
+    public static byte[] RotateJpegOrientation(byte[] jpegBytes, int degrees) {
+        if (!IsJpeg(jpegBytes) || degrees % 90 != 0) {
+            return null;
+        }
+
+        int offset = FindOrientationValueOffset(jpegBytes);
+        int orientation = OrientationFromDegrees(degrees);
+
+        if (offset >= 0) {
+            byte[] rotated = jpegBytes.clone();
+            WriteShort(rotated, offset, orientation, IsLittleEndian(jpegBytes));
+            return rotated;
+        }
+
+        if (HasExifSegment(jpegBytes)) {
+            // Exif segment without orientation tag, inserting a second one would be ambiguous
+            return null;
+        }
+
+        byte[] segment = CreateOrientationSegment(orientation);
+        byte[] rotated = new byte[jpegBytes.length + segment.length];
+        System.arraycopy(jpegBytes, 0, rotated, 0, 2);
+        System.arraycopy(segment, 0, rotated, 2, segment.length);
+        System.arraycopy(jpegBytes, 2, rotated, 2 + segment.length, jpegBytes.length - 2);
+        return rotated;
+    }
+
+    /**
+     * Wrap a stream that receives a freshly encoded JPEG (e.g. from Bitmap.compress, which writes
+     * no EXIF data) so an orientation segment is inserted after its SOI marker
+     *
+     * @param out         Destination of the JPEG
+     * @param orientation {@link ExifInterface} orientation constant
+     * @return Stream to give to the encoder
+     */
+    public static OutputStream WrapWithOrientation(OutputStream out, int orientation) {
+        final byte[] segment = CreateOrientationSegment(orientation);
+
+        return new FilterOutputStream(out) {
+            private int mWritten = 0;
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                if (++mWritten == 2) {
+                    out.write(segment);
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (mWritten >= 2 || len == 0) {
+                    out.write(b, off, len);
+                    mWritten += len;
+                    return;
+                }
+
+                int head = Math.min(2 - mWritten, len);
+                out.write(b, off, head);
+                mWritten += head;
+                if (mWritten == 2) {
+                    out.write(segment);
+                }
+                if (len > head) {
+                    out.write(b, off + head, len - head);
+                    mWritten += len - head;
+                }
+            }
+        };
+    }
+
+    /**
+     * Convert a clockwise rotation to an EXIF orientation
+     *
+     * @param degrees Clockwise rotation, multiple of 90
+     * @return {@link ExifInterface} orientation constant
+     */
+    public static int OrientationFromDegrees(int degrees) {
+        switch (((degrees % 360) + 360) % 360) {
+            case 90:
+                return ExifInterface.ORIENTATION_ROTATE_90;
+            case 180:
+                return ExifInterface.ORIENTATION_ROTATE_180;
+            case 270:
+                return ExifInterface.ORIENTATION_ROTATE_270;
+            default:
+                return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * Convert an EXIF orientation to a clockwise rotation
+     *
+     * @param orientation {@link ExifInterface} orientation constant
+     * @return Clockwise rotation in degrees, -1 for mirrored orientations
+     */
+    public static int DegreesFromOrientation(int orientation) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_UNDEFINED:
+            case ExifInterface.ORIENTATION_NORMAL:
+                return 0;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return 90;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return 180;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Build an APP1 segment holding only an orientation tag
+     *
+     * @param orientation {@link ExifInterface} orientation constant
+     * @return Segment bytes, including its marker
+     */
+    private static byte[] CreateOrientationSegment(int orientation) {
+        // Marker (2) + length (2) + Exif header (6) + TIFF header (8) + entry count (2)
+        // + one IFD entry (12) + next IFD offset (4)
+        byte[] segment = new byte[36];
+        segment[0] = (byte) MARKER_PREFIX;
+        segment[1] = (byte) MARKER_APP1;
+        WriteShort(segment, 2, segment.length - 2, false);
+        System.arraycopy(EXIF_HEADER, 0, segment, 4, EXIF_HEADER.length);
+
+        // Big endian TIFF header, IFD0 right after it
+        segment[10] = 'M';
+        segment[11] = 'M';
+        WriteShort(segment, 12, 42, false);
+        WriteInt(segment, 14, 8);
+
+        WriteShort(segment, 18, 1, false);
+        WriteShort(segment, 20, TAG_ORIENTATION, false);
+        WriteShort(segment, 22, TYPE_SHORT, false);
+        WriteInt(segment, 24, 1);
+        WriteShort(segment, 28, orientation, false);
+        WriteInt(segment, 32, 0);
+        return segment;
+    }
+
+    private static boolean HasExifSegment(byte[] jpegBytes) {
+        return FindExifTiffOffset(jpegBytes) >= 0;
+    }
+
+    /**
+     * Find the TIFF header of the Exif APP1 segment
+     *
+     * @param jpegBytes JPEG image byte array
+     * @return Offset of the TIFF header, -1 if there is no Exif segment
+     */
+    private static int FindExifTiffOffset(byte[] jpegBytes) {
+        if (!IsJpeg(jpegBytes)) {
+            return -1;
+        }
+
+        int offset = 2;
+        while (offset + 4 <= jpegBytes.length) {
+            if ((jpegBytes[offset] & 0xFF) != MARKER_PREFIX) {
+                return -1;
+            }
+
+            int marker = jpegBytes[offset + 1] & 0xFF;
+            if (marker == MARKER_PREFIX) {
+                // Fill byte
+                offset++;
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                return -1;
+            }
+
+            int length = ReadShort(jpegBytes, offset + 2, false);
+            int dataOffset = offset + 4;
+            if (marker == MARKER_APP1 && length >= 2 + EXIF_HEADER.length + 8
+                    && dataOffset + length - 2 <= jpegBytes.length
+                    && StartsWith(jpegBytes, dataOffset, EXIF_HEADER)) {
+                return dataOffset + EXIF_HEADER.length;
+            }
+
+            offset += 2 + length;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the value of the orientation tag in IFD0
+     *
+     * @param jpegBytes JPEG image byte array
+     * @return Offset of the orientation SHORT value, -1 if there is none
+     */
+    private static int FindOrientationValueOffset(byte[] jpegBytes) {
+        int tiffOffset = FindExifTiffOffset(jpegBytes);
+        if (tiffOffset < 0) {
+            return -1;
+        }
+        return FindTiffOrientationOffset(jpegBytes, tiffOffset, jpegBytes.length);
+    }
+
+    /**
+     * Read the orientation of a TIFF structure (the content of an Exif segment after its header)
+     *
+     * @param bytes      Bytes holding the TIFF structure
+     * @param tiffOffset Offset of the TIFF header
+     * @param end        End of the readable bytes
+     * @return {@link ExifInterface} orientation constant, ORIENTATION_UNDEFINED if there is none
+     */
+    static int GetTiffOrientation(byte[] bytes, int tiffOffset, int end) {
+        int offset = FindTiffOrientationOffset(bytes, tiffOffset, end);
+        if (offset < 0) {
+            return ExifInterface.ORIENTATION_UNDEFINED;
+        }
+        return ReadShort(bytes, offset, bytes[tiffOffset] == 'I');
+    }
+
+    private static int FindTiffOrientationOffset(byte[] bytes, int tiffOffset, int end) {
+        if (tiffOffset + 8 > end) {
+            return -1;
+        }
+
+        boolean littleEndian;
+        if (bytes[tiffOffset] == 'I' && bytes[tiffOffset + 1] == 'I') {
+            littleEndian = true;
+        } else if (bytes[tiffOffset] == 'M' && bytes[tiffOffset + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return -1;
+        }
+
+        long ifdOffset = ReadInt(bytes, tiffOffset + 4, littleEndian);
+        if (ifdOffset < 8 || tiffOffset + ifdOffset + 2 > end) {
+            return -1;
+        }
+
+        int ifd = (int) (tiffOffset + ifdOffset);
+        int entryCount = ReadShort(bytes, ifd, littleEndian);
+        for (int i = 0; i < entryCount; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > end) {
+                return -1;
+            }
+            if (ReadShort(bytes, entry, littleEndian) == TAG_ORIENTATION
+                    && ReadShort(bytes, entry + 2, littleEndian) == TYPE_SHORT) {
+                return entry + 8;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean IsLittleEndian(byte[] jpegBytes) {
+        return jpegBytes[FindExifTiffOffset(jpegBytes)] == 'I';
+    }
+
+    private static boolean StartsWith(byte[] bytes, int offset, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int ReadShort(byte[] bytes, int offset, boolean littleEndian) {
+        int b0 = bytes[offset] & 0xFF;
+        int b1 = bytes[offset + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static long ReadInt(byte[] bytes, int offset, boolean littleEndian) {
+        long value = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = bytes[offset + (littleEndian ? 3 - i : i)] & 0xFF;
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    private static void WriteShort(byte[] bytes, int offset, int value, boolean littleEndian) {
+        byte high = (byte) ((value >> 8) & 0xFF);
+        byte low = (byte) (value & 0xFF);
+        bytes[offset] = littleEndian ? low : high;
+        bytes[offset + 1] = littleEndian ? high : low;
+    }
+
+    private static void WriteInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) ((value >> 24) & 0xFF);
+        bytes[offset + 1] = (byte) ((value >> 16) & 0xFF);
+        bytes[offset + 2] = (byte) ((value >> 8) & 0xFF);
+        bytes[offset + 3] = (byte) (value & 0xFF);
+    }
+}
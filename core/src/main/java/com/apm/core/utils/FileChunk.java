@@ -0,0 +1,57 @@
+package com.apm.core.utils;
+
+/**
+ * Fixed size slice of a file sent by {@link ChunkedFileTransfer}
+ */
+public class FileChunk {
+
+    private final int mIndex;
+    private final long mOffset;
+    private final int mLength;
+    private final long mFileLength;
+    private final String mHash;
+
+    /**
+     * FileChunk constructor
+     *
+     * @param index      Chunk index, from 0
+     * @param offset     Offset of the first byte in the file
+     * @param length     Chunk length, only the last chunk may be shorter than the chunk size
+     * @param fileLength Length of the whole file
+     * @param hash       Hash of the chunk bytes in lowercase hex
+     */
+    public FileChunk(int index, long offset, int length, long fileLength, String hash) {
+        this.mIndex = index;
+        this.mOffset = offset;
+        this.mLength = length;
+        this.mFileLength = fileLength;
+        this.mHash = hash;
+    }
+
+    public int getIndex() {
+        return mIndex;
+    }
+
+    public long getOffset() {
+        return mOffset;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    public long getFileLength() {
+        return mFileLength;
+    }
+
+    public String getHash() {
+        return mHash;
+    }
+
+    /**
+     * @return true if this is the last chunk of the file
+     */
+    public boolean isLast() {
+        return mOffset + mLength >= mFileLength;
+    }
+}
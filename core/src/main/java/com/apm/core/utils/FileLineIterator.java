@@ -0,0 +1,142 @@
+package com.apm.core.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Stream the lines (or delimited records) of a text file one at a time, so multi MB logs and
+ * exports are never held whole in memory. Line records also drop a trailing '\r', so CRLF files
+ * give the same lines as LF ones; the last record is returned even without a final delimiter.
+ * <p>
+ * Close the iterator when done, it is also closed once the last record is read.
+ */
+public class FileLineIterator implements Iterator<String>, Closeable {
+
+    // CONSTANTS
+    private static final int CHAR_BUFFER_SIZE = 16 * 1024;
+
+    private final Reader mReader;
+    private final char mDelimiter;
+    private final char[] mBuffer = new char[CHAR_BUFFER_SIZE];
+    private final StringBuilder mRecord = new StringBuilder();
+    private int mPosition;
+    private int mLimit;
+    private String mNext;
+    private boolean mFinished;
+
+    /**
+     * FileLineIterator constructor for the lines of a file
+     *
+     * @param file    Text file
+     * @param charset File charset
+     * @throws IOException If the file cannot be opened
+     */
+    public FileLineIterator(File file, Charset charset) throws IOException {
+        this(new FileInputStream(file), charset, '\n');
+    }
+
+    /**
+     * FileLineIterator constructor for the records of a stream
+     *
+     * @param inputStream Text stream, closed with the iterator
+     * @param charset     Stream charset
+     * @param delimiter   Record delimiter, '\n' for lines
+     */
+    public FileLineIterator(InputStream inputStream, Charset charset, char delimiter) {
+        this.mReader = new InputStreamReader(inputStream, charset);
+        this.mDelimiter = delimiter;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (mNext != null) {
+            return true;
+        }
+        if (mFinished) {
+            return false;
+        }
+
+        try {
+            mNext = readRecord();
+        } catch (IOException e) {
+            e.printStackTrace();
+            mNext = null;
+        }
+
+        if (mNext == null) {
+            close();
+        }
+        return mNext != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        String record = mNext;
+        mNext = null;
+        return record;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Records cannot be removed");
+    }
+
+    @Override
+    public void close() {
+        mFinished = true;
+        try {
+            mReader.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private String readRecord() throws IOException {
+        mRecord.setLength(0);
+        boolean readAny = false;
+
+        while (true) {
+            if (mPosition >= mLimit) {
+                mLimit = mReader.read(mBuffer, 0, mBuffer.length);
+                mPosition = 0;
+                if (mLimit <= 0) {
+                    mLimit = 0;
+                    return readAny ? endRecord() : null;
+                }
+            }
+
+            readAny = true;
+            int start = mPosition;
+            while (mPosition < mLimit && mBuffer[mPosition] != mDelimiter) {
+                mPosition++;
+            }
+            mRecord.append(mBuffer, start, mPosition - start);
+
+            if (mPosition < mLimit) {
+                // Skip delimiter
+                mPosition++;
+                return endRecord();
+            }
+        }
+    }
+
+    private String endRecord() {
+        int length = mRecord.length();
+        if (mDelimiter == '\n' && length > 0 && mRecord.charAt(length - 1) == '\r') {
+            mRecord.setLength(length - 1);
+        }
+        return mRecord.toString();
+    }
+}
@@ -2,30 +2,38 @@ package com.apm.core.utils;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Environment;
 import android.provider.MediaStore;
-import android.webkit.MimeTypeMap;
 
 import com.apm.core.enums.FileSizeType;
+import com.apm.core.enums.HashAlgorithm;
 import com.apm.core.enums.MediaFileType;
+import com.apm.core.enums.RotationMode;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.security.MessageDigest;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -44,23 +52,21 @@ public class FileUtils {
     private static final double SPACE_MB = 1024 * SPACE_KB;
     private static final double SPACE_GB = 1024 * SPACE_MB;
     private static final double SPACE_TB = 1024 * SPACE_GB;
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final int DIRECT_BUFFER_SIZE = 256 * 1024;
+    private static final long MAX_TRANSFER_SIZE = 64 * 1024 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    public static final long MMAP_THRESHOLD = 1024 * 1024;
 
     /**
-     * Gets MimeType of file
+     * Gets MimeType of file from its content, or its extension when the content is not known.
+     * See {@link MimeTypeDetector}.
      *
      * @param file source file
-     * @return MimeType in string
+     * @return MimeType in string, {@link MimeTypeDetector#DEFAULT_MIME_TYPE} if unknown
      */
     public static String GetMimeTypeFromFile(File file) {
-        String type = null;
-        String extension = MimeTypeMap.getFileExtensionFromUrl(file.getAbsolutePath());
-        if (extension != null && !extension.equals("")) {
-            type = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
-        } else if (extension != null) {
-            extension = file.getAbsolutePath().substring(file.getAbsolutePath().lastIndexOf(".") + 1);
-            type = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
-        }
-        return type;
+        return MimeTypeDetector.Detect(file);
     }
 
     /**
@@ -82,10 +88,7 @@ public class FileUtils {
      */
     public static File SaveImageBytes(byte[] bitmapBytes) throws IOException {
         File file = CreateMediaFile(MediaFileType.IMAGE, "");
-        FileOutputStream fos = new FileOutputStream(Objects.requireNonNull(file));
-        fos.write(bitmapBytes);
-        fos.flush();
-        fos.close();
+        new AtomicFile(Objects.requireNonNull(file)).write(bitmapBytes);
         return file;
     }
 
@@ -100,16 +103,7 @@ public class FileUtils {
      */
     public static File SaveImageBytes(byte[] bitmapBytes, String path, String name) throws IOException {
         File file = new File(new File(path), name);
-
-        if (!file.exists()) {
-            new File(path).mkdirs();
-            file.createNewFile();
-        }
-
-        FileOutputStream fos = new FileOutputStream(file);
-        fos.write(bitmapBytes);
-        fos.flush();
-        fos.close();
+        new AtomicFile(file).write(bitmapBytes);
         return file;
     }
 
@@ -127,14 +121,14 @@ public class FileUtils {
         File file = new File(path + File.separator + name + "." +
                 (compressFormat == Bitmap.CompressFormat.JPEG ? "jpg" :
                         (compressFormat == Bitmap.CompressFormat.PNG ? "png" : "jpg")));
-        FileOutputStream fos = new FileOutputStream(file);
-        fos.write(bitmapBytes);
-        fos.close();
+        new AtomicFile(file).write(bitmapBytes);
         return file;
     }
 
     /**
-     * Save image from bitmap to file
+     * Save image from bitmap to file, rotated 90 degrees. The pixels are rotated, use
+     * {@link #SaveImageBitmap(Bitmap, String, String, Bitmap.CompressFormat, int, RotationMode)}
+     * with {@link RotationMode#EXIF} to only tag JPEG output when the receiver reads EXIF data.
      *
      * @param sourceBitmap   Image in bitmap
      * @param path           Image path
@@ -145,100 +139,385 @@ public class FileUtils {
      * @throws IOException If something was wrong with file creation
      */
     public static File SaveImageBitmap(Bitmap sourceBitmap, String path, String name, Bitmap.CompressFormat compressFormat, int outputQuality) throws IOException {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        sourceBitmap.compress(compressFormat, outputQuality, stream);
-
-        byte[] sourceBytes =
-                RotateImageFromBytes(stream.toByteArray(), 90, compressFormat, outputQuality);
+        return SaveImageBitmap(sourceBitmap, path, name, compressFormat, outputQuality, RotationMode.PIXELS);
+    }
 
+    /**
+     * Save image from bitmap to file, rotated 90 degrees
+     *
+     * @param sourceBitmap   Image in bitmap
+     * @param path           Image path
+     * @param name           Image name without extension
+     * @param compressFormat {@link Bitmap.CompressFormat compress format}
+     * @param outputQuality  0 - 100 image percent quality
+     * @param rotationMode   {@link RotationMode rotation mode}, EXIF only applies to JPEG output
+     * @return Image file
+     * @throws IOException If something was wrong with file creation
+     */
+    public static File SaveImageBitmap(Bitmap sourceBitmap, String path, String name, Bitmap.CompressFormat compressFormat, int outputQuality, RotationMode rotationMode) throws IOException {
         File file = new File(path + File.separator + name + "." +
                 (compressFormat == Bitmap.CompressFormat.JPEG ? "jpg" :
                         (compressFormat == Bitmap.CompressFormat.PNG ? "png" : "jpg")));
 
-        FileOutputStream fos = new FileOutputStream(file);
-        fos.write(sourceBytes);
-        fos.close();
-        return file;
+        if (rotationMode == RotationMode.EXIF && compressFormat == Bitmap.CompressFormat.JPEG) {
+            return CompressBitmapToFile(sourceBitmap, file, compressFormat, outputQuality,
+                    ExifUtils.OrientationFromDegrees(90));
+        }
+
+        Bitmap rotatedBitmap = BitmapUtils.RotateBitmap(sourceBitmap, 90);
+        try {
+            return CompressBitmapToFile(rotatedBitmap, file, compressFormat, outputQuality);
+        } finally {
+            if (rotatedBitmap != sourceBitmap) {
+                BitmapUtils.ReleaseBitmap(rotatedBitmap);
+            }
+        }
+    }
+
+    /**
+     * Compress a bitmap straight into a file, without holding the encoded image in memory.
+     * The image is written through {@link AtomicFile}, so a failure or a crash never leaves a
+     * truncated image behind.
+     *
+     * @param bitmap         Image in bitmap
+     * @param destFile       Destination file
+     * @param compressFormat {@link Bitmap.CompressFormat compress format}
+     * @param outputQuality  0 - 100 image percent quality
+     * @return Destination file
+     * @throws IOException If something was wrong with file creation or encoding
+     */
+    public static File CompressBitmapToFile(Bitmap bitmap, File destFile, Bitmap.CompressFormat compressFormat, int outputQuality) throws IOException {
+        return CompressBitmapToFile(bitmap, destFile, compressFormat, outputQuality, 0);
+    }
+
+    /**
+     * Compress a bitmap straight into a file, tagging JPEG output with an EXIF orientation
+     *
+     * @param bitmap          Image in bitmap
+     * @param destFile        Destination file
+     * @param compressFormat  {@link Bitmap.CompressFormat compress format}
+     * @param outputQuality   0 - 100 image percent quality
+     * @param exifOrientation ExifInterface orientation constant, 0 to write no EXIF data
+     * @return Destination file
+     * @throws IOException If something was wrong with file creation or encoding
+     */
+    private static File CompressBitmapToFile(Bitmap bitmap, File destFile, Bitmap.CompressFormat compressFormat, int outputQuality, int exifOrientation) throws IOException {
+        AtomicFile atomicFile = new AtomicFile(destFile);
+        FileOutputStream fileOut = atomicFile.startWrite();
+        try {
+            OutputStream out = new BufferedOutputStream(fileOut, STREAM_BUFFER_SIZE);
+            if (exifOrientation != 0 && compressFormat == Bitmap.CompressFormat.JPEG) {
+                out = ExifUtils.WrapWithOrientation(out, exifOrientation);
+            }
+            if (!bitmap.compress(compressFormat, outputQuality, out)) {
+                throw new IOException("Cannot encode bitmap into " + destFile.getAbsolutePath());
+            }
+            out.flush();
+            atomicFile.finishWrite(fileOut);
+        } catch (IOException e) {
+            atomicFile.failWrite(fileOut);
+            throw e;
+        }
+
+        return destFile;
     }
 
     /**
      * Read text file and return it's content
      *
      * @param filename File name (with full path)
-     * @return File content in String
+     * @return File content in String, UTF-8 decoded, line endings untouched
      * @throws IOException If something was wrong with file read process
      */
     public static String ReadTextFile(String filename) throws IOException {
-        File file = new File(filename);
-        StringBuilder text = new StringBuilder();
-        BufferedReader br = new BufferedReader(new FileReader(file));
-        String line;
-
-        while ((line = br.readLine()) != null) {
-            text.append(line);
-            text.append('\n');
-        }
-        br.close();
-        return text.toString();
+        return ReadTextFile(new File(filename));
     }
 
     /**
      * Read text file and return it's content
      *
      * @param file File to be read
-     * @return File content in string
+     * @return File content in string, UTF-8 decoded, line endings untouched
      * @throws IOException If something was wrong with file read process
      */
     public static String ReadTextFile(File file) throws IOException {
-        StringBuilder text = new StringBuilder();
-        BufferedReader br = new BufferedReader(new FileReader(file));
-        String line;
+        return ReadTextFile(file, UTF_8);
+    }
+
+    /**
+     * Read text file and return it's content
+     *
+     * @param file    File to be read
+     * @param charset File charset
+     * @return File content in string, line endings untouched, invalid bytes replaced by U+FFFD
+     * @throws IOException If something was wrong with file read process
+     */
+    public static String ReadTextFile(File file, Charset charset) throws IOException {
+        return ReadTextBuffer(file, charset).toString();
+    }
+
+    /**
+     * Read a text file as a char buffer, without building a String. Large files are decoded
+     * from a memory map. Bytes not valid in the charset are replaced by U+FFFD, as FileReader
+     * does.
+     *
+     * @param file    File to be read
+     * @param charset File charset
+     * @return Decoded file content
+     * @throws IOException If something was wrong with file read process
+     */
+    public static CharBuffer ReadTextBuffer(File file, Charset charset) throws IOException {
+        return ReadTextBuffer(file, charset, false);
+    }
+
+    /**
+     * Read a text file as a char buffer, without building a String. Large files are decoded
+     * from a memory map.
+     *
+     * @param file    File to be read
+     * @param charset File charset
+     * @param strict  true to fail on bytes not valid in the charset, false to replace them by
+     *                U+FFFD
+     * @return Decoded file content
+     * @throws IOException If something was wrong with file read process, or content is not valid
+     *                     in the charset in strict mode
+     */
+    public static CharBuffer ReadTextBuffer(File file, Charset charset, boolean strict) throws IOException {
+        CodingErrorAction action = strict ? CodingErrorAction.REPORT : CodingErrorAction.REPLACE;
+        return charset.newDecoder()
+                .onMalformedInput(action)
+                .onUnmappableCharacter(action)
+                .decode(ReadFileBuffer(file));
+    }
+
+    /**
+     * Stream the lines of a text file, see {@link FileLineIterator}
+     *
+     * @param file    File to be read
+     * @param charset File charset
+     * @return Line iterator, to be closed when done
+     * @throws IOException If the file cannot be opened
+     */
+    public static FileLineIterator ReadTextLines(File file, Charset charset) throws IOException {
+        return new FileLineIterator(file, charset);
+    }
+
+    /**
+     * Read a whole file as a read only byte buffer: memory mapped from {@link #MMAP_THRESHOLD}
+     * bytes (paged in by the kernel on access, outside of the Java heap), read in a heap buffer
+     * below it
+     *
+     * @param file File to be read
+     * @return File content
+     * @throws IOException If something was wrong with file read process
+     */
+    public static ByteBuffer ReadFileBuffer(File file) throws IOException {
+        if (file.length() >= MMAP_THRESHOLD) {
+            return MapFile(file);
+        }
+        return ByteBuffer.wrap(ReadFileBytes(file)).asReadOnlyBuffer();
+    }
 
-        while ((line = br.readLine()) != null) {
-            text.append(line);
-            text.append('\n');
+    /**
+     * Memory map a whole file in read only mode. The map stays valid after this method returns
+     * and is released when the buffer is garbage collected.
+     *
+     * @param file File to be mapped
+     * @return Mapped file content
+     * @throws IOException If the file cannot be mapped
+     */
+    public static MappedByteBuffer MapFile(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read a whole file in a byte array
+     *
+     * @param file File to be read
+     * @return File content
+     * @throws IOException If the file cannot be read completely
+     */
+    public static byte[] ReadFileBytes(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too big for a byte array: " + file.getAbsolutePath());
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("File truncated while reading: " + file.getAbsolutePath());
+                }
+            }
+            return buffer.array();
+        } finally {
+            in.close();
         }
-        br.close();
-        return text.toString();
     }
 
     /**
-     * Copy file
+     * Copy file. The kernel copies the data between both files (FileChannel.transferTo), without
+     * going through a heap buffer. The destination is replaced through {@link AtomicFile}.
      *
      * @param srcFile Source file
      * @param dstFile Destination file
      * @throws IOException If something was wrong with file copy process
      */
     public static void CopyFile(File srcFile, File dstFile) throws IOException {
-        InputStream in = new FileInputStream(srcFile);
-        OutputStream out = new FileOutputStream(dstFile);
+        FileInputStream in = new FileInputStream(srcFile);
+        try {
+            AtomicFile atomicFile = new AtomicFile(dstFile);
+            FileOutputStream out = atomicFile.startWrite();
+            try {
+                FileChannel inputChannel = in.getChannel();
+                TransferChannel(inputChannel, 0, inputChannel.size(), out.getChannel());
+                atomicFile.finishWrite(out);
+            } catch (IOException e) {
+                atomicFile.failWrite(out);
+                throw e;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copy file and hash it on the way, the source is read only once. The destination is
+     * replaced through {@link AtomicFile}.
+     *
+     * @param srcFile       Source file
+     * @param dstFile       Destination file
+     * @param hashAlgorithm {@link HashAlgorithm}
+     * @return Hash of the copied bytes
+     * @throws IOException If something was wrong with file copy process
+     */
+    public static byte[] CopyFile(File srcFile, File dstFile, HashAlgorithm hashAlgorithm) throws IOException {
+        return CopyFile(srcFile, dstFile, hashAlgorithm, null);
+    }
 
-        byte[] buf = new byte[1024];
-        int len;
-        while ((len = in.read(buf)) > 0) {
-            out.write(buf, 0, len);
+    /**
+     * Copy file and verify its hash on the way, the source is read only once. The destination
+     * is only replaced if the hash matches.
+     *
+     * @param srcFile       Source file
+     * @param dstFile       Destination file
+     * @param hashAlgorithm {@link HashAlgorithm}
+     * @param expectedHash  Expected hash bytes, null to skip the check
+     * @return Hash of the copied bytes
+     * @throws IOException If something was wrong with file copy process or the hash does not
+     *                     match, the destination keeps its previous content then
+     */
+    public static byte[] CopyFile(File srcFile, File dstFile, HashAlgorithm hashAlgorithm, byte[] expectedHash) throws IOException {
+        HashUtils.Hasher hasher = new HashUtils.Hasher(hashAlgorithm);
+        FileInputStream in = new FileInputStream(srcFile);
+        try {
+            AtomicFile atomicFile = new AtomicFile(dstFile);
+            FileOutputStream out = atomicFile.startWrite();
+            try {
+                FileChannel inputChannel = in.getChannel();
+                FileChannel outputChannel = out.getChannel();
+                ByteBuffer buffer = ByteBuffer.allocate(DIRECT_BUFFER_SIZE);
+                while (inputChannel.read(buffer) != -1) {
+                    buffer.flip();
+                    hasher.update(buffer.array(), 0, buffer.limit());
+                    while (buffer.hasRemaining()) {
+                        outputChannel.write(buffer);
+                    }
+                    buffer.clear();
+                }
+
+                byte[] hash = hasher.digest();
+                if (expectedHash != null && !MessageDigest.isEqual(hash, expectedHash)) {
+                    throw new IOException("Hash mismatch copying " + srcFile.getAbsolutePath()
+                            + ": expected " + HashUtils.ToHex(expectedHash) + ", got " + HashUtils.ToHex(hash));
+                }
+
+                atomicFile.finishWrite(out);
+                return hash;
+            } catch (IOException e) {
+                atomicFile.failWrite(out);
+                throw e;
+            }
+        } finally {
+            in.close();
         }
-        in.close();
-        out.close();
     }
 
     /**
-     * Copy file from input to output stream
+     * Copy file from input to output stream, with a channel transfer when both are files and a
+     * large buffer otherwise
      *
      * @param sourceInput Source that contains file to copy
      * @param destOutput  Output to save then contains
+     * @return Copied bytes
      * @throws IOException If something was wrong with file copy process
      */
-    private static void CopyFile(InputStream sourceInput, OutputStream destOutput) throws IOException {
-        byte[] buffer = new byte[1024];
+    private static long CopyFile(InputStream sourceInput, OutputStream destOutput) throws IOException {
+        if (sourceInput instanceof FileInputStream && destOutput instanceof FileOutputStream) {
+            FileChannel inputChannel = ((FileInputStream) sourceInput).getChannel();
+            long position = inputChannel.position();
+            long copied = TransferChannel(inputChannel, position, inputChannel.size() - position,
+                    ((FileOutputStream) destOutput).getChannel());
+            inputChannel.position(position + copied);
+            return copied;
+        }
+
+        if (destOutput instanceof FileOutputStream) {
+            // Read straight into a direct buffer the file channel writes without extra copy
+            ReadableByteChannel inputChannel = Channels.newChannel(sourceInput);
+            FileChannel outputChannel = ((FileOutputStream) destOutput).getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE);
+            long copied = 0;
+            while (inputChannel.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    copied += outputChannel.write(buffer);
+                }
+                buffer.clear();
+            }
+            return copied;
+        }
+
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        long copied = 0;
         int read;
         while ((read = sourceInput.read(buffer)) != -1) {
             destOutput.write(buffer, 0, read);
+            copied += read;
         }
+        return copied;
     }
 
     /**
-     * Copy asset file to internal storage
+     * Transfer a range of a file channel to another channel, transferTo may move less bytes than
+     * requested on each call
+     *
+     * @return Transferred bytes
+     */
+    private static long TransferChannel(FileChannel source, long position, long count, WritableByteChannel target) throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            long step = source.transferTo(position + transferred, Math.min(count - transferred, MAX_TRANSFER_SIZE), target);
+            if (step <= 0) {
+                break;
+            }
+            transferred += step;
+        }
+        return transferred;
+    }
+
+    /**
+     * Copy asset file to internal storage. Uncompressed assets are transferred straight from
+     * the APK file, compressed ones are streamed.
      *
      * @param assetManager    Asset manager
      * @param sourceAssetName Source asset name
@@ -255,24 +534,43 @@ public class FileUtils {
         if (!destPath.exists())
             destPath.mkdirs();
 
+        AssetFileDescriptor assetDescriptor = null;
+        try {
+            assetDescriptor = assetManager.openFd(sourceAssetName);
+        } catch (FileNotFoundException e) {
+            // Compressed asset, only readable as a stream
+        }
+
+        AtomicFile atomicFile = new AtomicFile(destFile);
         InputStream in = null;
-        OutputStream out = null;
+        FileOutputStream out = null;
         try {
-            in = assetManager.open(sourceAssetName);
-            out = new FileOutputStream(destFile);
-            CopyFile(in, out);
+            out = atomicFile.startWrite();
+            if (assetDescriptor != null) {
+                in = assetDescriptor.createInputStream();
+                TransferChannel(((FileInputStream) in).getChannel(), assetDescriptor.getStartOffset(),
+                        assetDescriptor.getLength(), out.getChannel());
+            } else {
+                in = assetManager.open(sourceAssetName);
+                CopyFile(in, out);
+            }
+            atomicFile.finishWrite(out);
+        } catch (IOException e) {
+            atomicFile.failWrite(out);
+            throw e;
         } finally {
             if (in != null) {
                 in.close();
             }
-            if (out != null) {
-                out.close();
+            if (assetDescriptor != null) {
+                assetDescriptor.close();
             }
         }
     }
 
     /**
-     * Move file from source to destination path
+     * Move file from source to destination path. A rename is tried first, which is instant on the
+     * same volume; across volumes the file is copied then deleted.
      *
      * @param file File to be moved
      * @param dir  Destination directory
@@ -280,18 +578,12 @@ public class FileUtils {
      */
     public static File MoveFile(File file, File dir) throws IOException {
         File newFile = new File(dir, file.getName());
-        FileChannel outputChannel = null;
-        FileChannel inputChannel = null;
-        try {
-            outputChannel = new FileOutputStream(newFile).getChannel();
-            inputChannel = new FileInputStream(file).getChannel();
-            inputChannel.transferTo(0, inputChannel.size(), outputChannel);
-            inputChannel.close();
-            file.delete();
-        } finally {
-            if (inputChannel != null) inputChannel.close();
-            if (outputChannel != null) outputChannel.close();
+        if (file.renameTo(newFile)) {
+            return newFile;
         }
+
+        CopyFile(file, newFile);
+        file.delete();
         return newFile;
     }
 
@@ -299,20 +591,15 @@ public class FileUtils {
      * Get file as byte array
      *
      * @param sourceFile File to be readed as byte array
-     * @return Byte array with file content
+     * @return Byte array with file content, null if the file cannot be read completely
      */
     public static byte[] GetFileAsByteArray(File sourceFile) {
-        int size = (int) sourceFile.length();
-        byte[] bytes = new byte[size];
         try {
-            BufferedInputStream buf = new BufferedInputStream(new FileInputStream(sourceFile));
-            buf.read(bytes, 0, bytes.length);
-            buf.close();
+            return ReadFileBytes(sourceFile);
         } catch (IOException e) {
             e.printStackTrace();
+            return null;
         }
-
-        return bytes;
     }
 
     /**
@@ -380,52 +667,72 @@ public class FileUtils {
     }
 
     /**
-     * Get rotated image from source image in byte array
+     * Get rotated image from source image in byte array. The decoded pixels are rotated and
+     * re-encoded without EXIF data, use
+     * {@link #RotateImageFromBytes(byte[], int, Bitmap.CompressFormat, int, RotationMode)} with
+     * {@link RotationMode#EXIF} to only rewrite the orientation of JPEG images.
      *
      * @param fileData       Desired image in byte array
      * @param compressFormat Desired image compress format
-     * @param imageQuality   Desired image quality
+     * @param imageQuality   Desired image quality, only used when pixels are re-encoded
      * @param imageRotation  Desired image rotation
      * @return A rotated image in byte array format
      */
     public static byte[] RotateImageFromBytes(byte[] fileData, int imageRotation, Bitmap.CompressFormat compressFormat, int imageQuality) {
+        return RotateImageFromBytes(fileData, imageRotation, compressFormat, imageQuality, RotationMode.PIXELS);
+    }
+
+    /**
+     * Get rotated image from source image in byte array
+     *
+     * @param fileData       Desired image in byte array
+     * @param imageRotation  Desired image rotation
+     * @param compressFormat Desired image compress format
+     * @param imageQuality   Desired image quality, only used when pixels are re-encoded
+     * @param rotationMode   {@link RotationMode rotation mode}. EXIF writes the rotation as the
+     *                       orientation tag, replacing the source one, so EXIF readers show the
+     *                       same image as PIXELS output. It falls back to pixel rotation when the
+     *                       source is not a JPEG, the output is not JPEG or the rotation is not a
+     *                       multiple of 90
+     * @return A rotated image in byte array format
+     */
+    public static byte[] RotateImageFromBytes(byte[] fileData, int imageRotation, Bitmap.CompressFormat compressFormat, int imageQuality, RotationMode rotationMode) {
+        if (rotationMode == RotationMode.EXIF && compressFormat == Bitmap.CompressFormat.JPEG) {
+            byte[] rotatedBytes = ExifUtils.RotateJpegOrientation(fileData, imageRotation);
+            if (rotatedBytes != null) {
+                return rotatedBytes;
+            }
+        }
+
         ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        Bitmap bitmap = BitmapUtils.RotateBitmap(BitmapFactory.decodeByteArray(fileData, 0, fileData.length), imageRotation);
-        bitmap.compress(compressFormat, imageQuality, stream);
-        bitmap.recycle();
+        Bitmap bitmap = BitmapUtils.DecodePooledBytes(fileData);
+        Bitmap rotatedBitmap = BitmapUtils.RotateBitmap(bitmap, imageRotation);
+        rotatedBitmap.compress(compressFormat, imageQuality, stream);
+        BitmapUtils.ReleaseBitmap(bitmap);
+        BitmapUtils.ReleaseBitmap(rotatedBitmap);
         return stream.toByteArray();
     }
 
     /**
-     * Save a temp file from input stream source
+     * Save a temp file from input stream source in the size bounded {@link TempFileCache}. The
+     * file is named after its content with the extension of fileName, so a changed source gives
+     * a new file and identical sources share one.
      *
      * @param context     Application context
-     * @param fileName    File name
+     * @param fileName    File name, only its extension is kept
      * @param inputStream Source input stream
-     * @return New temporary file created
+     * @return Temporary file with the stream content
      * @throws IOException If something was wrong with the file creation
      */
     public static File SaveTempFileFromStream(Context context, String fileName, InputStream inputStream) throws IOException {
-        File file = null;
-        file = new File(context.getCacheDir(), fileName);
-
-        if (!file.exists()) {
-            OutputStream output = new FileOutputStream(file);
-            byte[] buffer = new byte[4 * 1024];
-            int read;
-
-            while ((read = inputStream.read(buffer)) != -1) {
-                output.write(buffer, 0, read);
-            }
-            output.flush();
-            output.close();
-        }
-
-        return file;
+        int dot = fileName.lastIndexOf('.');
+        String extension = dot > fileName.lastIndexOf('/') ? fileName.substring(dot) : "";
+        return TempFileCache.GetInternal(context).put(inputStream, extension);
     }
 
     /**
-     * Write JSON file from String content
+     * Write JSON file from String content. The file is replaced through {@link AtomicFile}, it
+     * keeps its previous content if the write fails.
      *
      * @param filePath    File path of the new JSON file
      * @param jsonName    Name of the new JSON file
@@ -433,49 +740,94 @@ public class FileUtils {
      * @throws IOException If something was wrong with the file creation
      */
     public static void WriteJSONFile(File filePath, String jsonName, String jsonContent) throws IOException {
-        if (!filePath.exists())
-            filePath.mkdirs();
-        File file = new File(filePath, jsonName + ".json");
-        if (file.exists())
-            file.delete();
-        FileWriter writer = new FileWriter(file, true);
-        writer.append(jsonContent);
-        writer.flush();
-        writer.close();
+        new AtomicFile(new File(filePath, jsonName + ".json")).write(jsonContent, UTF_8);
     }
 
     /**
-     * Get file size in desired {@link FileSizeType}
+     * Stage a JSON file write in a batch, the file is written on {@link AtomicWriteBatch#commit()}
+     * along with the rest of the batch under a single sync
      *
-     * @param file         File to get size
+     * @param batch       {@link AtomicWriteBatch} batch
+     * @param filePath    File path of the JSON file
+     * @param jsonName    Name of the JSON file
+     * @param jsonContent String with JSON content
+     */
+    public static void WriteJSONFile(AtomicWriteBatch batch, File filePath, String jsonName, String jsonContent) {
+        batch.write(new File(filePath, jsonName + ".json"), jsonContent, UTF_8);
+    }
+
+    /**
+     * Get file size in desired {@link FileSizeType}. Directories are walked with the shared
+     * {@link DirectoryScanner}, use it directly to get counts, progress or cancellation.
+     *
+     * @param file         File or directory to get size
      * @param fileSizeType {@link FileSizeType}
      * @return File size as String
      */
     public static String GetFileSize(File file, FileSizeType fileSizeType) {
-        double fileSize;
+        return FormatFileSize(GetFileSizeInBytes(file), fileSizeType);
+    }
 
-        if (!file.isFile()) {
-            throw new IllegalArgumentException("Expected argument to be a file");
-        } else {
-            fileSize = (double) file.length();//in Bytes
-
-            switch (fileSizeType) {
-                case B:
-                    return String.valueOf(fileSize);
-                case KB:
-                    return String.valueOf(fileSize / SPACE_KB);
-                case MB:
-                    return String.valueOf(fileSize / SPACE_MB);
-                case GB:
-                    return String.valueOf(fileSize / SPACE_GB);
-                case TB:
-                    return String.valueOf(fileSize / SPACE_TB);
-                default:
-                    return "Unknown";
-            }
+    /**
+     * Get size in bytes of a file, or of every file inside a directory
+     *
+     * @param file File or directory to get size
+     * @return Size in bytes
+     */
+    public static long GetFileSizeInBytes(File file) {
+        if (file.isFile()) {
+            return file.length();
+        }
+
+        if (!file.isDirectory()) {
+            throw new IllegalArgumentException("Expected argument to be a file or directory");
+        }
+
+        DirectoryScanner.Scan scan = DirectoryScanner.GetDefault().scan(file, null);
+        try {
+            return scan.await().getTotalBytes();
+        } catch (InterruptedException e) {
+            scan.cancel();
+            Thread.currentThread().interrupt();
+            return scan.getStats().getTotalBytes();
         }
     }
 
+    /**
+     * Convert a size in bytes to the desired {@link FileSizeType}
+     *
+     * @param bytes        Size in bytes
+     * @param fileSizeType {@link FileSizeType}
+     * @return Size in the unit of fileSizeType
+     */
+    public static double ConvertFileSize(long bytes, FileSizeType fileSizeType) {
+        switch (fileSizeType) {
+            case B:
+                return bytes;
+            case KB:
+                return bytes / SPACE_KB;
+            case MB:
+                return bytes / SPACE_MB;
+            case GB:
+                return bytes / SPACE_GB;
+            case TB:
+                return bytes / SPACE_TB;
+            default:
+                throw new IllegalArgumentException("Unknown file size type " + fileSizeType);
+        }
+    }
+
+    /**
+     * Format a size in bytes in the desired {@link FileSizeType}
+     *
+     * @param bytes        Size in bytes
+     * @param fileSizeType {@link FileSizeType}
+     * @return Size as String
+     */
+    public static String FormatFileSize(long bytes, FileSizeType fileSizeType) {
+        return String.valueOf(ConvertFileSize(bytes, fileSizeType));
+    }
+
     /**
      * Create a media file into media directories
      *
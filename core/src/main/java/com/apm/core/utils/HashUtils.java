@@ -6,13 +6,47 @@ import android.content.pm.PackageManager;
 import android.content.pm.Signature;
 import android.util.Base64;
 
+import com.apm.core.enums.HashAlgorithm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
 
 /**
  * Created by Ing. Oscar G. Medina Cruz on 18/06/18.
  */
 public class HashUtils {
+
+    // CONSTANTS
+    private static final int HASH_BUFFER_SIZE = 256 * 1024;
+    private static final long MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<byte[]> sBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[HASH_BUFFER_SIZE];
+        }
+    };
+
+    private static ExecutorService sExecutor;
+
     /**
      * This method was created to help the developer to know what keyhash we need to register in
      * facebook developers to enable procedures like login.
@@ -53,4 +87,207 @@ public class HashUtils {
         }
         return null;
     }
+
+    /**
+     * Hash a file. Files from {@link FileUtils#MMAP_THRESHOLD} bytes are memory mapped in
+     * windows, smaller ones are read through a reusable per thread buffer.
+     *
+     * @param file          File to hash
+     * @param hashAlgorithm {@link HashAlgorithm}
+     * @return Hash bytes, 4 big endian bytes for CRC32
+     * @throws IOException If the file cannot be read
+     */
+    public static byte[] HashFile(File file, HashAlgorithm hashAlgorithm) throws IOException {
+        Hasher hasher = new Hasher(hashAlgorithm);
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+
+            if (size >= FileUtils.MMAP_THRESHOLD) {
+                for (long position = 0; position < size; position += MAP_WINDOW_SIZE) {
+                    hasher.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(MAP_WINDOW_SIZE, size - position)));
+                }
+            } else {
+                byte[] buffer = sBuffer.get();
+                ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+                int read;
+                while ((read = channel.read(wrapped)) != -1) {
+                    hasher.update(buffer, 0, read);
+                    wrapped.clear();
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return hasher.digest();
+    }
+
+    /**
+     * Hash a stream to its end, through a reusable per thread buffer
+     *
+     * @param inputStream   Stream to hash, not closed
+     * @param hashAlgorithm {@link HashAlgorithm}
+     * @return Hash bytes, 4 big endian bytes for CRC32
+     * @throws IOException If the stream cannot be read
+     */
+    public static byte[] HashStream(InputStream inputStream, HashAlgorithm hashAlgorithm) throws IOException {
+        Hasher hasher = new Hasher(hashAlgorithm);
+        byte[] buffer = sBuffer.get();
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            hasher.update(buffer, 0, read);
+        }
+        return hasher.digest();
+    }
+
+    /**
+     * Hash the remaining bytes of a buffer, its position is not changed
+     *
+     * @param buffer        Buffer to hash, heap, direct or mapped
+     * @param hashAlgorithm {@link HashAlgorithm}
+     * @return Hash bytes, 4 big endian bytes for CRC32
+     */
+    public static byte[] HashBuffer(ByteBuffer buffer, HashAlgorithm hashAlgorithm) {
+        Hasher hasher = new Hasher(hashAlgorithm);
+        hasher.update(buffer.duplicate());
+        return hasher.digest();
+    }
+
+    /**
+     * Hash many files concurrently on a shared pool, one thread per core
+     *
+     * @param files         Files to hash
+     * @param hashAlgorithm {@link HashAlgorithm}
+     * @return Hash bytes by file in the order of files, null for files that cannot be read
+     */
+    public static Map<File, byte[]> HashFiles(List<File> files, final HashAlgorithm hashAlgorithm) {
+        ExecutorService executor = GetExecutor();
+        List<Future<byte[]>> futures = new ArrayList<>(files.size());
+        for (final File file : files) {
+            futures.add(executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return HashFile(file, hashAlgorithm);
+                }
+            }));
+        }
+
+        Map<File, byte[]> hashes = new LinkedHashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            byte[] hash = null;
+            try {
+                hash = futures.get(i).get();
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Future<byte[]> future : futures) {
+                    future.cancel(true);
+                }
+                break;
+            }
+            hashes.put(files.get(i), hash);
+        }
+        return hashes;
+    }
+
+    /**
+     * Check a file against an expected hash
+     *
+     * @param file          File to check
+     * @param expectedHash  Expected hash in hex, case insensitive
+     * @param hashAlgorithm {@link HashAlgorithm}
+     * @return true if the file hash matches
+     * @throws IOException If the file cannot be read
+     */
+    public static boolean VerifyFile(File file, String expectedHash, HashAlgorithm hashAlgorithm) throws IOException {
+        return ToHex(HashFile(file, hashAlgorithm)).equalsIgnoreCase(expectedHash);
+    }
+
+    /**
+     * @param hash Hash bytes
+     * @return Lowercase hex of the hash
+     */
+    public static String ToHex(byte[] hash) {
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0x0F];
+            hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0x0F];
+        }
+        return new String(hex);
+    }
+
+    private static synchronized ExecutorService GetExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "HashUtils");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+
+    /**
+     * Incremental hash of any {@link HashAlgorithm}, used by {@link FileUtils} to hash while copying
+     */
+    static class Hasher {
+        private final MessageDigest mDigest;
+        private final CRC32 mChecksum;
+
+        Hasher(HashAlgorithm hashAlgorithm) {
+            if (hashAlgorithm == HashAlgorithm.CRC32) {
+                this.mDigest = null;
+                this.mChecksum = new CRC32();
+                return;
+            }
+
+            this.mChecksum = null;
+            try {
+                this.mDigest = MessageDigest.getInstance(hashAlgorithm == HashAlgorithm.SHA256 ? "SHA-256"
+                        : (hashAlgorithm == HashAlgorithm.SHA1 ? "SHA-1" : "MD5"));
+            } catch (NoSuchAlgorithmException e) {
+                // Every Android version provides these algorithms
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void update(byte[] bytes, int offset, int length) {
+            if (mDigest != null) {
+                mDigest.update(bytes, offset, length);
+            } else {
+                mChecksum.update(bytes, offset, length);
+            }
+        }
+
+        void update(ByteBuffer buffer) {
+            if (buffer.hasArray()) {
+                update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                buffer.position(buffer.limit());
+                return;
+            }
+
+            // Direct and mapped buffers: copy through the per thread buffer
+            byte[] chunk = sBuffer.get();
+            while (buffer.hasRemaining()) {
+                int length = Math.min(chunk.length, buffer.remaining());
+                buffer.get(chunk, 0, length);
+                update(chunk, 0, length);
+            }
+        }
+
+        byte[] digest() {
+            if (mDigest != null) {
+                return mDigest.digest();
+            }
+
+            long value = mChecksum.getValue();
+            return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+        }
+    }
 }
@@ -0,0 +1,60 @@
+package com.apm.core.utils;
+
+import com.apm.core.contracts.IChunkUploader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * {@link IChunkUploader} sending every chunk as an HTTP PUT to the same url, with its byte range
+ * in a Content-Range header ("bytes first-last/fileLength") and its hash in an X-Chunk-Hash
+ * header, so the server can place and check it. Any non 2xx response fails the chunk.
+ */
+public class HttpChunkUploader implements IChunkUploader {
+
+    // CONSTANTS
+    public static final String HASH_HEADER = "X-Chunk-Hash";
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+
+    private final OkHttpClient mClient;
+    private final String mUrl;
+
+    /**
+     * HttpChunkUploader constructor
+     *
+     * @param client HTTP client
+     * @param url    Upload url of the file
+     */
+    public HttpChunkUploader(OkHttpClient client, String url) {
+        this.mClient = client;
+        this.mUrl = url;
+    }
+
+    @Override
+    public void uploadChunk(FileChunk chunk, ByteBuffer data) throws IOException {
+        RequestBody body = RequestBody.create(OCTET_STREAM, data.array(),
+                data.arrayOffset() + data.position(), data.remaining());
+        Request request = new Request.Builder()
+                .url(mUrl)
+                .header("Content-Range", "bytes " + chunk.getOffset() + "-"
+                        + (chunk.getOffset() + chunk.getLength() - 1) + "/" + chunk.getFileLength())
+                .header(HASH_HEADER, chunk.getHash())
+                .put(body)
+                .build();
+
+        Response response = mClient.newCall(request).execute();
+        try {
+            if (!response.isSuccessful()) {
+                throw new IOException("HTTP " + response.code() + " for chunk " + chunk.getIndex() + " of " + mUrl);
+            }
+        } finally {
+            response.close();
+        }
+    }
+}
@@ -0,0 +1,503 @@
+package com.apm.core.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.apm.core.contracts.IBitmapOperation;
+import com.apm.core.contracts.IImageBatchListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process batches of images (decode at size, chain of bitmap operations, encode) on a worker
+ * pool, e.g. to prepare photo uploads.
+ * <p>
+ * Concurrency is bounded twice: by the number of worker threads and by a memory budget. Before
+ * decoding, every image reserves the bytes estimated for its decoded bitmap plus the extra
+ * bitmaps of its operations, so a batch of large photos runs fewer images at once than a batch
+ * of thumbnails. An image bigger than the whole budget still runs, alone.
+ */
+public class ImageBatchProcessor {
+
+    // CONSTANTS
+    private static final int PERMIT_BYTES = 1024;
+
+    private final int mTargetWidth;
+    private final int mTargetHeight;
+    private final List<IBitmapOperation> mOperations;
+    private final Bitmap.CompressFormat mCompressFormat;
+    private final int mImageQuality;
+    private final File mOutputDirectory;
+    private final ExecutorService mExecutor;
+    private final Semaphore mMemoryPermits;
+    private final int mTotalPermits;
+    private final Handler mMainHandler;
+
+    private ImageBatchProcessor(Builder builder) {
+        this.mTargetWidth = builder.mTargetWidth;
+        this.mTargetHeight = builder.mTargetHeight;
+        this.mOperations = Collections.unmodifiableList(new ArrayList<>(builder.mOperations));
+        this.mCompressFormat = builder.mCompressFormat;
+        this.mImageQuality = builder.mImageQuality;
+        this.mOutputDirectory = builder.mOutputDirectory;
+        this.mExecutor = Executors.newFixedThreadPool(builder.mMaxThreads);
+        this.mTotalPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, builder.mMemoryBudget / PERMIT_BYTES));
+        this.mMemoryPermits = new Semaphore(mTotalPermits, true);
+        this.mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Process a batch of image files
+     *
+     * @param imageFiles Source image files
+     * @param listener   Batch listener, triggered on the main thread, may be null
+     * @return Running batch, to follow or cancel it
+     */
+    public Batch processFiles(List<File> imageFiles, IImageBatchListener listener) {
+        return submit(new ArrayList<Object>(imageFiles), listener);
+    }
+
+    /**
+     * Process a batch of image byte arrays
+     *
+     * @param images   Source images in byte array
+     * @param listener Batch listener, triggered on the main thread, may be null
+     * @return Running batch, to follow or cancel it
+     */
+    public Batch processBytes(List<byte[]> images, IImageBatchListener listener) {
+        return submit(new ArrayList<Object>(images), listener);
+    }
+
+    /**
+     * Stop the worker pool once running batches are done, no batch can be processed afterwards
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    private Batch submit(List<Object> sources, IImageBatchListener listener) {
+        final Batch batch = new Batch(sources.size(), listener);
+        batch.start();
+
+        for (int i = 0; i < sources.size(); i++) {
+            final int index = i;
+            final Object source = sources.get(i);
+            batch.mFutures.add(mExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (batch.isCancelled()) {
+                        return;
+                    }
+
+                    try {
+                        Object output = processItem(batch, index, source);
+                        if (output != null) {
+                            batch.complete(index, output, null);
+                        }
+                    } catch (Throwable t) {
+                        // An OutOfMemoryError would otherwise stay in the Future, and the batch
+                        // would never finish
+                        batch.complete(index, null, t instanceof Exception ? (Exception) t
+                                : new IOException("Cannot process image " + index, t));
+                    }
+                }
+            }));
+        }
+
+        if (sources.isEmpty()) {
+            batch.finish();
+        }
+        return batch;
+    }
+
+    /**
+     * Run the whole chain on a single image
+     *
+     * @return Encoded byte array or saved file, null if the batch was cancelled meanwhile
+     */
+    private Object processItem(Batch batch, int index, Object source) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        if (source instanceof File) {
+            BitmapFactory.decodeFile(((File) source).getAbsolutePath(), options);
+        } else {
+            byte[] imageBytes = (byte[]) source;
+            BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, options);
+        }
+
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Cannot decode image " + index);
+        }
+
+        BitmapUtils.SetDecodeSize(options, mTargetWidth, mTargetHeight, true);
+        int permits = estimatePermits(options);
+        try {
+            mMemoryPermits.acquire(permits);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for memory");
+        }
+
+        try {
+            if (batch.isCancelled()) {
+                return null;
+            }
+
+            Bitmap bitmap = source instanceof File
+                    ? BitmapUtils.DecodePooledFile(((File) source).getAbsolutePath(), options)
+                    : BitmapUtils.DecodePooledByteArray((byte[]) source, options);
+            if (bitmap == null) {
+                throw new IOException("Cannot decode image " + index);
+            }
+
+            try {
+                for (IBitmapOperation operation : mOperations) {
+                    if (batch.isCancelled()) {
+                        return null;
+                    }
+
+                    Bitmap result = operation.apply(bitmap);
+                    if (result != bitmap) {
+                        BitmapUtils.ReleaseBitmap(bitmap);
+                        bitmap = result;
+                    }
+                }
+
+                if (batch.isCancelled()) {
+                    return null;
+                }
+                return encode(bitmap, index, source);
+            } finally {
+                BitmapUtils.ReleaseBitmap(bitmap);
+            }
+        } finally {
+            mMemoryPermits.release(permits);
+        }
+    }
+
+    private Object encode(Bitmap bitmap, int index, Object source) throws IOException {
+        if (mOutputDirectory == null) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            if (!bitmap.compress(mCompressFormat, mImageQuality, stream)) {
+                throw new IOException("Cannot encode image " + index);
+            }
+            return stream.toByteArray();
+        }
+
+        String name = "image_" + index;
+        if (source instanceof File) {
+            // Sources of different directories may share a name, the index keeps outputs apart
+            name = ((File) source).getName();
+            int extensionIndex = name.lastIndexOf('.');
+            if (extensionIndex > 0) {
+                name = name.substring(0, extensionIndex);
+            }
+            name += "_" + index;
+        }
+
+        String extension = mCompressFormat == Bitmap.CompressFormat.PNG ? "png"
+                : (mCompressFormat == Bitmap.CompressFormat.WEBP ? "webp" : "jpg");
+        return FileUtils.CompressBitmapToFile(bitmap, new File(mOutputDirectory, name + "." + extension),
+                mCompressFormat, mImageQuality);
+    }
+
+    /**
+     * Estimate the memory permits of an image from the options of its scaled decode
+     */
+    private int estimatePermits(BitmapFactory.Options options) {
+        int sampleSize = Math.max(1, options.inSampleSize);
+        float densityScale = options.inDensity > 0 ? (float) options.inTargetDensity / options.inDensity : 1f;
+        int width = (int) Math.ceil((float) options.outWidth / sampleSize * densityScale);
+        int height = (int) Math.ceil((float) options.outHeight / sampleSize * densityScale);
+
+        long bytes = (long) width * height * BitmapPool.GetBytesPerPixel(Bitmap.Config.ARGB_8888);
+        for (IBitmapOperation operation : mOperations) {
+            bytes += operation.estimateExtraBytes(width, height);
+        }
+        return (int) Math.max(1, Math.min(mTotalPermits, bytes / PERMIT_BYTES));
+    }
+
+    /**
+     * Batch being processed
+     */
+    public class Batch {
+        private final int mTotal;
+        private final IImageBatchListener mListener;
+        private final List<Future<?>> mFutures = Collections.synchronizedList(new ArrayList<Future<?>>());
+        private final AtomicInteger mCompleted = new AtomicInteger();
+        private final AtomicInteger mSucceeded = new AtomicInteger();
+        private final AtomicInteger mFailed = new AtomicInteger();
+        private final AtomicBoolean mCancelled = new AtomicBoolean();
+        private final AtomicBoolean mFinished = new AtomicBoolean();
+
+        private Batch(int total, IImageBatchListener listener) {
+            this.mTotal = total;
+            this.mListener = listener;
+        }
+
+        /**
+         * Cancel the batch: queued images are dropped and running ones stop at their next step.
+         * onBatchFinish is triggered with the images completed so far.
+         */
+        public void cancel() {
+            if (!mCancelled.compareAndSet(false, true)) {
+                return;
+            }
+
+            synchronized (mFutures) {
+                for (Future<?> future : mFutures) {
+                    future.cancel(false);
+                }
+            }
+            finish();
+        }
+
+        public boolean isCancelled() {
+            return mCancelled.get();
+        }
+
+        public boolean isFinished() {
+            return mFinished.get();
+        }
+
+        public int getTotal() {
+            return mTotal;
+        }
+
+        public int getCompleted() {
+            return mCompleted.get();
+        }
+
+        private void start() {
+            if (mListener == null) {
+                return;
+            }
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onBatchStart(mTotal);
+                }
+            });
+        }
+
+        private void complete(final int index, final Object output, final Exception exception) {
+            if (output != null) {
+                mSucceeded.incrementAndGet();
+            } else {
+                mFailed.incrementAndGet();
+            }
+            final int completed = mCompleted.incrementAndGet();
+
+            if (mListener != null) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isCancelled()) {
+                            return;
+                        }
+
+                        if (output instanceof File) {
+                            mListener.onItemProcessed(index, (File) output);
+                        } else if (output != null) {
+                            mListener.onItemProcessed(index, (byte[]) output);
+                        } else {
+                            mListener.onItemFailed(index, exception);
+                        }
+                        mListener.onBatchProgress(completed, mTotal);
+                    }
+                });
+            }
+
+            if (completed == mTotal) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            if (!mFinished.compareAndSet(false, true) || mListener == null) {
+                return;
+            }
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onBatchFinish(mSucceeded.get(), mFailed.get(), isCancelled());
+                }
+            });
+        }
+    }
+
+    private static class RotateOperation implements IBitmapOperation {
+        private final float mDegrees;
+
+        private RotateOperation(float degrees) {
+            this.mDegrees = degrees;
+        }
+
+        @Override
+        public Bitmap apply(Bitmap bitmap) {
+            return mDegrees % 360 == 0 ? bitmap : BitmapUtils.RotateBitmap(bitmap, mDegrees);
+        }
+
+        @Override
+        public long estimateExtraBytes(int width, int height) {
+            // A non right angle grows the bounding box up to twice the area
+            long area = (long) width * height * (mDegrees % 90 == 0 ? 1 : 2);
+            return mDegrees % 360 == 0 ? 0 : area * BitmapPool.GetBytesPerPixel(Bitmap.Config.ARGB_8888);
+        }
+    }
+
+    private static class OverlayOperation implements IBitmapOperation {
+        private final Bitmap mOverlay;
+        private final int mLeft;
+        private final int mTop;
+        private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+        private OverlayOperation(Bitmap overlay, int left, int top, int alpha) {
+            this.mOverlay = overlay;
+            this.mLeft = left;
+            this.mTop = top;
+            this.mPaint.setAlpha(alpha);
+        }
+
+        @Override
+        public Bitmap apply(Bitmap bitmap) {
+            Bitmap target = bitmap.isMutable() ? bitmap
+                    : bitmap.copy(bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888, true);
+            new Canvas(target).drawBitmap(mOverlay, mLeft, mTop, mPaint);
+            return target;
+        }
+
+        @Override
+        public long estimateExtraBytes(int width, int height) {
+            // Only when the previous step returned an immutable bitmap
+            return 0;
+        }
+    }
+
+    public static class Builder {
+        private int mTargetWidth;
+        private int mTargetHeight;
+        private List<IBitmapOperation> mOperations = new ArrayList<>();
+        private Bitmap.CompressFormat mCompressFormat = Bitmap.CompressFormat.JPEG;
+        private int mImageQuality = 90;
+        private File mOutputDirectory;
+        private int mMaxThreads = Runtime.getRuntime().availableProcessors();
+        private long mMemoryBudget = Runtime.getRuntime().maxMemory() / 4;
+
+        /**
+         * Decode every image to fill this size (keeping aspect ratio), default is full size
+         *
+         * @param targetWidth  Target width, 0 to scale by height only
+         * @param targetHeight Target height, 0 to scale by width only
+         * @return Builder
+         */
+        public Builder decodeAtSize(int targetWidth, int targetHeight) {
+            this.mTargetWidth = targetWidth;
+            this.mTargetHeight = targetHeight;
+            return this;
+        }
+
+        /**
+         * Add a rotation to the chain
+         *
+         * @param degrees Clockwise rotation
+         * @return Builder
+         */
+        public Builder rotate(float degrees) {
+            return addOperation(new RotateOperation(degrees));
+        }
+
+        /**
+         * Add an overlay (watermark, frame) to the chain
+         *
+         * @param overlay Overlay bitmap, shared by every worker, must not be recycled while processing
+         * @param left    Left position in the processed image
+         * @param top     Top position in the processed image
+         * @param alpha   0 - 255 overlay opacity
+         * @return Builder
+         */
+        public Builder overlay(Bitmap overlay, int left, int top, int alpha) {
+            return addOperation(new OverlayOperation(overlay, left, top, alpha));
+        }
+
+        /**
+         * Add a custom operation to the chain
+         *
+         * @param operation Bitmap operation
+         * @return Builder
+         */
+        public Builder addOperation(IBitmapOperation operation) {
+            this.mOperations.add(operation);
+            return this;
+        }
+
+        /**
+         * @param compressFormat Output {@link Bitmap.CompressFormat compress format}, default JPEG
+         * @param imageQuality   0 - 100 output quality, default 90
+         * @return Builder
+         */
+        public Builder compress(Bitmap.CompressFormat compressFormat, int imageQuality) {
+            this.mCompressFormat = compressFormat;
+            this.mImageQuality = imageQuality;
+            return this;
+        }
+
+        /**
+         * Save processed images in a directory instead of returning them in byte array. Files
+         * are named after the source file name and index (e.g. IMG_0001_3.jpg), or image_index
+         * for byte array sources.
+         *
+         * @param outputDirectory Output directory
+         * @return Builder
+         */
+        public Builder outputDirectory(File outputDirectory) {
+            this.mOutputDirectory = outputDirectory;
+            return this;
+        }
+
+        /**
+         * @param maxThreads Worker threads, default is the number of cores
+         * @return Builder
+         */
+        public Builder maxThreads(int maxThreads) {
+            if (maxThreads <= 0) {
+                throw new IllegalArgumentException("Max threads must be positive");
+            }
+            this.mMaxThreads = maxThreads;
+            return this;
+        }
+
+        /**
+         * @param memoryBudget Maximum bytes of bitmaps processed at once, default is 1/4 of the heap
+         * @return Builder
+         */
+        public Builder memoryBudget(long memoryBudget) {
+            if (memoryBudget <= 0) {
+                throw new IllegalArgumentException("Memory budget must be positive");
+            }
+            this.mMemoryBudget = memoryBudget;
+            return this;
+        }
+
+        public ImageBatchProcessor build() {
+            return new ImageBatchProcessor(this);
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package com.apm.core.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Size bounded, journaled disk cache with LRU eviction used by the {@link ImageUtils} engine.
+ * <p>
+ * Every entry is stored in its own file named after the MD5 of its key. The access order is
+ * persisted in a journal file (CLEAN / READ / REMOVE lines) so LRU order survives process
+ * restarts; the journal is replayed lazily on first access and compacted when it grows.
+ */
+public class ImageDiskCache {
+
+    // CONSTANTS
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String JOURNAL_MAGIC = "com.apm.core.ImageDiskCache";
+    private static final String JOURNAL_VERSION = "1";
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private final File mDirectory;
+    private final long mMaxSize;
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(0, 0.75f, true);
+
+    private Writer mJournalWriter;
+    private long mSize;
+    private int mRedundantOpCount;
+    private int mTmpCounter;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mPutCount;
+    private long mEvictionCount;
+
+    /**
+     * ImageDiskCache constructor, no disk access is done until the first operation
+     *
+     * @param directory Directory reserved for this cache
+     * @param maxSize   Maximum size in bytes of all cached entries
+     */
+    public ImageDiskCache(File directory, long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size must be positive");
+        }
+        this.mDirectory = directory;
+        this.mMaxSize = maxSize;
+    }
+
+    /**
+     * Get cached file of a key. A concurrent put may evict the file once this returns, use
+     * {@link #open(String)} to read the content.
+     *
+     * @param key Entry key (e.g. image url)
+     * @return Cached file, or null if the key is not cached
+     * @throws IOException If the journal cannot be read or written
+     */
+    public synchronized File get(String key) throws IOException {
+        ensureOpen();
+        String fileKey = FileKey(key);
+
+        if (mEntries.get(fileKey) == null) {
+            mMissCount++;
+            return null;
+        }
+
+        File file = new File(mDirectory, fileKey);
+        if (!file.exists()) {
+            removeEntry(fileKey);
+            mMissCount++;
+            return null;
+        }
+
+        mHitCount++;
+        appendJournal(READ, fileKey, -1);
+        return file;
+    }
+
+    /**
+     * Open the cached content of a key. The file is opened under the cache lock, so a concurrent
+     * put or trim cannot delete it in between; an opened stream stays readable after eviction.
+     *
+     * @param key Entry key (e.g. image url)
+     * @return Stream of the cached content, to be closed by the caller, or null if the key is
+     * not cached
+     * @throws IOException If the journal cannot be read or written
+     */
+    public synchronized FileInputStream open(String key) throws IOException {
+        ensureOpen();
+        String fileKey = FileKey(key);
+
+        if (mEntries.get(fileKey) != null) {
+            FileInputStream stream;
+            try {
+                stream = new FileInputStream(new File(mDirectory, fileKey));
+            } catch (FileNotFoundException e) {
+                // Deleted outside of the cache
+                removeEntry(fileKey);
+                mMissCount++;
+                return null;
+            }
+
+            try {
+                appendJournal(READ, fileKey, -1);
+            } catch (IOException e) {
+                stream.close();
+                throw e;
+            }
+            mHitCount++;
+            return stream;
+        }
+
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * Store data for a key, evicting least recently used entries if the budget is exceeded
+     *
+     * @param key  Entry key (e.g. image url)
+     * @param data Entry content
+     * @return Cached file, or null if data is bigger than the whole cache budget
+     * @throws IOException If the entry cannot be written
+     */
+    public File put(String key, byte[] data) throws IOException {
+        if (data.length > mMaxSize) {
+            return null;
+        }
+
+        File tmpFile;
+        synchronized (this) {
+            ensureOpen();
+            tmpFile = new File(mDirectory, FileKey(key) + "." + (mTmpCounter++) + ".tmp");
+        }
+
+        // Write outside the lock so slow disks do not block concurrent readers
+        FileOutputStream fos = new FileOutputStream(tmpFile);
+        try {
+            fos.write(data);
+            fos.flush();
+        } finally {
+            fos.close();
+        }
+
+        synchronized (this) {
+            String fileKey = FileKey(key);
+            File file = new File(mDirectory, fileKey);
+            if (file.exists() && !file.delete() || !tmpFile.renameTo(file)) {
+                tmpFile.delete();
+                throw new IOException("Cannot commit cache entry " + file.getAbsolutePath());
+            }
+
+            Long previous = mEntries.put(fileKey, (long) data.length);
+            if (previous != null) {
+                mSize -= previous;
+            }
+            mSize += data.length;
+            mPutCount++;
+            appendJournal(CLEAN, fileKey, data.length);
+            trimToSize();
+
+            return mEntries.containsKey(fileKey) ? file : null;
+        }
+    }
+
+    /**
+     * Remove an entry
+     *
+     * @param key Entry key (e.g. image url)
+     * @return true if the entry was cached
+     * @throws IOException If the journal cannot be written
+     */
+    public synchronized boolean remove(String key) throws IOException {
+        ensureOpen();
+        return removeEntry(FileKey(key));
+    }
+
+    /**
+     * Remove every entry of this cache
+     *
+     * @throws IOException If the journal cannot be rebuilt
+     */
+    public synchronized void clear() throws IOException {
+        ensureOpen();
+        for (String fileKey : new ArrayList<>(mEntries.keySet())) {
+            new File(mDirectory, fileKey).delete();
+        }
+        mEntries.clear();
+        mSize = 0;
+        rebuildJournal();
+    }
+
+    /**
+     * Close the journal, the cache is reopened on next access
+     *
+     * @throws IOException If the journal cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        if (mJournalWriter != null) {
+            mJournalWriter.close();
+            mJournalWriter = null;
+        }
+    }
+
+    /**
+     * @return Current size in bytes of all cached entries
+     */
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    /**
+     * @return Maximum size in bytes of all cached entries
+     */
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return Number of cached entries
+     */
+    public synchronized int getEntryCount() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return Number of {@link #get(String)} and {@link #open(String)} calls that found the entry
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return Number of {@link #get(String)} and {@link #open(String)} calls that found nothing
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return Number of stored entries
+     */
+    public synchronized long getPutCount() {
+        return mPutCount;
+    }
+
+    /**
+     * @return Number of entries evicted to respect the size budget
+     */
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * @return Cache directory
+     */
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (mJournalWriter != null) {
+            return;
+        }
+
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + mDirectory.getAbsolutePath());
+        }
+
+        File journal = new File(mDirectory, JOURNAL_FILE);
+        mEntries.clear();
+        mSize = 0;
+
+        if (journal.exists()) {
+            try {
+                readJournal(journal);
+            } catch (IOException e) {
+                // Corrupt journal, start from an empty cache
+                mEntries.clear();
+            }
+        }
+
+        // Drop entries whose file is gone and files that are not indexed (tmp leftovers)
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (new File(mDirectory, entry.getKey()).exists()) {
+                mSize += entry.getValue();
+            } else {
+                iterator.remove();
+            }
+        }
+
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.equals(JOURNAL_FILE) && !mEntries.containsKey(name)) {
+                    file.delete();
+                }
+            }
+        }
+
+        rebuildJournal();
+        trimToSize();
+    }
+
+    private void readJournal(File journal) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(journal), "US-ASCII"));
+        try {
+            if (!JOURNAL_MAGIC.equals(reader.readLine())
+                    || !JOURNAL_VERSION.equals(reader.readLine())
+                    || !"".equals(reader.readLine())) {
+                throw new IOException("Unexpected journal header");
+            }
+
+            int lineCount = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                lineCount++;
+
+                if (parts.length == 3 && CLEAN.equals(parts[0])) {
+                    mEntries.put(parts[1], Long.parseLong(parts[2]));
+                } else if (parts.length == 2 && READ.equals(parts[0])) {
+                    mEntries.get(parts[1]);
+                } else if (parts.length == 2 && REMOVE.equals(parts[0])) {
+                    mEntries.remove(parts[1]);
+                } else {
+                    // Truncated last line after a crash, keep what was read so far
+                    break;
+                }
+            }
+            mRedundantOpCount = lineCount - mEntries.size();
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt journal line", e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void rebuildJournal() throws IOException {
+        if (mJournalWriter != null) {
+            mJournalWriter.close();
+        }
+
+        File journalTmp = new File(mDirectory, JOURNAL_FILE_TMP);
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(journalTmp), "US-ASCII"));
+        try {
+            writer.write(JOURNAL_MAGIC + "\n" + JOURNAL_VERSION + "\n\n");
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                writer.write(CLEAN + " " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+
+        File journal = new File(mDirectory, JOURNAL_FILE);
+        if (journal.exists() && !journal.delete() || !journalTmp.renameTo(journal)) {
+            throw new IOException("Cannot replace journal " + journal.getAbsolutePath());
+        }
+
+        mJournalWriter = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(journal, true), "US-ASCII"));
+        mRedundantOpCount = 0;
+    }
+
+    private void appendJournal(String op, String fileKey, long size) throws IOException {
+        if (size >= 0) {
+            mJournalWriter.write(op + " " + fileKey + " " + size + "\n");
+        } else {
+            mJournalWriter.write(op + " " + fileKey + "\n");
+            mRedundantOpCount++;
+        }
+        mJournalWriter.flush();
+
+        if (mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD
+                && mRedundantOpCount >= mEntries.size()) {
+            rebuildJournal();
+        }
+    }
+
+    private boolean removeEntry(String fileKey) throws IOException {
+        Long size = mEntries.remove(fileKey);
+        if (size == null) {
+            return false;
+        }
+
+        new File(mDirectory, fileKey).delete();
+        mSize -= size;
+        appendJournal(REMOVE, fileKey, -1);
+        return true;
+    }
+
+    private void trimToSize() throws IOException {
+        while (mSize > mMaxSize && !mEntries.isEmpty()) {
+            String eldest = mEntries.keySet().iterator().next();
+            removeEntry(eldest);
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Get the file name of a key
+     *
+     * @param key Entry key
+     * @return MD5 of key in lowercase hex
+     */
+    private static String FileKey(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format(Locale.US, "%02x", b & 0xff));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
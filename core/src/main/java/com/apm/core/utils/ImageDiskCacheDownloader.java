@@ -0,0 +1,266 @@
+package com.apm.core.utils;
+
+import com.apm.core.contracts.IDiskCacheBucketResolver;
+import com.apm.core.contracts.IImageEngineMetricsListener;
+import com.squareup.picasso.Downloader;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Okio;
+
+/**
+ * Picasso {@link Downloader} that consults the {@link ImageDiskCache} buckets of the shared image
+ * engine before hitting the network, and stores every successful download in its bucket.
+ * <p>
+ * Picasso network policies are honored: NO_CACHE skips the lookup, NO_STORE skips the write and
+ * OFFLINE fails with 504 on a miss.
+ * <p>
+ * Concurrent downloads of the same url (e.g. one image shown at several sizes) share a single
+ * network fetch. Identical requests (same url, size and transformations) are already merged into
+ * one decode by the Picasso dispatcher of the shared engine.
+ */
+public class ImageDiskCacheDownloader implements Downloader {
+
+    private final Call.Factory mClient;
+    private final Map<String, ImageDiskCache> mBuckets;
+    private final String mDefaultBucket;
+    private final IDiskCacheBucketResolver mBucketResolver;
+    private final IImageEngineMetricsListener mMetricsListener;
+    private final ConcurrentHashMap<String, InFlightDownload> mInFlightDownloads = new ConcurrentHashMap<>();
+    private final AtomicLong mFetchCount = new AtomicLong();
+    private final AtomicLong mCoalescedCount = new AtomicLong();
+
+    /**
+     * ImageDiskCacheDownloader constructor
+     *
+     * @param client         HTTP client used on cache misses
+     * @param buckets        Disk caches by bucket name
+     * @param defaultBucket  Bucket used when the resolver returns null or an unknown name
+     * @param bucketResolver Resolver of the bucket of each url, may be null
+     * @param metricsListener Listener of fetch coalescing metrics, may be null
+     */
+    public ImageDiskCacheDownloader(Call.Factory client, Map<String, ImageDiskCache> buckets,
+                                    String defaultBucket, IDiskCacheBucketResolver bucketResolver,
+                                    IImageEngineMetricsListener metricsListener) {
+        this.mClient = client;
+        this.mBuckets = buckets;
+        this.mDefaultBucket = defaultBucket;
+        this.mBucketResolver = bucketResolver;
+        this.mMetricsListener = metricsListener;
+    }
+
+    @Override
+    public Response load(Request request) throws IOException {
+        String url = request.url().toString();
+        ImageDiskCache diskCache = getBucketCache(url);
+        CacheControl cacheControl = request.cacheControl();
+
+        if (!cacheControl.noCache()) {
+            // Opened under the cache lock, an eviction right after the lookup cannot delete it
+            FileInputStream cachedStream = diskCache.open(url);
+            if (cachedStream != null) {
+                long cachedLength;
+                try {
+                    cachedLength = cachedStream.getChannel().size();
+                } catch (IOException e) {
+                    cachedStream.close();
+                    throw e;
+                }
+
+                Response cacheResponse = new Response.Builder()
+                        .request(request)
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(200)
+                        .message("OK")
+                        .build();
+
+                return cacheResponse.newBuilder()
+                        .cacheResponse(cacheResponse)
+                        .body(ResponseBody.create(null, cachedLength,
+                                Okio.buffer(Okio.source(cachedStream))))
+                        .build();
+            }
+        }
+
+        if (cacheControl.onlyIfCached()) {
+            return new Response.Builder()
+                    .request(request)
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(504)
+                    .message("Unsatisfiable Request (only-if-cached)")
+                    .body(ResponseBody.create(null, new byte[0]))
+                    .build();
+        }
+
+        InFlightDownload download = new InFlightDownload();
+        InFlightDownload inFlight = mInFlightDownloads.putIfAbsent(url, download);
+        long fetchCount = mFetchCount.incrementAndGet();
+
+        if (inFlight != null) {
+            long coalescedCount = mCoalescedCount.incrementAndGet();
+            if (mMetricsListener != null) {
+                mMetricsListener.onFetchCoalesced(url, fetchCount, coalescedCount);
+            }
+
+            byte[] data = inFlight.await();
+            return new Response.Builder()
+                    .request(request)
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(200)
+                    .message("OK")
+                    .body(ResponseBody.create(inFlight.mContentType, data))
+                    .build();
+        }
+
+        try {
+            Response response = mClient.newCall(request).execute();
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                download.fail(new IOException("HTTP " + response.code() + " for " + url));
+                return response;
+            }
+
+            byte[] data;
+            try {
+                data = body.bytes();
+            } finally {
+                body.close();
+            }
+
+            download.complete(body.contentType(), data);
+
+            if (!cacheControl.noStore()) {
+                try {
+                    diskCache.put(url, data);
+                } catch (IOException e) {
+                    // A full or broken disk must not fail the image load
+                    e.printStackTrace();
+                }
+            }
+
+            return response.newBuilder()
+                    .body(ResponseBody.create(body.contentType(), data))
+                    .build();
+        } catch (IOException | RuntimeException e) {
+            download.fail(e);
+            throw e;
+        } finally {
+            mInFlightDownloads.remove(url, download);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        for (ImageDiskCache diskCache : mBuckets.values()) {
+            try {
+                diskCache.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Get the disk cache of a bucket
+     *
+     * @param bucket Bucket name
+     * @return Disk cache of the bucket, or null if the bucket is not registered
+     */
+    public ImageDiskCache getBucket(String bucket) {
+        return mBuckets.get(bucket);
+    }
+
+    /**
+     * @return Disk caches by bucket name
+     */
+    public Map<String, ImageDiskCache> getBuckets() {
+        return mBuckets;
+    }
+
+    /**
+     * @return Network fetches requested after a disk cache miss
+     */
+    public long getFetchCount() {
+        return mFetchCount.get();
+    }
+
+    /**
+     * @return Network fetches that shared an in-flight fetch of the same url
+     */
+    public long getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+    /**
+     * Ratio of network fetches served by a fetch already in flight. Identical requests merged by
+     * the Picasso dispatcher never reach the downloader and are not counted.
+     *
+     * @return Coalesced fetches over requested fetches, 0 if nothing was fetched
+     */
+    public float getFetchCoalescingRatio() {
+        long fetchCount = mFetchCount.get();
+        return fetchCount == 0 ? 0 : (float) mCoalescedCount.get() / fetchCount;
+    }
+
+    private ImageDiskCache getBucketCache(String url) {
+        ImageDiskCache diskCache = null;
+        if (mBucketResolver != null) {
+            String bucket = mBucketResolver.getBucket(url);
+            if (bucket != null) {
+                diskCache = mBuckets.get(bucket);
+            }
+        }
+        return diskCache != null ? diskCache : mBuckets.get(mDefaultBucket);
+    }
+
+    /**
+     * Result of a network fetch shared by every concurrent request of the same url
+     */
+    private static class InFlightDownload {
+
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        private volatile MediaType mContentType;
+        private volatile byte[] mData;
+        private volatile Exception mError;
+
+        void complete(MediaType contentType, byte[] data) {
+            mContentType = contentType;
+            mData = data;
+            mLatch.countDown();
+        }
+
+        void fail(Exception error) {
+            if (mLatch.getCount() > 0) {
+                mError = error;
+                mLatch.countDown();
+            }
+        }
+
+        byte[] await() throws IOException {
+            try {
+                mLatch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for in-flight download");
+            }
+
+            if (mData == null) {
+                throw new IOException("In-flight download failed", mError);
+            }
+            return mData;
+        }
+    }
+}
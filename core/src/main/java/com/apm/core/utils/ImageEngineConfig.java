@@ -0,0 +1,280 @@
+package com.apm.core.utils;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.apm.core.contracts.IDiskCacheBucketResolver;
+import com.apm.core.contracts.IImageEngineMetricsListener;
+import com.squareup.picasso.Picasso;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Configuration of the shared image engine used by {@link ImageUtils}.
+ * <p>
+ * Build it once with {@link ImageEngineConfig.Builder} and pass it to
+ * {@link ImageUtils#init(ImageEngineConfig)} before the first image load.
+ */
+public class ImageEngineConfig {
+
+    // CONSTANTS
+    public static final String DEFAULT_DISK_CACHE_BUCKET = "default";
+    private static final long DEFAULT_DISK_CACHE_SIZE = 50 * 1024 * 1024;
+    private static final String DISK_CACHE_DIRECTORY = "apm-image-cache";
+
+    private Context mContext;
+    private int mMemoryCacheSize;
+    private int mExecutorThreads;
+    private Picasso.Listener mListener;
+    private boolean mIndicatorsEnabled;
+    private boolean mLoggingEnabled;
+    private File mDiskCacheDirectory;
+    private Map<String, Long> mDiskCacheBuckets;
+    private String mDefaultDiskCacheBucket;
+    private IDiskCacheBucketResolver mDiskCacheBucketResolver;
+    private IImageEngineMetricsListener mMetricsListener;
+
+    /**
+     * ImageEngineConfig constructor
+     */
+    private ImageEngineConfig(Context context, int memoryCacheSize, int executorThreads,
+                              Picasso.Listener listener, boolean indicatorsEnabled,
+                              boolean loggingEnabled, File diskCacheDirectory,
+                              Map<String, Long> diskCacheBuckets, String defaultDiskCacheBucket,
+                              IDiskCacheBucketResolver diskCacheBucketResolver,
+                              IImageEngineMetricsListener metricsListener) {
+        this.mContext = context;
+        this.mMemoryCacheSize = memoryCacheSize;
+        this.mExecutorThreads = executorThreads;
+        this.mListener = listener;
+        this.mIndicatorsEnabled = indicatorsEnabled;
+        this.mLoggingEnabled = loggingEnabled;
+        this.mDiskCacheDirectory = diskCacheDirectory;
+        this.mDiskCacheBuckets = diskCacheBuckets;
+        this.mDefaultDiskCacheBucket = defaultDiskCacheBucket;
+        this.mDiskCacheBucketResolver = diskCacheBucketResolver;
+        this.mMetricsListener = metricsListener;
+    }
+
+    /**
+     * @return Application context used by the engine
+     */
+    public Context getContext() {
+        return mContext;
+    }
+
+    /**
+     * @return Memory cache size in bytes, 0 if Picasso default (about 15% of the heap) is used
+     */
+    public int getMemoryCacheSize() {
+        return mMemoryCacheSize;
+    }
+
+    /**
+     * @return Number of decode threads, 0 if Picasso network-aware executor is used
+     */
+    public int getExecutorThreads() {
+        return mExecutorThreads;
+    }
+
+    /**
+     * @return Listener notified for every failed request
+     */
+    public Picasso.Listener getListener() {
+        return mListener;
+    }
+
+    /**
+     * @return true if Picasso debug indicators are drawn over images
+     */
+    public boolean isIndicatorsEnabled() {
+        return mIndicatorsEnabled;
+    }
+
+    /**
+     * @return true if Picasso logging is enabled
+     */
+    public boolean isLoggingEnabled() {
+        return mLoggingEnabled;
+    }
+
+    /**
+     * @return Parent directory of every disk cache bucket
+     */
+    public File getDiskCacheDirectory() {
+        return mDiskCacheDirectory;
+    }
+
+    /**
+     * @return Disk cache budget in bytes by bucket name
+     */
+    public Map<String, Long> getDiskCacheBuckets() {
+        return mDiskCacheBuckets;
+    }
+
+    /**
+     * @return Bucket used for urls the resolver does not assign
+     */
+    public String getDefaultDiskCacheBucket() {
+        return mDefaultDiskCacheBucket;
+    }
+
+    /**
+     * @return Resolver of the bucket of each url, may be null
+     */
+    public IDiskCacheBucketResolver getDiskCacheBucketResolver() {
+        return mDiskCacheBucketResolver;
+    }
+
+    /**
+     * @return Listener of engine metrics, may be null
+     */
+    public IImageEngineMetricsListener getMetricsListener() {
+        return mMetricsListener;
+    }
+
+    public static class Builder {
+
+        private Context mContext;
+        private int mMemoryCacheSize = 0;
+        private int mExecutorThreads = 0;
+        private Picasso.Listener mListener = null;
+        private boolean mIndicatorsEnabled = false;
+        private boolean mLoggingEnabled = false;
+        private File mDiskCacheDirectory = null;
+        private Map<String, Long> mDiskCacheBuckets = new LinkedHashMap<>();
+        private String mDefaultDiskCacheBucket = null;
+        private IDiskCacheBucketResolver mDiskCacheBucketResolver = null;
+        private IImageEngineMetricsListener mMetricsListener = null;
+
+        /**
+         * @param context Any context, only the application context is retained
+         */
+        public Builder(Context context) {
+            this.mContext = context.getApplicationContext();
+        }
+
+        /**
+         * @param memoryCacheSize Memory cache size in bytes
+         */
+        public Builder memoryCacheSize(int memoryCacheSize) {
+            if (memoryCacheSize <= 0) {
+                throw new IllegalArgumentException("Memory cache size must be positive");
+            }
+            this.mMemoryCacheSize = memoryCacheSize;
+            return this;
+        }
+
+        /**
+         * Requests run in FIFO order on a fixed pool, so prefetch priorities are only honored by
+         * the default network-aware executor.
+         *
+         * @param executorThreads Fixed number of threads used to download and decode images
+         */
+        public Builder executorThreads(int executorThreads) {
+            if (executorThreads <= 0) {
+                throw new IllegalArgumentException("Executor threads must be positive");
+            }
+            this.mExecutorThreads = executorThreads;
+            return this;
+        }
+
+        /**
+         * @param listener Listener notified for every failed request
+         */
+        public Builder listener(Picasso.Listener listener) {
+            this.mListener = listener;
+            return this;
+        }
+
+        public Builder indicatorsEnabled(boolean indicatorsEnabled) {
+            this.mIndicatorsEnabled = indicatorsEnabled;
+            return this;
+        }
+
+        public Builder loggingEnabled(boolean loggingEnabled) {
+            this.mLoggingEnabled = loggingEnabled;
+            return this;
+        }
+
+        /**
+         * @param diskCacheDirectory Parent directory of every disk cache bucket
+         */
+        public Builder diskCacheDirectory(File diskCacheDirectory) {
+            this.mDiskCacheDirectory = diskCacheDirectory;
+            return this;
+        }
+
+        /**
+         * Register a disk cache bucket with its own LRU budget. The first registered bucket is the
+         * default one unless {@link #defaultDiskCacheBucket(String)} is called.
+         *
+         * @param bucket  Bucket name, also used as directory name
+         * @param maxSize Maximum size in bytes of the bucket
+         */
+        public Builder diskCacheBucket(String bucket, long maxSize) {
+            if (maxSize <= 0) {
+                throw new IllegalArgumentException("Disk cache size must be positive");
+            }
+            this.mDiskCacheBuckets.put(bucket, maxSize);
+            return this;
+        }
+
+        /**
+         * @param bucket Registered bucket used when the resolver does not assign one
+         */
+        public Builder defaultDiskCacheBucket(String bucket) {
+            this.mDefaultDiskCacheBucket = bucket;
+            return this;
+        }
+
+        /**
+         * @param diskCacheBucketResolver Resolver of the bucket of each url
+         */
+        public Builder diskCacheBucketResolver(IDiskCacheBucketResolver diskCacheBucketResolver) {
+            this.mDiskCacheBucketResolver = diskCacheBucketResolver;
+            return this;
+        }
+
+        /**
+         * @param metricsListener Listener of engine metrics such as network fetch coalescing
+         */
+        public Builder metricsListener(IImageEngineMetricsListener metricsListener) {
+            this.mMetricsListener = metricsListener;
+            return this;
+        }
+
+        public ImageEngineConfig build() {
+            if (mListener == null) {
+                mListener = new Picasso.Listener() {
+                    @Override
+                    public void onImageLoadFailed(Picasso picasso, Uri uri, Exception exception) {
+                        exception.printStackTrace();
+                    }
+                };
+            }
+
+            if (mDiskCacheDirectory == null) {
+                mDiskCacheDirectory = new File(mContext.getCacheDir(), DISK_CACHE_DIRECTORY);
+            }
+
+            if (mDiskCacheBuckets.isEmpty()) {
+                mDiskCacheBuckets.put(DEFAULT_DISK_CACHE_BUCKET, DEFAULT_DISK_CACHE_SIZE);
+            }
+
+            if (mDefaultDiskCacheBucket == null) {
+                mDefaultDiskCacheBucket = mDiskCacheBuckets.keySet().iterator().next();
+            } else if (!mDiskCacheBuckets.containsKey(mDefaultDiskCacheBucket)) {
+                throw new IllegalArgumentException("Unknown disk cache bucket " + mDefaultDiskCacheBucket);
+            }
+
+            return new ImageEngineConfig(mContext, mMemoryCacheSize, mExecutorThreads, mListener,
+                    mIndicatorsEnabled, mLoggingEnabled, mDiskCacheDirectory,
+                    Collections.unmodifiableMap(new LinkedHashMap<>(mDiskCacheBuckets)),
+                    mDefaultDiskCacheBucket, mDiskCacheBucketResolver, mMetricsListener);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.apm.core.utils;
+
+import com.apm.core.enums.ImageColorType;
+
+/**
+ * Image metadata read from file headers by {@link ImageHeaderParser}, without decoding
+ */
+public class ImageHeader {
+
+    private int mWidth;
+    private int mHeight;
+    private String mMimeType;
+    private int mExifOrientation;
+    private ImageColorType mColorType;
+
+    /**
+     * ImageHeader constructor
+     *
+     * @param width           Stored width, before EXIF orientation
+     * @param height          Stored height, before EXIF orientation
+     * @param mimeType        Image mime type
+     * @param exifOrientation ExifInterface orientation constant, 0 if undefined
+     * @param colorType       {@link ImageColorType} color type
+     */
+    public ImageHeader(int width, int height, String mimeType, int exifOrientation, ImageColorType colorType) {
+        this.mWidth = width;
+        this.mHeight = height;
+        this.mMimeType = mimeType;
+        this.mExifOrientation = exifOrientation;
+        this.mColorType = colorType;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    public int getExifOrientation() {
+        return mExifOrientation;
+    }
+
+    public ImageColorType getColorType() {
+        return mColorType;
+    }
+
+    /**
+     * @return true if the image may have transparent pixels
+     */
+    public boolean hasAlpha() {
+        return mColorType == ImageColorType.GRAYSCALE_ALPHA || mColorType == ImageColorType.RGBA
+                || mColorType == ImageColorType.PALETTE_ALPHA;
+    }
+}
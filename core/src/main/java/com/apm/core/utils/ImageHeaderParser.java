@@ -0,0 +1,385 @@
+package com.apm.core.utils;
+
+import android.support.media.ExifInterface;
+
+import com.apm.core.enums.ImageColorType;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read image metadata (dimensions, mime type, EXIF orientation, color type) of JPEG, PNG, GIF and
+ * WebP images from their headers only, without BitmapFactory.
+ * <p>
+ * Files are read through a channel: a small prefix first, then positional reads of the few
+ * segments needed when a JPEG has large metadata before its frame header. Results of files are
+ * kept in a bounded LRU cache keyed by path, and reused while file size and modification time
+ * do not change.
+ */
+public class ImageHeaderParser {
+
+    // CONSTANTS
+    public static final int MAX_CACHE_ENTRIES = 1024;
+    private static final int PREFIX_SIZE = 8 * 1024;
+    private static final int EXIF_READ_SIZE = 4 * 1024;
+    private static final int MAX_PNG_CHUNKS = 64;
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    private static final Map<String, CachedHeader> sCache = new LinkedHashMap<String, CachedHeader>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedHeader> eldest) {
+            return size() > MAX_CACHE_ENTRIES;
+        }
+    };
+
+    /**
+     * Read the header of an image file, from cache if the file did not change
+     *
+     * @param imageFile Image file
+     * @return Image header, or null if the file cannot be read or is not a JPEG, PNG, GIF or WebP
+     */
+    public static ImageHeader Parse(File imageFile) {
+        String key = imageFile.getAbsolutePath();
+        long lastModified = imageFile.lastModified();
+        long length = imageFile.length();
+
+        synchronized (sCache) {
+            CachedHeader cached = sCache.get(key);
+            if (cached != null && cached.mLastModified == lastModified && cached.mLength == length) {
+                return cached.mHeader;
+            }
+        }
+
+        ImageHeader header;
+        FileInputStream stream = null;
+        try {
+            stream = new FileInputStream(imageFile);
+            header = Parse(new HeaderReader(stream.getChannel()));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        synchronized (sCache) {
+            sCache.put(key, new CachedHeader(lastModified, length, header));
+        }
+        return header;
+    }
+
+    /**
+     * Read the header of an image byte array
+     *
+     * @param imageBytes Image byte array
+     * @return Image header, or null if bytes are not a JPEG, PNG, GIF or WebP image
+     */
+    public static ImageHeader Parse(byte[] imageBytes) {
+        try {
+            return Parse(new HeaderReader(imageBytes));
+        } catch (IOException e) {
+            // Byte arrays are never read past their end
+            return null;
+        }
+    }
+
+    /**
+     * Forget every cached file header
+     */
+    public static void ClearCache() {
+        synchronized (sCache) {
+            sCache.clear();
+        }
+    }
+
+    private static ImageHeader Parse(HeaderReader reader) throws IOException {
+        byte[] head = new byte[16];
+        int read = reader.read(0, head, head.length);
+
+        if (read >= 3 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xD8 && (head[2] & 0xFF) == 0xFF) {
+            return ParseJpeg(reader);
+        } else if (read >= PNG_SIGNATURE.length && StartsWith(head, 0, PNG_SIGNATURE)) {
+            return ParsePng(reader);
+        } else if (read >= 6 && head[0] == 'G' && head[1] == 'I' && head[2] == 'F' && head[3] == '8') {
+            return ParseGif(reader);
+        } else if (read >= 16 && head[0] == 'R' && head[1] == 'I' && head[2] == 'F' && head[3] == 'F'
+                && head[8] == 'W' && head[9] == 'E' && head[10] == 'B' && head[11] == 'P') {
+            return ParseWebp(reader, head);
+        }
+        return null;
+    }
+
+    private static ImageHeader ParseJpeg(HeaderReader reader) throws IOException {
+        byte[] segment = new byte[6];
+        int orientation = ExifInterface.ORIENTATION_UNDEFINED;
+        long position = 2;
+
+        while (reader.read(position, segment, 4) == 4) {
+            if ((segment[0] & 0xFF) != 0xFF) {
+                return null;
+            }
+
+            int marker = segment[1] & 0xFF;
+            if (marker == 0xFF) {
+                // Fill byte
+                position++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+                // Markers without length
+                position += 2;
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                // No frame header before image data
+                return null;
+            }
+
+            int length = ReadShortBE(segment, 2);
+            if (length < 2) {
+                return null;
+            }
+
+            if (marker == 0xE1 && orientation == ExifInterface.ORIENTATION_UNDEFINED) {
+                byte[] exif = new byte[Math.min(length - 2, EXIF_READ_SIZE)];
+                int exifRead = reader.read(position + 4, exif, exif.length);
+                if (exifRead > EXIF_HEADER.length && StartsWith(exif, 0, EXIF_HEADER)) {
+                    orientation = ExifUtils.GetTiffOrientation(exif, EXIF_HEADER.length, exifRead);
+                }
+            } else if (IsStartOfFrame(marker)) {
+                if (reader.read(position + 4, segment, 6) < 6) {
+                    return null;
+                }
+
+                int components = segment[5] & 0xFF;
+                ImageColorType colorType = components == 1 ? ImageColorType.GRAYSCALE
+                        : (components == 4 ? ImageColorType.CMYK : ImageColorType.RGB);
+                return new ImageHeader(ReadShortBE(segment, 3), ReadShortBE(segment, 1), "image/jpeg",
+                        orientation, colorType);
+            }
+
+            position += 2 + length;
+        }
+        return null;
+    }
+
+    private static boolean IsStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static ImageHeader ParsePng(HeaderReader reader) throws IOException {
+        // Signature (8), IHDR length (4) and type (4), width (4), height (4), bit depth (1), color type (1)
+        byte[] ihdr = new byte[26];
+        if (reader.read(0, ihdr, ihdr.length) < ihdr.length
+                || ihdr[12] != 'I' || ihdr[13] != 'H' || ihdr[14] != 'D' || ihdr[15] != 'R') {
+            return null;
+        }
+
+        int width = (int) ReadIntBE(ihdr, 16);
+        int height = (int) ReadIntBE(ihdr, 20);
+        int pngColorType = ihdr[25] & 0xFF;
+
+        ImageColorType colorType;
+        switch (pngColorType) {
+            case 0:
+                colorType = HasPngTransparency(reader) ? ImageColorType.GRAYSCALE_ALPHA : ImageColorType.GRAYSCALE;
+                break;
+            case 2:
+                colorType = HasPngTransparency(reader) ? ImageColorType.RGBA : ImageColorType.RGB;
+                break;
+            case 3:
+                colorType = HasPngTransparency(reader) ? ImageColorType.PALETTE_ALPHA : ImageColorType.PALETTE;
+                break;
+            case 4:
+                colorType = ImageColorType.GRAYSCALE_ALPHA;
+                break;
+            case 6:
+                colorType = ImageColorType.RGBA;
+                break;
+            default:
+                colorType = ImageColorType.UNKNOWN;
+                break;
+        }
+        return new ImageHeader(width, height, "image/png", ExifInterface.ORIENTATION_UNDEFINED, colorType);
+    }
+
+    /**
+     * Look for a tRNS chunk, which always comes before image data
+     */
+    private static boolean HasPngTransparency(HeaderReader reader) throws IOException {
+        byte[] chunk = new byte[8];
+        // Signature (8) + IHDR chunk (4 + 4 + 13 + 4)
+        long position = 33;
+
+        for (int i = 0; i < MAX_PNG_CHUNKS && reader.read(position, chunk, 8) == 8; i++) {
+            if (chunk[4] == 't' && chunk[5] == 'R' && chunk[6] == 'N' && chunk[7] == 'S') {
+                return true;
+            }
+            if (chunk[4] == 'I' && chunk[5] == 'D' && chunk[6] == 'A' && chunk[7] == 'T') {
+                return false;
+            }
+            position += 12 + ReadIntBE(chunk, 0);
+        }
+        return false;
+    }
+
+    private static ImageHeader ParseGif(HeaderReader reader) throws IOException {
+        byte[] screen = new byte[13];
+        if (reader.read(0, screen, screen.length) < screen.length) {
+            return null;
+        }
+
+        int packed = screen[10] & 0xFF;
+        long position = screen.length;
+        if ((packed & 0x80) != 0) {
+            position += 3 * (1 << ((packed & 0x07) + 1));
+        }
+
+        // A transparent color is declared by a graphic control extension before the first frame
+        byte[] extension = new byte[4];
+        boolean transparent = reader.read(position, extension, 4) == 4
+                && (extension[0] & 0xFF) == 0x21 && (extension[1] & 0xFF) == 0xF9 && (extension[3] & 0x01) != 0;
+
+        return new ImageHeader(ReadShortLE(screen, 6), ReadShortLE(screen, 8), "image/gif",
+                ExifInterface.ORIENTATION_UNDEFINED,
+                transparent ? ImageColorType.PALETTE_ALPHA : ImageColorType.PALETTE);
+    }
+
+    private static ImageHeader ParseWebp(HeaderReader reader, byte[] head) throws IOException {
+        byte[] data = new byte[10];
+        if (reader.read(20, data, data.length) < data.length) {
+            return null;
+        }
+
+        int width;
+        int height;
+        boolean alpha;
+        if (head[12] == 'V' && head[13] == 'P' && head[14] == '8' && head[15] == ' ') {
+            // Lossy: frame tag (3), start code (3), 14 bits width and height
+            if ((data[3] & 0xFF) != 0x9D || (data[4] & 0xFF) != 0x01 || (data[5] & 0xFF) != 0x2A) {
+                return null;
+            }
+            width = ReadShortLE(data, 6) & 0x3FFF;
+            height = ReadShortLE(data, 8) & 0x3FFF;
+            alpha = false;
+        } else if (head[12] == 'V' && head[13] == 'P' && head[14] == '8' && head[15] == 'L') {
+            // Lossless: signature, then 14 bits width - 1, 14 bits height - 1, alpha bit
+            if ((data[0] & 0xFF) != 0x2F) {
+                return null;
+            }
+            long bits = ReadIntLE(data, 1);
+            width = (int) (bits & 0x3FFF) + 1;
+            height = (int) ((bits >> 14) & 0x3FFF) + 1;
+            alpha = ((bits >> 28) & 0x01) != 0;
+        } else if (head[12] == 'V' && head[13] == 'P' && head[14] == '8' && head[15] == 'X') {
+            // Extended: flags, reserved (3), 24 bits canvas width - 1 and height - 1
+            alpha = (data[0] & 0x10) != 0;
+            width = ReadInt24LE(data, 4) + 1;
+            height = ReadInt24LE(data, 7) + 1;
+        } else {
+            return null;
+        }
+
+        return new ImageHeader(width, height, "image/webp", ExifInterface.ORIENTATION_UNDEFINED,
+                alpha ? ImageColorType.RGBA : ImageColorType.RGB);
+    }
+
+    private static boolean StartsWith(byte[] bytes, int offset, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int ReadShortBE(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 8 | (bytes[offset + 1] & 0xFF);
+    }
+
+    private static int ReadShortLE(byte[] bytes, int offset) {
+        return (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset] & 0xFF);
+    }
+
+    private static int ReadInt24LE(byte[] bytes, int offset) {
+        return (bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset] & 0xFF);
+    }
+
+    private static long ReadIntBE(byte[] bytes, int offset) {
+        return ((long) ReadShortBE(bytes, offset) << 16) | ReadShortBE(bytes, offset + 2);
+    }
+
+    private static long ReadIntLE(byte[] bytes, int offset) {
+        return ((long) ReadShortLE(bytes, offset + 2) << 16) | ReadShortLE(bytes, offset);
+    }
+
+    /**
+     * Random access to the first bytes of an image: a byte array, or a file prefix read once
+     * plus positional channel reads beyond it
+     */
+    private static class HeaderReader {
+        private final byte[] mPrefix;
+        private final int mPrefixLength;
+        private final FileChannel mChannel;
+
+        private HeaderReader(byte[] imageBytes) {
+            this.mPrefix = imageBytes;
+            this.mPrefixLength = imageBytes.length;
+            this.mChannel = null;
+        }
+
+        private HeaderReader(FileChannel channel) throws IOException {
+            this.mChannel = channel;
+            this.mPrefix = new byte[PREFIX_SIZE];
+            this.mPrefixLength = ReadFully(channel, 0, mPrefix, PREFIX_SIZE);
+        }
+
+        /**
+         * @return Bytes read, less than length at the end of the image
+         */
+        private int read(long position, byte[] buffer, int length) throws IOException {
+            if (position + length <= mPrefixLength || mChannel == null) {
+                int available = (int) Math.max(0, Math.min(length, mPrefixLength - position));
+                if (available > 0) {
+                    System.arraycopy(mPrefix, (int) position, buffer, 0, available);
+                }
+                return available;
+            }
+            return ReadFully(mChannel, position, buffer, length);
+        }
+
+        private static int ReadFully(FileChannel channel, long position, byte[] buffer, int length) throws IOException {
+            ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
+            while (target.hasRemaining()) {
+                if (channel.read(target, position + target.position()) < 0) {
+                    break;
+                }
+            }
+            return target.position();
+        }
+    }
+
+    private static class CachedHeader {
+        private final long mLastModified;
+        private final long mLength;
+        private final ImageHeader mHeader;
+
+        private CachedHeader(long lastModified, long length, ImageHeader header) {
+            this.mLastModified = lastModified;
+            this.mLength = length;
+            this.mHeader = header;
+        }
+    }
+}
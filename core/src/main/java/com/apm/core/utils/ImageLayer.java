@@ -0,0 +1,156 @@
+package com.apm.core.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.PorterDuff;
+
+import java.io.File;
+
+/**
+ * Layer of an image composition, see {@link BitmapUtils#CompositeLayers(int, int, java.util.List, Bitmap.Config)}
+ */
+public class ImageLayer {
+
+    private byte[] mImageBytes;
+    private File mImageFile;
+    private Bitmap mBitmap;
+    private int mLeft;
+    private int mTop;
+    private int mWidth;
+    private int mHeight;
+    private int mAlpha;
+    private PorterDuff.Mode mBlendMode;
+
+    private ImageLayer(Builder builder) {
+        this.mImageBytes = builder.mImageBytes;
+        this.mImageFile = builder.mImageFile;
+        this.mBitmap = builder.mBitmap;
+        this.mLeft = builder.mLeft;
+        this.mTop = builder.mTop;
+        this.mWidth = builder.mWidth;
+        this.mHeight = builder.mHeight;
+        this.mAlpha = builder.mAlpha;
+        this.mBlendMode = builder.mBlendMode;
+    }
+
+    public byte[] getImageBytes() {
+        return mImageBytes;
+    }
+
+    public File getImageFile() {
+        return mImageFile;
+    }
+
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    public int getLeft() {
+        return mLeft;
+    }
+
+    public int getTop() {
+        return mTop;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getAlpha() {
+        return mAlpha;
+    }
+
+    public PorterDuff.Mode getBlendMode() {
+        return mBlendMode;
+    }
+
+    public static class Builder {
+        private byte[] mImageBytes;
+        private File mImageFile;
+        private Bitmap mBitmap;
+        private int mLeft;
+        private int mTop;
+        private int mWidth;
+        private int mHeight;
+        private int mAlpha = 255;
+        private PorterDuff.Mode mBlendMode = PorterDuff.Mode.SRC_OVER;
+
+        /**
+         * Builder constructor for an encoded image, decoded once at the layer size
+         *
+         * @param imageBytes Image byte array
+         */
+        public Builder(byte[] imageBytes) {
+            this.mImageBytes = imageBytes;
+        }
+
+        /**
+         * Builder constructor for an image file, decoded once at the layer size
+         *
+         * @param imageFile Image file
+         */
+        public Builder(File imageFile) {
+            this.mImageFile = imageFile;
+        }
+
+        /**
+         * Builder constructor for an already decoded image, never modified nor recycled
+         *
+         * @param bitmap Image bitmap
+         */
+        public Builder(Bitmap bitmap) {
+            this.mBitmap = bitmap;
+        }
+
+        /**
+         * @param left Left position in the composition, default 0
+         * @param top  Top position in the composition, default 0
+         * @return Builder
+         */
+        public Builder position(int left, int top) {
+            this.mLeft = left;
+            this.mTop = top;
+            return this;
+        }
+
+        /**
+         * Scale the layer to fill this size (keeping aspect ratio, anchored at its top left
+         * corner and cropped to the size), default is the image natural size
+         *
+         * @param width  Layer width, 0 to scale by height only
+         * @param height Layer height, 0 to scale by width only
+         * @return Builder
+         */
+        public Builder size(int width, int height) {
+            this.mWidth = width;
+            this.mHeight = height;
+            return this;
+        }
+
+        /**
+         * @param alpha 0 - 255 layer opacity, default 255
+         * @return Builder
+         */
+        public Builder alpha(int alpha) {
+            this.mAlpha = alpha;
+            return this;
+        }
+
+        /**
+         * @param blendMode Blend mode with the layers below, default SRC_OVER
+         * @return Builder
+         */
+        public Builder blendMode(PorterDuff.Mode blendMode) {
+            this.mBlendMode = blendMode;
+            return this;
+        }
+
+        public ImageLayer build() {
+            return new ImageLayer(this);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.apm.core.utils;
+
+import android.content.Context;
+import android.widget.AbsListView;
+
+/**
+ * Pause the image requests of a request group while a ListView or GridView is flinging, and
+ * resume them when it settles.
+ * <p>
+ * RecyclerView lists can do the same by calling {@link ImageUtils#PauseRequests(Context, Object)}
+ * on SCROLL_STATE_SETTLING and {@link ImageUtils#ResumeRequests(Context, Object)} on
+ * SCROLL_STATE_IDLE.
+ */
+public class ImagePauseOnScrollListener implements AbsListView.OnScrollListener {
+
+    private Context mContext;
+    private Object mTag;
+    private AbsListView.OnScrollListener mDelegate;
+
+    /**
+     * ImagePauseOnScrollListener constructor
+     *
+     * @param context  Context given to ImageUtils.LoadImage, used as request group tag
+     * @param delegate Scroll listener notified after pausing or resuming, may be null
+     */
+    public ImagePauseOnScrollListener(Context context, AbsListView.OnScrollListener delegate) {
+        this.mContext = context;
+        this.mTag = context;
+        this.mDelegate = delegate;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        if (scrollState == SCROLL_STATE_FLING) {
+            ImageUtils.PauseRequests(mContext, mTag);
+        } else {
+            ImageUtils.ResumeRequests(mContext, mTag);
+        }
+
+        if (mDelegate != null) {
+            mDelegate.onScrollStateChanged(view, scrollState);
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (mDelegate != null) {
+            mDelegate.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+        }
+    }
+}
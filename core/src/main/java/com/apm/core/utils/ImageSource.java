@@ -0,0 +1,31 @@
+package com.apm.core.utils;
+
+import com.apm.core.enums.ImageType;
+
+/**
+ * Image object of type {@link ImageType}, used by batch operations of {@link ImageUtils}
+ */
+public class ImageSource {
+
+    private ImageType mImageType;
+    private Object mImageObj;
+
+    /**
+     * ImageSource constructor
+     *
+     * @param imageType {@link ImageType} type
+     * @param imageObj  image object of type {@link ImageType}
+     */
+    public ImageSource(ImageType imageType, Object imageObj) {
+        this.mImageType = imageType;
+        this.mImageObj = imageObj;
+    }
+
+    public ImageType getImageType() {
+        return mImageType;
+    }
+
+    public Object getImageObj() {
+        return mImageObj;
+    }
+}
@@ -1,75 +1,275 @@
 package com.apm.core.utils;
 
+import android.app.Activity;
+import android.app.Application;
 import android.content.Context;
+import android.content.ContextWrapper;
 import android.graphics.drawable.Drawable;
-import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.DrawableRes;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+import android.util.DisplayMetrics;
 import android.widget.ImageView;
 
 import com.apm.core.enums.ImageType;
 import com.squareup.picasso.Callback;
+import com.squareup.picasso.LruCache;
 import com.squareup.picasso.Picasso;
 import com.squareup.picasso.RequestCreator;
+import com.squareup.picasso.StatsSnapshot;
 import com.squareup.picasso.Target;
 import com.squareup.picasso.Transformation;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+
+import okhttp3.OkHttpClient;
 
 /**
  * Created by Ing. Oscar G. Medina Cruz on 27/10/17.
  * <p>
  * Handle image loading using {@link Picasso} library
+ * <p>
+ * Every load goes through one process-wide {@link Picasso} instance, so the memory cache,
+ * downloader and dispatcher threads are shared between calls. Call
+ * {@link #init(ImageEngineConfig)} once (e.g. in Application.onCreate) to tune it, otherwise
+ * a default engine is created on first use.
+ * <p>
+ * Requests are grouped by the Context given to LoadImage, so a whole group can be paused,
+ * resumed or cancelled, or bound to an Activity / Fragment lifecycle with BindToLifecycle.
  */
 
 public class ImageUtils {
 
+    private static final Object sEngineLock = new Object();
+    private static Picasso sImageEngine;
+    private static ImageDiskCacheDownloader sImageDownloader;
+    private static final Map<Activity, Application.ActivityLifecycleCallbacks> sActivityBindings = new WeakHashMap<>();
+    private static final Map<Fragment, Context> sFragmentBindings = new WeakHashMap<>();
+
     /**
-     * Load image into ImageView using Picasso library
+     * Initialize the shared image engine. Must be called once, before any image is loaded.
      *
-     * @param context            Application context
-     * @param imageView          ImageView that contain the image
-     * @param imageType          {@link ImageType} type
-     * @param imageObj           image object of type {@link ImageType}
-     * @param transformationList list of transformations of type {@link com.squareup.picasso.Transformation}
+     * @param config engine configuration of type {@link ImageEngineConfig}
+     * @throws IllegalStateException if the engine was already initialized
      */
-    public static void LoadImage(Context context, ImageView imageView, ImageType imageType,
-                                 Object imageObj, List<Transformation> transformationList) {
-        RequestCreator requestCreator = null;
-        Picasso.Builder builder = new Picasso.Builder(context);
-        builder.listener(new Picasso.Listener() {
-            @Override
-            public void onImageLoadFailed(Picasso picasso, Uri uri, Exception exception) {
-                exception.printStackTrace();
+    public static void init(ImageEngineConfig config) {
+        synchronized (sEngineLock) {
+            if (sImageEngine != null) {
+                throw new IllegalStateException("Image engine already initialized");
+            }
+            sImageEngine = BuildImageEngine(config);
+        }
+    }
+
+    /**
+     * Get the shared image engine, creating it with default configuration if
+     * {@link #init(ImageEngineConfig)} was not called
+     *
+     * @param context Application context
+     * @return Shared {@link Picasso} instance
+     */
+    public static Picasso GetImageEngine(Context context) {
+        synchronized (sEngineLock) {
+            if (sImageEngine == null) {
+                sImageEngine = BuildImageEngine(new ImageEngineConfig.Builder(context).build());
             }
-        });
+            return sImageEngine;
+        }
+    }
+
+    /**
+     * Get a snapshot of shared engine statistics (memory cache hits, misses, size, decoded
+     * bitmaps, downloads)
+     *
+     * @param context Application context
+     * @return Engine statistics of type {@link StatsSnapshot}
+     */
+    public static StatsSnapshot GetImageEngineSnapshot(Context context) {
+        return GetImageEngine(context).getSnapshot();
+    }
+
+    /**
+     * Get the disk cache of a bucket of the shared engine, to read its hit, miss and eviction
+     * counters or clear it
+     *
+     * @param context Application context
+     * @param bucket  Bucket name registered in {@link ImageEngineConfig}
+     * @return Disk cache of the bucket, or null if the bucket is not registered
+     */
+    public static ImageDiskCache GetDiskCache(Context context, String bucket) {
+        return GetImageDownloader(context).getBucket(bucket);
+    }
+
+    /**
+     * Get every disk cache bucket of the shared engine
+     *
+     * @param context Application context
+     * @return Disk caches by bucket name
+     */
+    public static Map<String, ImageDiskCache> GetDiskCaches(Context context) {
+        return GetImageDownloader(context).getBuckets();
+    }
+
+    /**
+     * Get the ratio of network fetches served by a fetch of the same url already in flight.
+     * Identical requests (same source, size and transformations) are merged into one decode by
+     * the Picasso dispatcher before any fetch, they are not counted here.
+     *
+     * @param context Application context
+     * @return Coalesced fetches over requested fetches, 0 if nothing was fetched
+     */
+    public static float GetFetchCoalescingRatio(Context context) {
+        return GetImageDownloader(context).getFetchCoalescingRatio();
+    }
+
+    /**
+     * Get the downloader of the shared engine, read under the engine lock it is written with
+     *
+     * @param context Application context
+     * @return Shared {@link ImageDiskCacheDownloader}
+     */
+    private static ImageDiskCacheDownloader GetImageDownloader(Context context) {
+        synchronized (sEngineLock) {
+            GetImageEngine(context);
+            return sImageDownloader;
+        }
+    }
+
+    /**
+     * Build a {@link Picasso} instance from engine configuration
+     *
+     * @param config engine configuration
+     * @return new Picasso instance
+     */
+    private static Picasso BuildImageEngine(ImageEngineConfig config) {
+        Picasso.Builder builder = new Picasso.Builder(config.getContext());
+        builder.listener(config.getListener());
+
+        if (config.getMemoryCacheSize() > 0) {
+            builder.memoryCache(new LruCache(config.getMemoryCacheSize()));
+        }
+
+        if (config.getExecutorThreads() > 0) {
+            builder.executor(Executors.newFixedThreadPool(config.getExecutorThreads()));
+        }
+
+        Map<String, ImageDiskCache> buckets = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> bucket : config.getDiskCacheBuckets().entrySet()) {
+            buckets.put(bucket.getKey(), new ImageDiskCache(
+                    new File(config.getDiskCacheDirectory(), bucket.getKey()), bucket.getValue()));
+        }
+
+        // HTTP caching is replaced by the bucketed disk cache, so the client has no Cache
+        sImageDownloader = new ImageDiskCacheDownloader(new OkHttpClient(),
+                Collections.unmodifiableMap(buckets), config.getDefaultDiskCacheBucket(),
+                config.getDiskCacheBucketResolver(), config.getMetricsListener());
+        builder.downloader(sImageDownloader);
+
+        builder.addRequestHandler(new SampledImageRequestHandler(config.getContext()));
+
+        builder.indicatorsEnabled(config.isIndicatorsEnabled());
+        builder.loggingEnabled(config.isLoggingEnabled());
+
+        return builder.build();
+    }
+
+    /**
+     * Bound a request without target size (e.g. loaded into a {@link Target}) to the screen size,
+     * so local images are decoded with sampling instead of at full resolution
+     *
+     * @param context        Application context
+     * @param requestCreator Picasso request
+     */
+    private static void LimitToScreenSize(Context context, RequestCreator requestCreator) {
+        DisplayMetrics displayMetrics = context.getResources().getDisplayMetrics();
+        int maxSide = Math.max(displayMetrics.widthPixels, displayMetrics.heightPixels);
+
+        requestCreator
+                .resize(maxSide, maxSide)
+                .centerInside()
+                .onlyScaleDown();
+    }
+
+    /**
+     * Create a request on the shared engine for an image object of type {@link ImageType},
+     * grouped by context
+     *
+     * @param context   Application context
+     * @param imageType {@link ImageType} type
+     * @param imageObj  image object of type {@link ImageType}
+     * @return Picasso request, or null if the image object does not match the image type
+     */
+    private static RequestCreator CreateRequestCreator(Context context, ImageType imageType, Object imageObj) {
+        return CreateRequestCreator(context, imageType, imageObj, context);
+    }
+
+    /**
+     * Create a request on the shared engine for an image object of type {@link ImageType}.
+     * Picasso accepts a single tag per request, so it is only set here.
+     *
+     * @param context   Application context
+     * @param imageType {@link ImageType} type
+     * @param imageObj  image object of type {@link ImageType}
+     * @param tag       request group, to pause, resume or cancel it
+     * @return Picasso request, or null if the image object does not match the image type
+     */
+    private static RequestCreator CreateRequestCreator(Context context, ImageType imageType, Object imageObj, Object tag) {
+        Picasso picasso = GetImageEngine(context);
+        RequestCreator requestCreator = null;
 
         switch (imageType) {
             case RESOURCE:
                 if (imageObj instanceof Integer) {
-                    requestCreator = builder.build()
+                    requestCreator = picasso
                             .load((int) imageObj);
                 } else if (imageObj instanceof String) {
                     int resourceId = context.getResources()
                             .getIdentifier(String.valueOf(imageObj), "drawable",
                                     context.getPackageName());
-                    requestCreator = builder.build().load(resourceId);
+                    requestCreator = picasso.load(resourceId);
                 }
                 break;
             case URL:
-                requestCreator = builder.build()
+                requestCreator = picasso
                         .load(String.valueOf(imageObj));
                 break;
             case FILE:
-                requestCreator = builder.build()
+                requestCreator = picasso
                         .load((File) imageObj);
                 break;
             case ASSET:
-                requestCreator = builder.build()
+                requestCreator = picasso
                         .load("file:///android_asset/" + String.valueOf(imageObj));
                 break;
         }
 
+        if (requestCreator != null) {
+            requestCreator.tag(tag);
+        }
+
+        return requestCreator;
+    }
+
+    /**
+     * Load image into ImageView using Picasso library
+     *
+     * @param context            Application context
+     * @param imageView          ImageView that contain the image
+     * @param imageType          {@link ImageType} type
+     * @param imageObj           image object of type {@link ImageType}
+     * @param transformationList list of transformations of type {@link com.squareup.picasso.Transformation}
+     */
+    public static void LoadImage(Context context, ImageView imageView, ImageType imageType,
+                                 Object imageObj, List<Transformation> transformationList) {
+        RequestCreator requestCreator = CreateRequestCreator(context, imageType, imageObj);
+
         if (requestCreator != null) {
             requestCreator
                     .fit().centerCrop();
@@ -96,40 +296,7 @@ public class ImageUtils {
     public static void LoadImage(Context context, ImageView imageView, ImageType imageType,
                                  Object imageObj, @DrawableRes int placeholder, @DrawableRes int error,
                                  List<Transformation> transformationList) {
-        RequestCreator requestCreator = null;
-        Picasso.Builder builder = new Picasso.Builder(context);
-        builder.listener(new Picasso.Listener() {
-            @Override
-            public void onImageLoadFailed(Picasso picasso, Uri uri, Exception exception) {
-                exception.printStackTrace();
-            }
-        });
-
-        switch (imageType) {
-            case RESOURCE:
-                if (imageObj instanceof Integer) {
-                    requestCreator = builder.build()
-                            .load((int) imageObj);
-                } else if (imageObj instanceof String) {
-                    int resourceId = context.getResources()
-                            .getIdentifier(String.valueOf(imageObj), "drawable",
-                                    context.getPackageName());
-                    requestCreator = builder.build().load(resourceId);
-                }
-                break;
-            case URL:
-                requestCreator = builder.build()
-                        .load(String.valueOf(imageObj));
-                break;
-            case FILE:
-                requestCreator = builder.build()
-                        .load((File) imageObj);
-                break;
-            case ASSET:
-                requestCreator = builder.build()
-                        .load("file:///android_asset/" + String.valueOf(imageObj));
-                break;
-        }
+        RequestCreator requestCreator = CreateRequestCreator(context, imageType, imageObj);
 
         if (requestCreator != null) {
             requestCreator
@@ -159,40 +326,7 @@ public class ImageUtils {
     public static void LoadImage(Context context, ImageView imageView, ImageType imageType,
                                  Object imageObj, Drawable placeholder, Drawable error,
                                  List<Transformation> transformationList) {
-        RequestCreator requestCreator = null;
-        Picasso.Builder builder = new Picasso.Builder(context);
-        builder.listener(new Picasso.Listener() {
-            @Override
-            public void onImageLoadFailed(Picasso picasso, Uri uri, Exception exception) {
-                exception.printStackTrace();
-            }
-        });
-
-        switch (imageType) {
-            case RESOURCE:
-                if (imageObj instanceof Integer) {
-                    requestCreator = builder.build()
-                            .load((int) imageObj);
-                } else if (imageObj instanceof String) {
-                    int resourceId = context.getResources()
-                            .getIdentifier(String.valueOf(imageObj), "drawable",
-                                    context.getPackageName());
-                    requestCreator = builder.build().load(resourceId);
-                }
-                break;
-            case URL:
-                requestCreator = builder.build()
-                        .load(String.valueOf(imageObj));
-                break;
-            case FILE:
-                requestCreator = builder.build()
-                        .load((File) imageObj);
-                break;
-            case ASSET:
-                requestCreator = builder.build()
-                        .load("file:///android_asset/" + String.valueOf(imageObj));
-                break;
-        }
+        RequestCreator requestCreator = CreateRequestCreator(context, imageType, imageObj);
 
         if (requestCreator != null) {
             requestCreator
@@ -221,40 +355,7 @@ public class ImageUtils {
     public static void LoadImage(Context context, ImageView imageView, ImageType imageType,
                                  ImageView.ScaleType scaleType, Object imageObj,
                                  List<Transformation> transformationList) {
-        RequestCreator requestCreator = null;
-        Picasso.Builder builder = new Picasso.Builder(context);
-        builder.listener(new Picasso.Listener() {
-            @Override
-            public void onImageLoadFailed(Picasso picasso, Uri uri, Exception exception) {
-                exception.printStackTrace();
-            }
-        });
-
-        switch (imageType) {
-            case RESOURCE:
-                if (imageObj instanceof Integer) {
-                    requestCreator = builder.build()
-                            .load((int) imageObj);
-                } else if (imageObj instanceof String) {
-                    int resourceId = context.getResources()
-                            .getIdentifier(String.valueOf(imageObj), "drawable",
-                                    context.getPackageName());
-                    requestCreator = builder.build().load(resourceId);
-                }
-                break;
-            case URL:
-                requestCreator = builder.build()
-                        .load(String.valueOf(imageObj));
-                break;
-            case FILE:
-                requestCreator = builder.build()
-                        .load((File) imageObj);
-                break;
-            case ASSET:
-                requestCreator = builder.build()
-                        .load("file:///android_asset/" + String.valueOf(imageObj));
-                break;
-        }
+        RequestCreator requestCreator = CreateRequestCreator(context, imageType, imageObj);
 
         if (requestCreator != null) {
             requestCreator
@@ -290,40 +391,7 @@ public class ImageUtils {
                                  ImageView.ScaleType scaleType, Object imageObj,
                                  @DrawableRes int placeholder, @DrawableRes int error,
                                  List<Transformation> transformationList) {
-        RequestCreator requestCreator = null;
-        Picasso.Builder builder = new Picasso.Builder(context);
-        builder.listener(new Picasso.Listener() {
-            @Override
-            public void onImageLoadFailed(Picasso picasso, Uri uri, Exception exception) {
-                exception.printStackTrace();
-            }
-        });
-
-        switch (imageType) {
-            case RESOURCE:
-                if (imageObj instanceof Integer) {
-                    requestCreator = builder.build()
-                            .load((int) imageObj);
-                } else if (imageObj instanceof String) {
-                    int resourceId = context.getResources()
-                            .getIdentifier(String.valueOf(imageObj), "drawable",
-                                    context.getPackageName());
-                    requestCreator = builder.build().load(resourceId);
-                }
-                break;
-            case URL:
-                requestCreator = builder.build()
-                        .load(String.valueOf(imageObj));
-                break;
-            case FILE:
-                requestCreator = builder.build()
-                        .load((File) imageObj);
-                break;
-            case ASSET:
-                requestCreator = builder.build()
-                        .load("file:///android_asset/" + String.valueOf(imageObj));
-                break;
-        }
+        RequestCreator requestCreator = CreateRequestCreator(context, imageType, imageObj);
 
         if (requestCreator != null) {
             requestCreator
@@ -361,40 +429,7 @@ public class ImageUtils {
                                  ImageView.ScaleType scaleType, Object imageObj,
                                  Drawable placeholder, Drawable error,
                                  List<Transformation> transformationList) {
-        RequestCreator requestCreator = null;
-        Picasso.Builder builder = new Picasso.Builder(context);
-        builder.listener(new Picasso.Listener() {
-            @Override
-            public void onImageLoadFailed(Picasso picasso, Uri uri, Exception exception) {
-                exception.printStackTrace();
-            }
-        });
-
-        switch (imageType) {
-            case RESOURCE:
-                if (imageObj instanceof Integer) {
-                    requestCreator = builder.build()
-                            .load((int) imageObj);
-                } else if (imageObj instanceof String) {
-                    int resourceId = context.getResources()
-                            .getIdentifier(String.valueOf(imageObj), "drawable",
-                                    context.getPackageName());
-                    requestCreator = builder.build().load(resourceId);
-                }
-                break;
-            case URL:
-                requestCreator = builder.build()
-                        .load(String.valueOf(imageObj));
-                break;
-            case FILE:
-                requestCreator = builder.build()
-                        .load((File) imageObj);
-                break;
-            case ASSET:
-                requestCreator = builder.build()
-                        .load("file:///android_asset/" + String.valueOf(imageObj));
-                break;
-        }
+        RequestCreator requestCreator = CreateRequestCreator(context, imageType, imageObj);
 
         if (requestCreator != null) {
             requestCreator
@@ -430,40 +465,7 @@ public class ImageUtils {
     public static void LoadImage(Context context, ImageView imageView, ImageType imageType,
                                  ImageView.ScaleType scaleType, Object imageObj,
                                  List<Transformation> transformationList, Callback callback) {
-        RequestCreator requestCreator = null;
-        Picasso.Builder builder = new Picasso.Builder(context);
-        builder.listener(new Picasso.Listener() {
-            @Override
-            public void onImageLoadFailed(Picasso picasso, Uri uri, Exception exception) {
-                exception.printStackTrace();
-            }
-        });
-
-        switch (imageType) {
-            case RESOURCE:
-                if (imageObj instanceof Integer) {
-                    requestCreator = builder.build()
-                            .load((int) imageObj);
-                } else if (imageObj instanceof String) {
-                    int resourceId = context.getResources()
-                            .getIdentifier(String.valueOf(imageObj), "drawable",
-                                    context.getPackageName());
-                    requestCreator = builder.build().load(resourceId);
-                }
-                break;
-            case URL:
-                requestCreator = builder.build()
-                        .load(String.valueOf(imageObj));
-                break;
-            case FILE:
-                requestCreator = builder.build()
-                        .load((File) imageObj);
-                break;
-            case ASSET:
-                requestCreator = builder.build()
-                        .load("file:///android_asset/" + String.valueOf(imageObj));
-                break;
-        }
+        RequestCreator requestCreator = CreateRequestCreator(context, imageType, imageObj);
 
         if (requestCreator != null) {
             requestCreator
@@ -504,40 +506,7 @@ public class ImageUtils {
                                  ImageView.ScaleType scaleType, Object imageObj,
                                  @DrawableRes int placeholder, @DrawableRes int error,
                                  List<Transformation> transformationList, Callback callback) {
-        RequestCreator requestCreator = null;
-        Picasso.Builder builder = new Picasso.Builder(context);
-        builder.listener(new Picasso.Listener() {
-            @Override
-            public void onImageLoadFailed(Picasso picasso, Uri uri, Exception exception) {
-                exception.printStackTrace();
-            }
-        });
-
-        switch (imageType) {
-            case RESOURCE:
-                if (imageObj instanceof Integer) {
-                    requestCreator = builder.build()
-                            .load((int) imageObj);
-                } else if (imageObj instanceof String) {
-                    int resourceId = context.getResources()
-                            .getIdentifier(String.valueOf(imageObj), "drawable",
-                                    context.getPackageName());
-                    requestCreator = builder.build().load(resourceId);
-                }
-                break;
-            case URL:
-                requestCreator = builder.build()
-                        .load(String.valueOf(imageObj));
-                break;
-            case FILE:
-                requestCreator = builder.build()
-                        .load((File) imageObj);
-                break;
-            case ASSET:
-                requestCreator = builder.build()
-                        .load("file:///android_asset/" + String.valueOf(imageObj));
-                break;
-        }
+        RequestCreator requestCreator = CreateRequestCreator(context, imageType, imageObj);
 
         if (requestCreator != null) {
             requestCreator
@@ -580,40 +549,7 @@ public class ImageUtils {
                                  ImageView.ScaleType scaleType, Object imageObj,
                                  Drawable placeholder, Drawable error,
                                  List<Transformation> transformationList, Callback callback) {
-        RequestCreator requestCreator = null;
-        Picasso.Builder builder = new Picasso.Builder(context);
-        builder.listener(new Picasso.Listener() {
-            @Override
-            public void onImageLoadFailed(Picasso picasso, Uri uri, Exception exception) {
-                exception.printStackTrace();
-            }
-        });
-
-        switch (imageType) {
-            case RESOURCE:
-                if (imageObj instanceof Integer) {
-                    requestCreator = builder.build()
-                            .load((int) imageObj);
-                } else if (imageObj instanceof String) {
-                    int resourceId = context.getResources()
-                            .getIdentifier(String.valueOf(imageObj), "drawable",
-                                    context.getPackageName());
-                    requestCreator = builder.build().load(resourceId);
-                }
-                break;
-            case URL:
-                requestCreator = builder.build()
-                        .load(String.valueOf(imageObj));
-                break;
-            case FILE:
-                requestCreator = builder.build()
-                        .load((File) imageObj);
-                break;
-            case ASSET:
-                requestCreator = builder.build()
-                        .load("file:///android_asset/" + String.valueOf(imageObj));
-                break;
-        }
+        RequestCreator requestCreator = CreateRequestCreator(context, imageType, imageObj);
 
         if (requestCreator != null) {
             requestCreator
@@ -652,40 +588,7 @@ public class ImageUtils {
     public static void LoadImage(Context context, ImageView imageView, ImageType imageType,
                                  Object imageObj, List<Transformation> transformationList,
                                  Callback callback) {
-        RequestCreator requestCreator = null;
-        Picasso.Builder builder = new Picasso.Builder(context);
-        builder.listener(new Picasso.Listener() {
-            @Override
-            public void onImageLoadFailed(Picasso picasso, Uri uri, Exception exception) {
-                exception.printStackTrace();
-            }
-        });
-
-        switch (imageType) {
-            case RESOURCE:
-                if (imageObj instanceof Integer) {
-                    requestCreator = builder.build()
-                            .load((int) imageObj);
-                } else if (imageObj instanceof String) {
-                    int resourceId = context.getResources()
-                            .getIdentifier(String.valueOf(imageObj), "drawable",
-                                    context.getPackageName());
-                    requestCreator = builder.build().load(resourceId);
-                }
-                break;
-            case URL:
-                requestCreator = builder.build()
-                        .load(String.valueOf(imageObj));
-                break;
-            case FILE:
-                requestCreator = builder.build()
-                        .load((File) imageObj);
-                break;
-            case ASSET:
-                requestCreator = builder.build()
-                        .load("file:///android_asset/" + String.valueOf(imageObj));
-                break;
-        }
+        RequestCreator requestCreator = CreateRequestCreator(context, imageType, imageObj);
 
         if (requestCreator != null) {
             requestCreator
@@ -719,40 +622,7 @@ public class ImageUtils {
                                  Object imageObj, @DrawableRes int placeholder, @DrawableRes int error,
                                  List<Transformation> transformationList,
                                  Callback callback) {
-        RequestCreator requestCreator = null;
-        Picasso.Builder builder = new Picasso.Builder(context);
-        builder.listener(new Picasso.Listener() {
-            @Override
-            public void onImageLoadFailed(Picasso picasso, Uri uri, Exception exception) {
-                exception.printStackTrace();
-            }
-        });
-
-        switch (imageType) {
-            case RESOURCE:
-                if (imageObj instanceof Integer) {
-                    requestCreator = builder.build()
-                            .load((int) imageObj);
-                } else if (imageObj instanceof String) {
-                    int resourceId = context.getResources()
-                            .getIdentifier(String.valueOf(imageObj), "drawable",
-                                    context.getPackageName());
-                    requestCreator = builder.build().load(resourceId);
-                }
-                break;
-            case URL:
-                requestCreator = builder.build()
-                        .load(String.valueOf(imageObj));
-                break;
-            case FILE:
-                requestCreator = builder.build()
-                        .load((File) imageObj);
-                break;
-            case ASSET:
-                requestCreator = builder.build()
-                        .load("file:///android_asset/" + String.valueOf(imageObj));
-                break;
-        }
+        RequestCreator requestCreator = CreateRequestCreator(context, imageType, imageObj);
 
         if (requestCreator != null) {
             requestCreator
@@ -788,40 +658,7 @@ public class ImageUtils {
                                  Object imageObj, Drawable placeholder, Drawable error,
                                  List<Transformation> transformationList,
                                  Callback callback) {
-        RequestCreator requestCreator = null;
-        Picasso.Builder builder = new Picasso.Builder(context);
-        builder.listener(new Picasso.Listener() {
-            @Override
-            public void onImageLoadFailed(Picasso picasso, Uri uri, Exception exception) {
-                exception.printStackTrace();
-            }
-        });
-
-        switch (imageType) {
-            case RESOURCE:
-                if (imageObj instanceof Integer) {
-                    requestCreator = builder.build()
-                            .load((int) imageObj);
-                } else if (imageObj instanceof String) {
-                    int resourceId = context.getResources()
-                            .getIdentifier(String.valueOf(imageObj), "drawable",
-                                    context.getPackageName());
-                    requestCreator = builder.build().load(resourceId);
-                }
-                break;
-            case URL:
-                requestCreator = builder.build()
-                        .load(String.valueOf(imageObj));
-                break;
-            case FILE:
-                requestCreator = builder.build()
-                        .load((File) imageObj);
-                break;
-            case ASSET:
-                requestCreator = builder.build()
-                        .load("file:///android_asset/" + String.valueOf(imageObj));
-                break;
-        }
+        RequestCreator requestCreator = CreateRequestCreator(context, imageType, imageObj);
 
         if (requestCreator != null) {
             requestCreator
@@ -852,42 +689,13 @@ public class ImageUtils {
      */
     public static void LoadImage(Context context, Target target, ImageType imageType,
                                  Object imageObj, List<Transformation> transformationList) {
-        RequestCreator requestCreator = null;
-        Picasso.Builder builder = new Picasso.Builder(context);
-        builder.listener(new Picasso.Listener() {
-            @Override
-            public void onImageLoadFailed(Picasso picasso, Uri uri, Exception exception) {
-                exception.printStackTrace();
-            }
-        });
-
-        switch (imageType) {
-            case RESOURCE:
-                if (imageObj instanceof Integer) {
-                    requestCreator = builder.build()
-                            .load((int) imageObj);
-                } else if (imageObj instanceof String) {
-                    int resourceId = context.getResources()
-                            .getIdentifier(String.valueOf(imageObj), "drawable",
-                                    context.getPackageName());
-                    requestCreator = builder.build().load(resourceId);
-                }
-                break;
-            case URL:
-                requestCreator = builder.build()
-                        .load(String.valueOf(imageObj));
-                break;
-            case FILE:
-                requestCreator = builder.build()
-                        .load((File) imageObj);
-                break;
-            case ASSET:
-                requestCreator = builder.build()
-                        .load("file:///android_asset/" + String.valueOf(imageObj));
-                break;
-        }
+        RequestCreator requestCreator = CreateRequestCreator(context, imageType, imageObj);
 
         if (requestCreator != null) {
+            if (imageType == ImageType.FILE || imageType == ImageType.ASSET) {
+                LimitToScreenSize(context, requestCreator);
+            }
+
             if (transformationList != null) {
                 requestCreator.transform(transformationList);
             }
@@ -909,42 +717,13 @@ public class ImageUtils {
     public static void LoadImage(Context context, Target target, ImageType imageType,
                                  Object imageObj, List<Transformation> transformationList,
                                  Callback callback) {
-        RequestCreator requestCreator = null;
-        Picasso.Builder builder = new Picasso.Builder(context);
-        builder.listener(new Picasso.Listener() {
-            @Override
-            public void onImageLoadFailed(Picasso picasso, Uri uri, Exception exception) {
-                exception.printStackTrace();
-            }
-        });
-
-        switch (imageType) {
-            case RESOURCE:
-                if (imageObj instanceof Integer) {
-                    requestCreator = builder.build()
-                            .load((int) imageObj);
-                } else if (imageObj instanceof String) {
-                    int resourceId = context.getResources()
-                            .getIdentifier(String.valueOf(imageObj), "drawable",
-                                    context.getPackageName());
-                    requestCreator = builder.build().load(resourceId);
-                }
-                break;
-            case URL:
-                requestCreator = builder.build()
-                        .load(String.valueOf(imageObj));
-                break;
-            case FILE:
-                requestCreator = builder.build()
-                        .load((File) imageObj);
-                break;
-            case ASSET:
-                requestCreator = builder.build()
-                        .load("file:///android_asset/" + String.valueOf(imageObj));
-                break;
-        }
+        RequestCreator requestCreator = CreateRequestCreator(context, imageType, imageObj);
 
         if (requestCreator != null) {
+            if (imageType == ImageType.FILE || imageType == ImageType.ASSET) {
+                LimitToScreenSize(context, requestCreator);
+            }
+
             if (transformationList != null) {
                 requestCreator.transform(transformationList);
             }
@@ -956,4 +735,240 @@ public class ImageUtils {
             requestCreator.into(target);
         }
     }
+
+    /**
+     * Warm the shared memory cache with a batch of images decoded at target size, at low priority
+     * <p>
+     * Images are center cropped, matching later {@link #LoadImage(Context, ImageView, ImageType,
+     * Object, List)} calls into ImageViews of targetWidth x targetHeight pixels.
+     *
+     * @param context      Application context
+     * @param imageSources images to prefetch of type {@link ImageSource}
+     * @param targetWidth  target width in pixels
+     * @param targetHeight target height in pixels
+     * @param tag          tag to cancel the batch with {@link #CancelPrefetch(Context, Object)},
+     *                     null to group the batch with the context
+     */
+    public static void Prefetch(Context context, List<ImageSource> imageSources, int targetWidth,
+                                int targetHeight, Object tag) {
+        Prefetch(context, imageSources, targetWidth, targetHeight, ImageView.ScaleType.CENTER_CROP,
+                null, tag);
+    }
+
+    /**
+     * Warm the shared memory cache with a batch of images decoded at target size, at low priority
+     * <p>
+     * Scale type and transformations are part of the memory cache key, so they must match the
+     * ones of the later LoadImage call for the prefetched bitmap to be reused.
+     *
+     * @param context            Application context
+     * @param imageSources       images to prefetch of type {@link ImageSource}
+     * @param targetWidth        target width in pixels
+     * @param targetHeight       target height in pixels
+     * @param scaleType          image scale of type {@link ImageView.ScaleType}
+     * @param transformationList list of transformations of type {@link com.squareup.picasso.Transformation}
+     * @param tag                tag to cancel the batch with {@link #CancelPrefetch(Context, Object)},
+     *                           null to group the batch with the context
+     */
+    public static void Prefetch(Context context, List<ImageSource> imageSources, int targetWidth,
+                                int targetHeight, ImageView.ScaleType scaleType,
+                                List<Transformation> transformationList, Object tag) {
+        for (ImageSource imageSource : imageSources) {
+            RequestCreator requestCreator = CreateRequestCreator(context,
+                    imageSource.getImageType(), imageSource.getImageObj(), tag != null ? tag : context);
+
+            if (requestCreator != null) {
+                requestCreator
+                        .resize(targetWidth, targetHeight)
+                        .priority(Picasso.Priority.LOW);
+
+                if (scaleType == ImageView.ScaleType.CENTER_CROP) {
+                    requestCreator.centerCrop();
+                } else if (scaleType == ImageView.ScaleType.CENTER_INSIDE) {
+                    requestCreator.centerInside();
+                }
+
+                if (transformationList != null) {
+                    requestCreator.transform(transformationList);
+                }
+
+                requestCreator.fetch();
+            }
+        }
+    }
+
+    /**
+     * Cancel every pending prefetch of a tag
+     *
+     * @param context Application context
+     * @param tag     tag given to {@link #Prefetch(Context, List, int, int, Object)}
+     */
+    public static void CancelPrefetch(Context context, Object tag) {
+        GetImageEngine(context).cancelTag(tag);
+    }
+
+    /**
+     * Pause every pending request of a request group (e.g. while a list is flinging)
+     *
+     * @param context Application context
+     * @param tag     Context given to LoadImage, or tag given to Prefetch
+     */
+    public static void PauseRequests(Context context, Object tag) {
+        GetImageEngine(context).pauseTag(tag);
+    }
+
+    /**
+     * Resume the paused requests of a request group
+     *
+     * @param context Application context
+     * @param tag     Context given to LoadImage, or tag given to Prefetch
+     */
+    public static void ResumeRequests(Context context, Object tag) {
+        GetImageEngine(context).resumeTag(tag);
+    }
+
+    /**
+     * Cancel every pending request of a request group
+     *
+     * @param context Application context
+     * @param tag     Context given to LoadImage, or tag given to Prefetch
+     */
+    public static void CancelRequests(Context context, Object tag) {
+        GetImageEngine(context).cancelTag(tag);
+    }
+
+    /**
+     * Bind the requests loaded with an Activity as context to its lifecycle: they are paused
+     * when the Activity stops, resumed when it starts and cancelled when it is destroyed.
+     * Binding an Activity already bound does nothing, so it can be called from every place that
+     * loads images (e.g. adapter binds).
+     *
+     * @param activity Activity given as context to LoadImage
+     */
+    public static void BindToLifecycle(Activity activity) {
+        final Application application = activity.getApplication();
+        synchronized (sActivityBindings) {
+            if (sActivityBindings.containsKey(activity)) {
+                return;
+            }
+
+            // Callbacks find their Activity through the registry, a reference to it from the
+            // value would keep the weak key alive
+            Application.ActivityLifecycleCallbacks callbacks = new Application.ActivityLifecycleCallbacks() {
+                @Override
+                public void onActivityCreated(Activity a, Bundle savedInstanceState) {
+
+                }
+
+                @Override
+                public void onActivityStarted(Activity a) {
+                    if (IsBound(a, this)) {
+                        ResumeRequests(a, a);
+                    }
+                }
+
+                @Override
+                public void onActivityResumed(Activity a) {
+
+                }
+
+                @Override
+                public void onActivityPaused(Activity a) {
+
+                }
+
+                @Override
+                public void onActivityStopped(Activity a) {
+                    if (IsBound(a, this)) {
+                        PauseRequests(a, a);
+                    }
+                }
+
+                @Override
+                public void onActivitySaveInstanceState(Activity a, Bundle outState) {
+
+                }
+
+                @Override
+                public void onActivityDestroyed(Activity a) {
+                    if (IsBound(a, this)) {
+                        synchronized (sActivityBindings) {
+                            sActivityBindings.remove(a);
+                        }
+                        CancelRequests(a, a);
+                        application.unregisterActivityLifecycleCallbacks(this);
+                    }
+                }
+            };
+            sActivityBindings.put(activity, callbacks);
+            application.registerActivityLifecycleCallbacks(callbacks);
+        }
+    }
+
+    private static boolean IsBound(Activity activity, Application.ActivityLifecycleCallbacks callbacks) {
+        synchronized (sActivityBindings) {
+            return sActivityBindings.get(activity) == callbacks;
+        }
+    }
+
+    /**
+     * Bind requests to a Fragment lifecycle. Pass the returned context to LoadImage (any
+     * overload): its requests are paused when the Fragment stops, resumed when it starts and
+     * cancelled when its view is destroyed. Binding a Fragment already bound returns the same
+     * context.
+     *
+     * @param fragment Fragment attached to an Activity
+     * @return Context to give to LoadImage for requests of this Fragment
+     */
+    public static Context BindToLifecycle(final Fragment fragment) {
+        synchronized (sFragmentBindings) {
+            Context bound = sFragmentBindings.get(fragment);
+            if (bound != null) {
+                return bound;
+            }
+            return BindFragment(fragment);
+        }
+    }
+
+    private static Context BindFragment(final Fragment fragment) {
+        final Context requestContext = new ContextWrapper(fragment.getContext());
+        final FragmentManager fragmentManager = fragment.getFragmentManager();
+
+        fragmentManager.registerFragmentLifecycleCallbacks(new FragmentManager.FragmentLifecycleCallbacks() {
+            @Override
+            public void onFragmentStarted(FragmentManager fm, Fragment f) {
+                if (f == fragment) {
+                    ResumeRequests(requestContext, requestContext);
+                }
+            }
+
+            @Override
+            public void onFragmentStopped(FragmentManager fm, Fragment f) {
+                if (f == fragment) {
+                    PauseRequests(requestContext, requestContext);
+                }
+            }
+
+            @Override
+            public void onFragmentViewDestroyed(FragmentManager fm, Fragment f) {
+                if (f == fragment) {
+                    CancelRequests(requestContext, requestContext);
+                }
+            }
+
+            @Override
+            public void onFragmentDestroyed(FragmentManager fm, Fragment f) {
+                if (f == fragment) {
+                    synchronized (sFragmentBindings) {
+                        sFragmentBindings.remove(fragment);
+                    }
+                    CancelRequests(requestContext, requestContext);
+                    fragmentManager.unregisterFragmentLifecycleCallbacks(this);
+                }
+            }
+        }, false);
+
+        sFragmentBindings.put(fragment, requestContext);
+        return requestContext;
+    }
 }
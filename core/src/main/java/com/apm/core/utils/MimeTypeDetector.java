@@ -0,0 +1,338 @@
+package com.apm.core.utils;
+
+import android.webkit.MimeTypeMap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Detect the mime type of files from their content, so extensionless files (e.g. camera temp
+ * files) and misnamed ones get the right type.
+ * <p>
+ * Magic numbers are compiled once into a byte trie (wildcards for don't care bytes), so a file is
+ * matched in a single pass over its first bytes, whatever the number of signatures; a single
+ * read of at most 512 bytes is done through a channel. The longest matching
+ * signature wins. Generic containers (ZIP, OLE, XML, MP4, Matroska, text) are refined by the
+ * extension (e.g. ZIP to APK or DOCX), and the extension alone is used when no signature
+ * matches. Results of files are kept in a bounded LRU cache keyed by path, and reused while file
+ * size and modification time do not change.
+ */
+public class MimeTypeDetector {
+
+    // CONSTANTS
+    public static final int MAX_CACHE_ENTRIES = 1024;
+    public static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+    private static final String TEXT_MIME_TYPE = "text/plain";
+    private static final int TEXT_SNIFF_SIZE = 512;
+
+    private static final TrieNode sRoot = new TrieNode(0);
+    private static final Set<String> sGenericTypes = new HashSet<>();
+    private static int sMaxDepth;
+
+    private static final Map<String, CachedType> sCache = new LinkedHashMap<String, CachedType>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedType> eldest) {
+            return size() > MAX_CACHE_ENTRIES;
+        }
+    };
+
+    static {
+        // Images
+        Add("image/jpeg", "FF D8 FF");
+        Add("image/png", "89 'PNG' 0D 0A 1A 0A");
+        Add("image/gif", "'GIF87a'");
+        Add("image/gif", "'GIF89a'");
+        Add("image/webp", "'RIFF' ?? ?? ?? ?? 'WEBP'");
+        Add("image/bmp", "'BM'");
+        Add("image/tiff", "'II' 2A 00");
+        Add("image/tiff", "'MM' 00 2A");
+        Add("image/x-icon", "00 00 01 00");
+        Add("image/heic", "?? ?? ?? ?? 'ftypheic'");
+        Add("image/heic", "?? ?? ?? ?? 'ftypheix'");
+        Add("image/heif", "?? ?? ?? ?? 'ftypmif1'");
+        Add("image/heif", "?? ?? ?? ?? 'ftypmsf1'");
+
+        // Audio and video
+        Add("video/mp4", "?? ?? ?? ?? 'ftyp'");
+        Add("video/3gpp", "?? ?? ?? ?? 'ftyp3gp'");
+        Add("audio/mp4", "?? ?? ?? ?? 'ftypM4A' 20");
+        Add("video/quicktime", "?? ?? ?? ?? 'ftypqt' 20 20");
+        Add("video/webm", "1A 45 DF A3");
+        Add("video/x-msvideo", "'RIFF' ?? ?? ?? ?? 'AVI' 20");
+        Add("audio/wav", "'RIFF' ?? ?? ?? ?? 'WAVE'");
+        Add("audio/mpeg", "'ID3'");
+        Add("audio/mpeg", "FF FB");
+        Add("audio/mpeg", "FF F3");
+        Add("audio/mpeg", "FF F2");
+        Add("audio/ogg", "'OggS'");
+        Add("audio/flac", "'fLaC'");
+        Add("audio/amr", "'#!AMR'");
+        Add("audio/midi", "'MThd'");
+
+        // Documents and archives
+        Add("application/pdf", "'%PDF-'");
+        Add("application/zip", "'PK' 03 04");
+        Add("application/zip", "'PK' 05 06");
+        Add("application/x-ole-storage", "D0 CF 11 E0 A1 B1 1A E1");
+        Add("application/gzip", "1F 8B");
+        Add("application/x-7z-compressed", "'7z' BC AF 27 1C");
+        Add("application/x-rar-compressed", "'Rar!' 1A 07");
+        Add("application/x-tar", Repeat("??", 257) + " 'ustar'");
+        Add("application/x-sqlite3", "'SQLite' 20 'format' 20 '3' 00");
+        Add("text/xml", "'<?xml'");
+        Add("text/plain", "EF BB BF");
+
+        // Fonts
+        Add("font/woff", "'wOFF'");
+        Add("font/woff2", "'wOF2'");
+        Add("font/otf", "'OTTO'");
+        Add("font/ttf", "00 01 00 00 00");
+
+        sGenericTypes.addAll(Arrays.asList("application/zip", "application/x-ole-storage", "text/xml",
+                "text/plain", "video/webm", "video/mp4"));
+    }
+
+    /**
+     * Detect the mime type of a file, from cache if the file did not change
+     *
+     * @param file Source file
+     * @return Mime type, {@link #DEFAULT_MIME_TYPE} if neither the content nor the extension are
+     * known
+     */
+    public static String Detect(File file) {
+        String key = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        synchronized (sCache) {
+            CachedType cached = sCache.get(key);
+            if (cached != null && cached.mLastModified == lastModified && cached.mLength == length) {
+                return cached.mMimeType;
+            }
+        }
+
+        byte[] prefix = null;
+        int read = 0;
+        FileInputStream stream = null;
+        try {
+            stream = new FileInputStream(file);
+            FileChannel channel = stream.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(Math.max(sMaxDepth, TEXT_SNIFF_SIZE), length));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) <= 0) {
+                    break;
+                }
+            }
+            prefix = buffer.array();
+            read = buffer.position();
+        } catch (IOException e) {
+            // Unreadable file, the extension may still tell
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        String mimeType = Detect(prefix, read, file.getName());
+        synchronized (sCache) {
+            sCache.put(key, new CachedType(lastModified, length, mimeType));
+        }
+        return mimeType;
+    }
+
+    /**
+     * Detect the mime type of a byte array
+     *
+     * @param bytes    Content, or at least its first bytes
+     * @param fileName File name for the extension fallback, may be null
+     * @return Mime type, {@link #DEFAULT_MIME_TYPE} if neither the content nor the extension are
+     * known
+     */
+    public static String Detect(byte[] bytes, String fileName) {
+        return Detect(bytes, bytes.length, fileName);
+    }
+
+    /**
+     * Forget every cached file type
+     */
+    public static void ClearCache() {
+        synchronized (sCache) {
+            sCache.clear();
+        }
+    }
+
+    private static String Detect(byte[] bytes, int length, String fileName) {
+        String sniffed = null;
+        if (bytes != null) {
+            TrieNode match = Match(sRoot, bytes, length, null);
+            sniffed = match != null ? match.mMimeType : null;
+            if (sniffed == null && LooksLikeText(bytes, length)) {
+                sniffed = TEXT_MIME_TYPE;
+            }
+        }
+
+        if (sniffed != null && !sGenericTypes.contains(sniffed)) {
+            return sniffed;
+        }
+
+        String fromExtension = GetMimeTypeFromExtension(fileName);
+        if (fromExtension != null) {
+            return fromExtension;
+        }
+        return sniffed != null ? sniffed : DEFAULT_MIME_TYPE;
+    }
+
+    /**
+     * @return Deepest signature node matching the bytes, or best if none is deeper
+     */
+    private static TrieNode Match(TrieNode node, byte[] bytes, int length, TrieNode best) {
+        if (node.mMimeType != null && (best == null || node.mDepth > best.mDepth)) {
+            best = node;
+        }
+        if (node.mDepth >= length) {
+            return best;
+        }
+
+        TrieNode exact = node.child(bytes[node.mDepth]);
+        if (exact != null) {
+            best = Match(exact, bytes, length, best);
+        }
+        if (node.mAnyChild != null) {
+            best = Match(node.mAnyChild, bytes, length, best);
+        }
+        return best;
+    }
+
+    /**
+     * @return true if the bytes decode as text: no NUL and almost no control characters
+     */
+    private static boolean LooksLikeText(byte[] bytes, int length) {
+        int checked = Math.min(length, TEXT_SNIFF_SIZE);
+        if (checked == 0) {
+            return false;
+        }
+
+        int control = 0;
+        for (int i = 0; i < checked; i++) {
+            int value = bytes[i] & 0xFF;
+            if (value == 0) {
+                return false;
+            }
+            if (value < 0x20 && value != '\n' && value != '\r' && value != '\t' && value != '\f') {
+                control++;
+            }
+        }
+        return control * 100 < checked;
+    }
+
+    private static String GetMimeTypeFromExtension(String fileName) {
+        if (fileName == null) {
+            return null;
+        }
+
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0 || dot == fileName.length() - 1) {
+            return null;
+        }
+        return MimeTypeMap.getSingleton().getMimeTypeFromExtension(fileName.substring(dot + 1).toLowerCase(Locale.US));
+    }
+
+    /**
+     * Compile a signature into the trie
+     *
+     * @param mimeType Mime type of the signature
+     * @param pattern  Space separated tokens: hex byte, ?? for any byte, 'text' for ASCII bytes
+     */
+    private static void Add(String mimeType, String pattern) {
+        TrieNode node = sRoot;
+        for (String token : pattern.split(" ")) {
+            if (token.equals("??")) {
+                node = node.anyChild();
+            } else if (token.startsWith("'")) {
+                for (int i = 1; i < token.length() - 1; i++) {
+                    node = node.child((byte) token.charAt(i), true);
+                }
+            } else {
+                node = node.child((byte) Integer.parseInt(token, 16), true);
+            }
+        }
+        node.mMimeType = mimeType;
+        sMaxDepth = Math.max(sMaxDepth, node.mDepth);
+    }
+
+    private static String Repeat(String token, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(i == 0 ? "" : " ").append(token);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Trie node of the bytes at one depth, children are few so they are kept in small arrays
+     */
+    private static class TrieNode {
+        private final int mDepth;
+        private byte[] mKeys = new byte[0];
+        private TrieNode[] mChildren = new TrieNode[0];
+        private TrieNode mAnyChild;
+        private String mMimeType;
+
+        private TrieNode(int depth) {
+            this.mDepth = depth;
+        }
+
+        private TrieNode child(byte key) {
+            for (int i = 0; i < mKeys.length; i++) {
+                if (mKeys[i] == key) {
+                    return mChildren[i];
+                }
+            }
+            return null;
+        }
+
+        private TrieNode child(byte key, boolean create) {
+            TrieNode child = child(key);
+            if (child == null && create) {
+                child = new TrieNode(mDepth + 1);
+                mKeys = Arrays.copyOf(mKeys, mKeys.length + 1);
+                mChildren = Arrays.copyOf(mChildren, mChildren.length + 1);
+                mKeys[mKeys.length - 1] = key;
+                mChildren[mChildren.length - 1] = child;
+            }
+            return child;
+        }
+
+        private TrieNode anyChild() {
+            if (mAnyChild == null) {
+                mAnyChild = new TrieNode(mDepth + 1);
+            }
+            return mAnyChild;
+        }
+    }
+
+    private static class CachedType {
+        private final long mLastModified;
+        private final long mLength;
+        private final String mMimeType;
+
+        private CachedType(long lastModified, long length, String mimeType) {
+            this.mLastModified = lastModified;
+            this.mLength = length;
+            this.mMimeType = mimeType;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.apm.core.utils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pixel transforms on ARGB int arrays (as given by Bitmap.getPixels), in pure Java so they run
+ * on the JVM too. Images of at least {@link #PARALLEL_THRESHOLD} pixels are processed in row
+ * stripes across cores, the calling thread processing the last stripe.
+ * <p>
+ * Every transform writes into a destination array (allocated when null, reused otherwise) and
+ * returns it. Source and destination must be different arrays, except for
+ * {@link #Grayscale(int[], int, int, int[])}, which can work in place.
+ */
+public class PixelOps {
+
+    // CONSTANTS
+    public static final int PARALLEL_THRESHOLD = 256 * 256;
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    private static ExecutorService sExecutor;
+    // Stripes of parallel transforms, settable so tests cover the multi-stripe path on any host
+    static int sStripeCount = CORES;
+
+    /**
+     * Work on a range of destination rows
+     */
+    private interface RowTask {
+        void run(int startRow, int endRow);
+    }
+
+    /**
+     * Rotate clockwise by a right angle
+     *
+     * @param src     Source pixels
+     * @param width   Source width
+     * @param height  Source height
+     * @param degrees 0, 90, 180 or 270 (negative and bigger angles are normalized)
+     * @param dst     Destination pixels of width * height, null to allocate them. Rotated width
+     *                and height are swapped for 90 and 270.
+     * @return Destination pixels
+     */
+    public static int[] Rotate(final int[] src, final int width, final int height, int degrees, int[] dst) {
+        final int[] out = Destination(dst, width * height);
+        int normalized = ((degrees % 360) + 360) % 360;
+
+        switch (normalized) {
+            case 0:
+                System.arraycopy(src, 0, out, 0, width * height);
+                break;
+            case 90:
+                // Destination is height wide: dst(x, y) = src(y, height - 1 - x)
+                RunInStripes(width, width * height, new RowTask() {
+                    @Override
+                    public void run(int startRow, int endRow) {
+                        for (int y = startRow; y < endRow; y++) {
+                            int dstRow = y * height;
+                            for (int x = 0; x < height; x++) {
+                                out[dstRow + x] = src[(height - 1 - x) * width + y];
+                            }
+                        }
+                    }
+                });
+                break;
+            case 180:
+                RunInStripes(height, width * height, new RowTask() {
+                    @Override
+                    public void run(int startRow, int endRow) {
+                        int last = width * height - 1;
+                        for (int y = startRow; y < endRow; y++) {
+                            int dstRow = y * width;
+                            for (int x = 0; x < width; x++) {
+                                out[dstRow + x] = src[last - dstRow - x];
+                            }
+                        }
+                    }
+                });
+                break;
+            case 270:
+                // Destination is height wide: dst(x, y) = src(width - 1 - y, x)
+                RunInStripes(width, width * height, new RowTask() {
+                    @Override
+                    public void run(int startRow, int endRow) {
+                        for (int y = startRow; y < endRow; y++) {
+                            int dstRow = y * height;
+                            int srcColumn = width - 1 - y;
+                            for (int x = 0; x < height; x++) {
+                                out[dstRow + x] = src[x * width + srcColumn];
+                            }
+                        }
+                    }
+                });
+                break;
+            default:
+                throw new IllegalArgumentException("Rotation must be a multiple of 90 degrees");
+        }
+        return out;
+    }
+
+    /**
+     * Mirror an image
+     *
+     * @param src        Source pixels
+     * @param width      Image width
+     * @param height     Image height
+     * @param horizontal true to mirror left to right, false to mirror top to bottom
+     * @param dst        Destination pixels of width * height, null to allocate them
+     * @return Destination pixels
+     */
+    public static int[] Flip(final int[] src, final int width, final int height, final boolean horizontal, int[] dst) {
+        final int[] out = Destination(dst, width * height);
+        RunInStripes(height, width * height, new RowTask() {
+            @Override
+            public void run(int startRow, int endRow) {
+                for (int y = startRow; y < endRow; y++) {
+                    int dstRow = y * width;
+                    if (horizontal) {
+                        for (int x = 0; x < width; x++) {
+                            out[dstRow + x] = src[dstRow + width - 1 - x];
+                        }
+                    } else {
+                        System.arraycopy(src, (height - 1 - y) * width, out, dstRow, width);
+                    }
+                }
+            }
+        });
+        return out;
+    }
+
+    /**
+     * Copy a rectangle of an image
+     *
+     * @param src        Source pixels
+     * @param width      Source width
+     * @param height     Source height
+     * @param left       Crop left, inside source
+     * @param top        Crop top, inside source
+     * @param cropWidth  Crop width, inside source
+     * @param cropHeight Crop height, inside source
+     * @param dst        Destination pixels of cropWidth * cropHeight, null to allocate them
+     * @return Destination pixels
+     */
+    public static int[] Crop(final int[] src, final int width, int height, final int left, final int top,
+                             final int cropWidth, int cropHeight, int[] dst) {
+        if (left < 0 || top < 0 || cropWidth <= 0 || cropHeight <= 0
+                || left + cropWidth > width || top + cropHeight > height) {
+            throw new IllegalArgumentException("Crop rectangle must be inside the image");
+        }
+
+        final int[] out = Destination(dst, cropWidth * cropHeight);
+        RunInStripes(cropHeight, cropWidth * cropHeight, new RowTask() {
+            @Override
+            public void run(int startRow, int endRow) {
+                for (int y = startRow; y < endRow; y++) {
+                    System.arraycopy(src, (top + y) * width + left, out, y * cropWidth, cropWidth);
+                }
+            }
+        });
+        return out;
+    }
+
+    /**
+     * Convert to grayscale with integer Rec. 601 luma weights, keeping alpha
+     *
+     * @param src    Source pixels
+     * @param width  Image width
+     * @param height Image height
+     * @param dst    Destination pixels of width * height, null to allocate them, may be src
+     * @return Destination pixels
+     */
+    public static int[] Grayscale(final int[] src, final int width, int height, int[] dst) {
+        final int[] out = Destination(dst, width * height);
+        RunInStripes(height, width * height, new RowTask() {
+            @Override
+            public void run(int startRow, int endRow) {
+                for (int i = startRow * width, end = endRow * width; i < end; i++) {
+                    int color = src[i];
+                    int luma = (((color >> 16) & 0xFF) * 77 + ((color >> 8) & 0xFF) * 150 + (color & 0xFF) * 29) >> 8;
+                    out[i] = (color & 0xFF000000) | (luma << 16) | (luma << 8) | luma;
+                }
+            }
+        });
+        return out;
+    }
+
+    /**
+     * Downscale averaging every source pixel covered by each destination pixel (box filter),
+     * the best quality for big reductions
+     *
+     * @param src       Source pixels
+     * @param width     Source width
+     * @param height    Source height
+     * @param dstWidth  Destination width, not bigger than width
+     * @param dstHeight Destination height, not bigger than height
+     * @param dst       Destination pixels of dstWidth * dstHeight, null to allocate them
+     * @return Destination pixels
+     */
+    public static int[] DownscaleBox(final int[] src, final int width, final int height,
+                                     final int dstWidth, final int dstHeight, int[] dst) {
+        CheckDownscale(width, height, dstWidth, dstHeight);
+
+        final int[] out = Destination(dst, dstWidth * dstHeight);
+        RunInStripes(dstHeight, width * height, new RowTask() {
+            @Override
+            public void run(int startRow, int endRow) {
+                for (int y = startRow; y < endRow; y++) {
+                    int srcTop = (int) ((long) y * height / dstHeight);
+                    int srcBottom = Math.max(srcTop + 1, (int) ((long) (y + 1) * height / dstHeight));
+
+                    for (int x = 0; x < dstWidth; x++) {
+                        int srcLeft = (int) ((long) x * width / dstWidth);
+                        int srcRight = Math.max(srcLeft + 1, (int) ((long) (x + 1) * width / dstWidth));
+
+                        long a = 0, r = 0, g = 0, b = 0;
+                        for (int sy = srcTop; sy < srcBottom; sy++) {
+                            int row = sy * width;
+                            for (int sx = srcLeft; sx < srcRight; sx++) {
+                                int color = src[row + sx];
+                                a += (color >>> 24);
+                                r += (color >> 16) & 0xFF;
+                                g += (color >> 8) & 0xFF;
+                                b += color & 0xFF;
+                            }
+                        }
+
+                        int count = (srcBottom - srcTop) * (srcRight - srcLeft);
+                        out[y * dstWidth + x] = (int) ((a / count) << 24 | (r / count) << 16 | (g / count) << 8 | (b / count));
+                    }
+                }
+            }
+        });
+        return out;
+    }
+
+    /**
+     * Downscale interpolating the four nearest source pixels (bilinear filter), faster than
+     * {@link #DownscaleBox(int[], int, int, int, int, int[])} but aliased below half size
+     *
+     * @param src       Source pixels
+     * @param width     Source width
+     * @param height    Source height
+     * @param dstWidth  Destination width, not bigger than width
+     * @param dstHeight Destination height, not bigger than height
+     * @param dst       Destination pixels of dstWidth * dstHeight, null to allocate them
+     * @return Destination pixels
+     */
+    public static int[] DownscaleBilinear(final int[] src, final int width, final int height,
+                                          final int dstWidth, final int dstHeight, int[] dst) {
+        CheckDownscale(width, height, dstWidth, dstHeight);
+
+        final int[] out = Destination(dst, dstWidth * dstHeight);
+        final float scaleX = (float) width / dstWidth;
+        final float scaleY = (float) height / dstHeight;
+        RunInStripes(dstHeight, dstWidth * dstHeight, new RowTask() {
+            @Override
+            public void run(int startRow, int endRow) {
+                for (int y = startRow; y < endRow; y++) {
+                    float srcY = Math.max(0f, (y + 0.5f) * scaleY - 0.5f);
+                    int y0 = Math.min((int) srcY, height - 1);
+                    int y1 = Math.min(y0 + 1, height - 1);
+                    int fy = (int) ((srcY - y0) * 256);
+
+                    for (int x = 0; x < dstWidth; x++) {
+                        float srcX = Math.max(0f, (x + 0.5f) * scaleX - 0.5f);
+                        int x0 = Math.min((int) srcX, width - 1);
+                        int x1 = Math.min(x0 + 1, width - 1);
+                        int fx = (int) ((srcX - x0) * 256);
+
+                        int top = Lerp(src[y0 * width + x0], src[y0 * width + x1], fx);
+                        int bottom = Lerp(src[y1 * width + x0], src[y1 * width + x1], fx);
+                        out[y * dstWidth + x] = Lerp(top, bottom, fy);
+                    }
+                }
+            }
+        });
+        return out;
+    }
+
+    /**
+     * Interpolate every channel of two colors
+     *
+     * @param weight 0 - 256 weight of the second color
+     */
+    private static int Lerp(int first, int second, int weight) {
+        int inverse = 256 - weight;
+        int a = ((first >>> 24) * inverse + (second >>> 24) * weight) >> 8;
+        int r = (((first >> 16) & 0xFF) * inverse + ((second >> 16) & 0xFF) * weight) >> 8;
+        int g = (((first >> 8) & 0xFF) * inverse + ((second >> 8) & 0xFF) * weight) >> 8;
+        int b = ((first & 0xFF) * inverse + (second & 0xFF) * weight) >> 8;
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    private static void CheckDownscale(int width, int height, int dstWidth, int dstHeight) {
+        if (dstWidth <= 0 || dstHeight <= 0 || dstWidth > width || dstHeight > height) {
+            throw new IllegalArgumentException("Destination size must be positive and not bigger than source");
+        }
+    }
+
+    private static int[] Destination(int[] dst, int length) {
+        if (dst == null) {
+            return new int[length];
+        }
+        if (dst.length < length) {
+            throw new IllegalArgumentException("Destination needs " + length + " pixels");
+        }
+        return dst;
+    }
+
+    /**
+     * Split destination rows in one stripe per core and wait for all of them. Stripes write into
+     * the caller destination, so this never returns while one of them still runs: an interrupt
+     * is only restored once every stripe ended, and the first stripe failure is rethrown on the
+     * calling thread instead of leaving a partially written destination.
+     *
+     * @param rows   Destination rows
+     * @param pixels Pixels touched, small images run on the calling thread only
+     * @param task   Work on a stripe
+     */
+    private static void RunInStripes(int rows, long pixels, final RowTask task) {
+        int stripes = pixels < PARALLEL_THRESHOLD ? 1 : Math.min(sStripeCount, rows);
+        if (stripes <= 1) {
+            task.run(0, rows);
+            return;
+        }
+
+        int stripeRows = (rows + stripes - 1) / stripes;
+        int stripeCount = (rows + stripeRows - 1) / stripeRows;
+        final CountDownLatch done = new CountDownLatch(stripeCount - 1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        ExecutorService executor = GetExecutor();
+        for (int i = 0; i < stripeCount - 1; i++) {
+            final int stripeStart = i * stripeRows;
+            final int stripeEnd = stripeStart + stripeRows;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run(stripeStart, stripeEnd);
+                    } catch (Throwable t) {
+                        // Rethrown by the caller, a pool thread would crash the process
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        try {
+            task.run((stripeCount - 1) * stripeRows, rows);
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                // Stripes are short and CPU bound, wait for them rather than return early
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        Throwable thrown = failure.get();
+        if (thrown instanceof RuntimeException) {
+            throw (RuntimeException) thrown;
+        } else if (thrown instanceof Error) {
+            throw (Error) thrown;
+        } else if (thrown != null) {
+            throw new RuntimeException(thrown);
+        }
+    }
+
+    private static synchronized ExecutorService GetExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newFixedThreadPool(Math.max(1, CORES - 1), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PixelOps");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+}
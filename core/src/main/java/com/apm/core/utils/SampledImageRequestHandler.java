@@ -0,0 +1,162 @@
+package com.apm.core.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.net.Uri;
+import android.support.media.ExifInterface;
+
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.Request;
+import com.squareup.picasso.RequestHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Picasso {@link RequestHandler} for {@link com.apm.core.enums.ImageType#FILE} and
+ * {@link com.apm.core.enums.ImageType#ASSET} requests that have a target size.
+ * <p>
+ * Bounds are read first, then the image is decoded with a power of two inSampleSize plus
+ * inDensity / inTargetDensity scaling, so the decoder allocates a bitmap of the target size
+ * instead of the full resolution one (a 12 MP photo shown in a thumbnail never needs 48 MB).
+ * EXIF orientation is applied on the already reduced bitmap, which is returned with the density of
+ * an unscaled decode.
+ */
+public class SampledImageRequestHandler extends RequestHandler {
+
+    // CONSTANTS
+    private static final String SCHEME_FILE = "file";
+    private static final String ASSET_PREFIX = "/android_asset/";
+
+    private Context mContext;
+
+    /**
+     * SampledImageRequestHandler constructor
+     *
+     * @param context Application context, used to open assets
+     */
+    public SampledImageRequestHandler(Context context) {
+        this.mContext = context.getApplicationContext();
+    }
+
+    @Override
+    public boolean canHandleRequest(Request data) {
+        return data.uri != null && SCHEME_FILE.equals(data.uri.getScheme()) && data.hasSize();
+    }
+
+    @Override
+    public Result load(Request request, int networkPolicy) throws IOException {
+        Uri uri = request.uri;
+        int orientation = readExifOrientation(uri);
+        boolean swapSides = orientation == ExifInterface.ORIENTATION_ROTATE_90
+                || orientation == ExifInterface.ORIENTATION_ROTATE_270
+                || orientation == ExifInterface.ORIENTATION_TRANSPOSE
+                || orientation == ExifInterface.ORIENTATION_TRANSVERSE;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(uri, options);
+
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Cannot decode bounds of " + uri);
+        }
+
+        // Target size is expressed in display orientation
+        int sourceW = swapSides ? options.outHeight : options.outWidth;
+        int sourceH = swapSides ? options.outWidth : options.outHeight;
+        float scaleFactor = BitmapUtils.GetScaleFactor(sourceW, sourceH,
+                request.targetWidth, request.targetHeight, !request.centerCrop);
+
+        BitmapUtils.ApplyDecodeScale(options, scaleFactor, true);
+        if (request.config != null) {
+            options.inPreferredConfig = request.config;
+        }
+
+        Bitmap bitmap = decode(uri, options);
+        if (bitmap == null) {
+            throw new IOException("Cannot decode " + uri);
+        }
+
+        // The exact size downscale stamps inTargetDensity on the bitmap, Picasso drawables
+        // would shrink it again: give it the density of an unscaled decode
+        Bitmap oriented = BitmapUtils.ResetDensity(ApplyExifOrientation(bitmap, orientation));
+        return new Result(oriented, Picasso.LoadedFrom.DISK);
+    }
+
+    private Bitmap decode(Uri uri, BitmapFactory.Options options) throws IOException {
+        if (!IsAsset(uri)) {
+            return BitmapFactory.decodeFile(uri.getPath(), options);
+        }
+
+        InputStream stream = mContext.getAssets().open(uri.getPath().substring(ASSET_PREFIX.length()));
+        try {
+            return BitmapFactory.decodeStream(stream, null, options);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private int readExifOrientation(Uri uri) {
+        try {
+            ExifInterface exifInterface;
+            if (IsAsset(uri)) {
+                InputStream stream = mContext.getAssets().open(uri.getPath().substring(ASSET_PREFIX.length()));
+                try {
+                    exifInterface = new ExifInterface(stream);
+                } finally {
+                    stream.close();
+                }
+            } else {
+                exifInterface = new ExifInterface(uri.getPath());
+            }
+            return exifInterface.getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            // Not an EXIF image (PNG, GIF...)
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    private static boolean IsAsset(Uri uri) {
+        return uri.getPath() != null && uri.getPath().startsWith(ASSET_PREFIX);
+    }
+
+    private static Bitmap ApplyExifOrientation(Bitmap bitmap, int orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.postRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.postScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.postRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.postRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.postRotate(270);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.postRotate(270);
+                break;
+            default:
+                return bitmap;
+        }
+
+        Bitmap oriented = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (oriented != bitmap) {
+            bitmap.recycle();
+        }
+        return oriented;
+    }
+}
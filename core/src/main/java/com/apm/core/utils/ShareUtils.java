@@ -9,6 +9,8 @@ import android.net.Uri;
 import android.util.Base64;
 import android.util.Log;
 
+import com.apm.core.enums.RotationMode;
+
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -42,8 +44,7 @@ public class ShareUtils {
      * @return Saved image file
      */
     public static File ShareImage(Activity activity, String dialogTitle, byte[] imageInBytes) throws IOException {
-        File file = FileUtils.SaveImageBytes(imageInBytes, activity.getCacheDir().getAbsolutePath(),
-                StringUtils.GetRandomFileName(), Bitmap.CompressFormat.JPEG);
+        File file = TempFileCache.GetInternal(activity).put(imageInBytes, ".jpg");
 
         Intent shareIntent = new Intent(Intent.ACTION_SEND);
         shareIntent.setType("image/jpg");
@@ -63,7 +64,7 @@ public class ShareUtils {
      */
     public static File ShareImageBitmap(Activity activity, String dialogTitle, Bitmap imageBitmap) throws IOException {
         File file = FileUtils.SaveImageBitmap(imageBitmap, activity.getCacheDir().getAbsolutePath(),
-                StringUtils.GetRandomFileName(), Bitmap.CompressFormat.JPEG, 100);
+                StringUtils.GetRandomFileName(), Bitmap.CompressFormat.JPEG, 100, RotationMode.PIXELS);
 
         Intent shareIntent = new Intent(Intent.ACTION_SEND);
         shareIntent.setType("image/jpg");
@@ -0,0 +1,306 @@
+package com.apm.core.utils;
+
+import android.content.Context;
+
+import com.apm.core.enums.HashAlgorithm;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Size bounded temporary file directory with LRU eviction, behind the helpers that hand out
+ * temporary files ({@link FileUtils#SaveTempFileFromStream}, {@link AssetUtils#GetAssetAsFile},
+ * {@link BitmapUtils#SaveBitmapInTemporaryFile}, {@link ShareUtils#ShareImage}).
+ * <p>
+ * Files are named after the SHA-1 of their content, so storing the same content twice returns
+ * the same file. The last access time is kept as the file modification time, so the index needs
+ * no journal: it is rebuilt from a directory listing on first access after a process start.
+ * Files handed out must be used soon, they are evicted once enough newer content is stored.
+ */
+public class TempFileCache {
+
+    // CONSTANTS
+    private static final String INTERNAL_DIRECTORY = "apm-temp";
+    private static final long DEFAULT_MAX_SIZE = 50 * 1024 * 1024;
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private static TempFileCache sInternalCache;
+    private static TempFileCache sExternalCache;
+
+    private final File mDirectory;
+    private final long mMaxSize;
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(0, 0.75f, true);
+
+    private boolean mIndexed;
+    private long mSize;
+    private int mTmpCounter;
+
+    /**
+     * TempFileCache constructor, no disk access is done until the first operation
+     *
+     * @param directory Directory reserved for this cache
+     * @param maxSize   Maximum size in bytes of all files
+     */
+    public TempFileCache(File directory, long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size must be positive");
+        }
+        this.mDirectory = directory;
+        this.mMaxSize = maxSize;
+    }
+
+    /**
+     * Get the shared cache in the internal cache directory, limited to 50 MB
+     *
+     * @param context Application context
+     * @return Shared internal cache
+     */
+    public static synchronized TempFileCache GetInternal(Context context) {
+        if (sInternalCache == null) {
+            sInternalCache = new TempFileCache(new File(context.getCacheDir(), INTERNAL_DIRECTORY), DEFAULT_MAX_SIZE);
+        }
+        return sInternalCache;
+    }
+
+    /**
+     * Get the shared cache in the external cache directory, limited to 50 MB. Falls back to the
+     * internal one when external storage is not available.
+     *
+     * @param context Application context
+     * @return Shared external cache
+     */
+    public static synchronized TempFileCache GetExternal(Context context) {
+        File externalCacheDir = context.getExternalCacheDir();
+        if (externalCacheDir == null) {
+            return GetInternal(context);
+        }
+
+        if (sExternalCache == null) {
+            sExternalCache = new TempFileCache(new File(externalCacheDir, INTERNAL_DIRECTORY), DEFAULT_MAX_SIZE);
+        }
+        return sExternalCache;
+    }
+
+    /**
+     * Store a byte array
+     *
+     * @param data      File content
+     * @param extension File extension with its dot (e.g. ".jpg"), or empty
+     * @return File with the content, shared with any identical content stored before
+     * @throws IOException If the file cannot be written
+     */
+    public File put(byte[] data, String extension) throws IOException {
+        return put(new ByteArrayInputStream(data), extension);
+    }
+
+    /**
+     * Store a stream, hashed while it is copied
+     *
+     * @param inputStream Source stream, read to the end but not closed
+     * @param extension   File extension with its dot (e.g. ".jpg"), or empty
+     * @return File with the content, shared with any identical content stored before
+     * @throws IOException If the stream cannot be read or the file cannot be written
+     */
+    public File put(InputStream inputStream, String extension) throws IOException {
+        File tmpFile;
+        synchronized (this) {
+            ensureIndexed();
+            // The system may wipe cache directories when storage runs low
+            mDirectory.mkdirs();
+            tmpFile = new File(mDirectory, (mTmpCounter++) + "." + System.nanoTime() + TEMP_SUFFIX);
+        }
+
+        // Copy outside the lock so slow sources do not block other callers
+        HashUtils.Hasher hasher = new HashUtils.Hasher(HashAlgorithm.SHA1);
+        long size = 0;
+        FileOutputStream out = new FileOutputStream(tmpFile);
+        try {
+            byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                hasher.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+                size += read;
+            }
+        } catch (IOException e) {
+            out.close();
+            tmpFile.delete();
+            throw e;
+        }
+        out.close();
+
+        String name = HashUtils.ToHex(hasher.digest()) + extension.toLowerCase(Locale.US);
+        File file = new File(mDirectory, name);
+
+        synchronized (this) {
+            if (mEntries.containsKey(name) && file.exists()) {
+                // Same content stored before, keep the existing file
+                tmpFile.delete();
+                file.setLastModified(System.currentTimeMillis());
+                // Move the entry to the most recently used end
+                mEntries.get(name);
+                return file;
+            }
+
+            if (!tmpFile.renameTo(file)) {
+                tmpFile.delete();
+                throw new IOException("Cannot store temporary file " + file.getAbsolutePath());
+            }
+
+            Long previous = mEntries.put(name, size);
+            if (previous != null) {
+                mSize -= previous;
+            }
+            mSize += size;
+            trimToSize(name);
+            return file;
+        }
+    }
+
+    /**
+     * Mark a file of this cache as used, so it is evicted later
+     *
+     * @param file File returned by this cache
+     * @return true if the file is still cached
+     */
+    public synchronized boolean touch(File file) {
+        ensureIndexed();
+        String name = file.getName();
+        if (mEntries.get(name) == null || !file.exists()) {
+            return false;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Delete a file of this cache
+     *
+     * @param file File returned by this cache
+     * @return true if the file was cached
+     */
+    public synchronized boolean remove(File file) {
+        ensureIndexed();
+        return removeEntry(file.getName());
+    }
+
+    /**
+     * Delete every file of this cache
+     */
+    public synchronized void clear() {
+        ensureIndexed();
+        for (String name : new ArrayList<>(mEntries.keySet())) {
+            removeEntry(name);
+        }
+    }
+
+    /**
+     * @return Current size in bytes of all files
+     */
+    public synchronized long getSize() {
+        ensureIndexed();
+        return mSize;
+    }
+
+    /**
+     * @return Maximum size in bytes of all files
+     */
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return Number of files
+     */
+    public synchronized int getEntryCount() {
+        ensureIndexed();
+        return mEntries.size();
+    }
+
+    /**
+     * @return Cache directory
+     */
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * Build the index from the directory, oldest access first, dropping temporary leftovers
+     */
+    private void ensureIndexed() {
+        if (mIndexed) {
+            return;
+        }
+        mIndexed = true;
+
+        mDirectory.mkdirs();
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        final long[] lastModified = new long[files.length];
+        List<Integer> order = new ArrayList<>(files.length);
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return lastModified[a] < lastModified[b] ? -1 : (lastModified[a] == lastModified[b] ? 0 : 1);
+            }
+        });
+
+        for (Integer index : order) {
+            File file = files[index];
+            if (file.getName().endsWith(TEMP_SUFFIX) || !file.isFile()) {
+                file.delete();
+                continue;
+            }
+            long size = file.length();
+            mEntries.put(file.getName(), size);
+            mSize += size;
+        }
+        trimToSize(null);
+    }
+
+    private boolean removeEntry(String name) {
+        Long size = mEntries.remove(name);
+        if (size == null) {
+            return false;
+        }
+
+        new File(mDirectory, name).delete();
+        mSize -= size;
+        return true;
+    }
+
+    /**
+     * @param keep Entry never evicted, the one just stored
+     */
+    private void trimToSize(String keep) {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            new File(mDirectory, eldest.getKey()).delete();
+            mSize -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+}
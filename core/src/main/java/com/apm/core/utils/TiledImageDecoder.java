@@ -0,0 +1,373 @@
+package com.apm.core.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import com.apm.core.contracts.ITileLoadListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Serve square tiles of a very large image (scanned documents, maps) at power of two zoom levels,
+ * decoding only the visible regions with {@link BitmapRegionDecoder}.
+ * <p>
+ * A tile of sample size S covers tileSize * S source pixels per side and is decoded to at most
+ * tileSize pixels per side, so memory depends on the screen, not on the image. Decoded tiles are
+ * kept in an LRU cache bounded in bytes: the tile cache size is the memory ceiling of the viewer.
+ * Tiles are decoded on a single background thread, since the region decoder serializes decodes.
+ */
+public class TiledImageDecoder {
+
+    // CONSTANTS
+    public static final int DEFAULT_TILE_SIZE = 512;
+
+    private final BitmapRegionDecoder mDecoder;
+    private final int mTileSize;
+    private final Bitmap.Config mConfig;
+    private final LruCache<String, Bitmap> mTileCache;
+    private final ExecutorService mExecutor;
+    private final Handler mMainHandler;
+    private final Map<String, Future<?>> mPendingTiles = new HashMap<>();
+
+    private TiledImageDecoder(Builder builder, BitmapRegionDecoder decoder) {
+        this.mDecoder = decoder;
+        this.mTileSize = builder.mTileSize;
+        this.mConfig = builder.mConfig;
+        this.mTileCache = new LruCache<String, Bitmap>(builder.mCacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap tile) {
+                return tile.getAllocationByteCount();
+            }
+        };
+        this.mExecutor = Executors.newSingleThreadExecutor();
+        this.mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * @return Source image width
+     */
+    public int getImageWidth() {
+        return mDecoder.getWidth();
+    }
+
+    /**
+     * @return Source image height
+     */
+    public int getImageHeight() {
+        return mDecoder.getHeight();
+    }
+
+    /**
+     * @return Tile side in decoded pixels
+     */
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    /**
+     * Get the zoom level to use for a display scale
+     *
+     * @param scale Displayed size over source size (e.g. 0.1 when the whole scan fits the screen)
+     * @return Power of two sample size
+     */
+    public int getSampleSize(float scale) {
+        return BitmapUtils.CalculateInSampleSize(scale);
+    }
+
+    /**
+     * @param sampleSize Power of two sample size
+     * @return Tile columns at that zoom level
+     */
+    public int getColumnCount(int sampleSize) {
+        int tileSpan = mTileSize * sampleSize;
+        return (getImageWidth() + tileSpan - 1) / tileSpan;
+    }
+
+    /**
+     * @param sampleSize Power of two sample size
+     * @return Tile rows at that zoom level
+     */
+    public int getRowCount(int sampleSize) {
+        int tileSpan = mTileSize * sampleSize;
+        return (getImageHeight() + tileSpan - 1) / tileSpan;
+    }
+
+    /**
+     * Get the source pixels covered by a tile, edge tiles are clipped to image bounds
+     *
+     * @param sampleSize Power of two sample size
+     * @param column     Tile column
+     * @param row        Tile row
+     * @return Tile rectangle in source image pixels
+     */
+    public Rect getTileRect(int sampleSize, int column, int row) {
+        int tileSpan = mTileSize * sampleSize;
+        int left = column * tileSpan;
+        int top = row * tileSpan;
+        return new Rect(left, top,
+                Math.min(left + tileSpan, getImageWidth()), Math.min(top + tileSpan, getImageHeight()));
+    }
+
+    /**
+     * Get a tile only if it is already decoded
+     *
+     * @param sampleSize Power of two sample size
+     * @param column     Tile column
+     * @param row        Tile row
+     * @return Cached tile or null
+     */
+    public Bitmap getCachedTile(int sampleSize, int column, int row) {
+        return mTileCache.get(GetTileKey(sampleSize, column, row));
+    }
+
+    /**
+     * Decode a tile on the calling thread, or get it from cache
+     *
+     * @param sampleSize Power of two sample size
+     * @param column     Tile column
+     * @param row        Tile row
+     * @return Tile bitmap, owned by the tile cache, or null if it cannot be decoded
+     */
+    public Bitmap decodeTile(int sampleSize, int column, int row) {
+        String key = GetTileKey(sampleSize, column, row);
+        Bitmap tile = mTileCache.get(key);
+        if (tile != null) {
+            return tile;
+        }
+
+        if (column < 0 || row < 0 || column >= getColumnCount(sampleSize) || row >= getRowCount(sampleSize)) {
+            return null;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = mConfig;
+        try {
+            tile = BitmapUtils.DecodePooledRegion(mDecoder, getTileRect(sampleSize, column, row), options);
+        } catch (IllegalStateException e) {
+            // Decoder recycled while the tile was queued
+            return null;
+        }
+
+        if (tile != null) {
+            mTileCache.put(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Load a tile in background, the listener is triggered at once if the tile is cached.
+     * Duplicated requests of a pending tile are ignored.
+     *
+     * @param sampleSize Power of two sample size
+     * @param column     Tile column
+     * @param row        Tile row
+     * @param listener   Tile load listener, triggered on the main thread
+     */
+    public void loadTile(final int sampleSize, final int column, final int row, final ITileLoadListener listener) {
+        Bitmap cached = getCachedTile(sampleSize, column, row);
+        if (cached != null) {
+            listener.onTileLoaded(sampleSize, column, row, cached);
+            return;
+        }
+
+        final String key = GetTileKey(sampleSize, column, row);
+        synchronized (mPendingTiles) {
+            if (mPendingTiles.containsKey(key) || mExecutor.isShutdown()) {
+                return;
+            }
+
+            mPendingTiles.put(key, mExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    final Bitmap tile = decodeTile(sampleSize, column, row);
+                    synchronized (mPendingTiles) {
+                        mPendingTiles.remove(key);
+                    }
+
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (tile != null) {
+                                listener.onTileLoaded(sampleSize, column, row, tile);
+                            } else {
+                                listener.onTileLoadFailed(sampleSize, column, row);
+                            }
+                        }
+                    });
+                }
+            }));
+        }
+    }
+
+    /**
+     * Load every tile intersecting the visible area at the zoom level of the display scale, and
+     * cancel pending tiles that are no longer visible (e.g. after a fling or a zoom change)
+     *
+     * @param scale       Displayed size over source size
+     * @param visibleRect Visible area in source image pixels
+     * @param listener    Tile load listener, triggered on the main thread
+     * @return Sample size of the requested tiles
+     */
+    public int loadVisibleTiles(float scale, Rect visibleRect, ITileLoadListener listener) {
+        int sampleSize = getSampleSize(scale);
+        int tileSpan = mTileSize * sampleSize;
+
+        int firstColumn = Math.max(0, visibleRect.left / tileSpan);
+        int firstRow = Math.max(0, visibleRect.top / tileSpan);
+        int lastColumn = Math.min(getColumnCount(sampleSize) - 1, (visibleRect.right - 1) / tileSpan);
+        int lastRow = Math.min(getRowCount(sampleSize) - 1, (visibleRect.bottom - 1) / tileSpan);
+
+        Set<String> visibleKeys = new HashSet<>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                visibleKeys.add(GetTileKey(sampleSize, column, row));
+            }
+        }
+
+        synchronized (mPendingTiles) {
+            Iterator<Map.Entry<String, Future<?>>> iterator = mPendingTiles.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Future<?>> entry = iterator.next();
+                if (!visibleKeys.contains(entry.getKey())) {
+                    entry.getValue().cancel(false);
+                    iterator.remove();
+                }
+            }
+        }
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                loadTile(sampleSize, column, row, listener);
+            }
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Cancel every tile load not started yet
+     */
+    public void cancelPendingTiles() {
+        synchronized (mPendingTiles) {
+            for (Future<?> pending : mPendingTiles.values()) {
+                pending.cancel(false);
+            }
+            mPendingTiles.clear();
+        }
+    }
+
+    /**
+     * Drop decoded tiles, e.g. on low memory
+     */
+    public void clearCache() {
+        mTileCache.evictAll();
+    }
+
+    /**
+     * @return Bytes held by decoded tiles
+     */
+    public int getCacheSize() {
+        return mTileCache.size();
+    }
+
+    /**
+     * Cancel pending loads, drop decoded tiles and release the decoder. The instance cannot be
+     * used afterwards.
+     */
+    public void recycle() {
+        cancelPendingTiles();
+        mExecutor.shutdown();
+        mTileCache.evictAll();
+        mDecoder.recycle();
+    }
+
+    private static String GetTileKey(int sampleSize, int column, int row) {
+        return sampleSize + "/" + column + "/" + row;
+    }
+
+    public static class Builder {
+        private File mFile;
+        private byte[] mBytes;
+        private int mTileSize = DEFAULT_TILE_SIZE;
+        private int mCacheSize = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+        private Bitmap.Config mConfig = Bitmap.Config.ARGB_8888;
+
+        /**
+         * Builder constructor for an image file
+         *
+         * @param imageFile JPEG, PNG or WebP image file
+         */
+        public Builder(File imageFile) {
+            this.mFile = imageFile;
+        }
+
+        /**
+         * Builder constructor for an image byte array
+         *
+         * @param imageBytes JPEG, PNG or WebP image byte array
+         */
+        public Builder(byte[] imageBytes) {
+            this.mBytes = imageBytes;
+        }
+
+        /**
+         * @param tileSize Tile side in decoded pixels, 256 - 1024 works well
+         * @return Builder
+         */
+        public Builder tileSize(int tileSize) {
+            if (tileSize <= 0) {
+                throw new IllegalArgumentException("Tile size must be positive");
+            }
+            this.mTileSize = tileSize;
+            return this;
+        }
+
+        /**
+         * @param cacheSize Maximum bytes held by decoded tiles, default is 1/8 of the heap
+         * @return Builder
+         */
+        public Builder cacheSize(int cacheSize) {
+            if (cacheSize <= 0) {
+                throw new IllegalArgumentException("Cache size must be positive");
+            }
+            this.mCacheSize = cacheSize;
+            return this;
+        }
+
+        /**
+         * @param config Tile config, RGB_565 halves memory of opaque scans
+         * @return Builder
+         */
+        public Builder config(Bitmap.Config config) {
+            this.mConfig = config;
+            return this;
+        }
+
+        /**
+         * Open the image region decoder
+         *
+         * @return TiledImageDecoder
+         * @throws IOException If image cannot be read or its format is not supported
+         */
+        public TiledImageDecoder build() throws IOException {
+            BitmapRegionDecoder decoder = mFile != null
+                    ? BitmapRegionDecoder.newInstance(mFile.getAbsolutePath(), false)
+                    : BitmapRegionDecoder.newInstance(mBytes, 0, mBytes.length, false);
+            return new TiledImageDecoder(this, decoder);
+        }
+    }
+}
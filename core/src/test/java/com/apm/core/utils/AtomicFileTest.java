@@ -0,0 +1,63 @@
+package com.apm.core.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AtomicFileTest {
+
+    // CONSTANTS
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void firstWriteDeletesLeftoverTempFiles() throws IOException {
+        File file = new File(mFolder.getRoot(), "a.json");
+        File leftover = mFolder.newFile(".a.json.8237465.tmp");
+        File otherLeftover = mFolder.newFile(".a.json.-12.tmp");
+        File otherFileTemp = mFolder.newFile(".a.json.b.8237465.tmp");
+
+        new AtomicFile(file).write("1", UTF_8);
+        assertFalse(leftover.exists());
+        assertFalse(otherLeftover.exists());
+        assertTrue(otherFileTemp.exists());
+        assertEquals(2, mFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void concurrentWriteKeepsItsTempFile() throws IOException {
+        AtomicFile atomicFile = new AtomicFile(new File(mFolder.getRoot(), "a.json"));
+        FileOutputStream first = atomicFile.startWrite();
+        FileOutputStream second = atomicFile.startWrite();
+        first.write('1');
+        second.write('2');
+        atomicFile.finishWrite(second);
+        atomicFile.finishWrite(first);
+
+        assertEquals("1", new String(atomicFile.readFully(), UTF_8));
+        assertEquals(1, mFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void failWriteKeepsPreviousContent() throws IOException {
+        AtomicFile atomicFile = new AtomicFile(new File(mFolder.getRoot(), "a.json"), true);
+        atomicFile.write("1", UTF_8);
+        FileOutputStream out = atomicFile.startWrite();
+        out.write('2');
+        atomicFile.failWrite(out);
+
+        assertEquals("1", new String(atomicFile.readFully(), UTF_8));
+        assertEquals(1, mFolder.getRoot().list().length);
+    }
+}
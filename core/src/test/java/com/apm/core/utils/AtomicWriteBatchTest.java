@@ -0,0 +1,174 @@
+package com.apm.core.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Journal encoding and recovery of {@link AtomicWriteBatch}. Lost file writes are simulated by
+ * overwriting the files after a commit, a crash during a commit by truncating the journal.
+ */
+public class AtomicWriteBatchTest {
+
+    // CONSTANTS
+    private static final int FRAME_MAGIC = 0x4a524e31;
+    private static final long NO_CHECKPOINT = Long.MAX_VALUE;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] LOST = "lost".getBytes(UTF_8);
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void recoverReplaysCommittedBatches() throws IOException {
+        File journal = mFolder.newFile("journal");
+        File first = new File(mFolder.getRoot(), "first.json");
+        File second = new File(mFolder.getRoot(), "dir/second.json");
+
+        AtomicWriteBatch batch = new AtomicWriteBatch(journal, NO_CHECKPOINT);
+        batch.write(first, "1", UTF_8);
+        batch.write(second, new byte[0]);
+        batch.commit();
+        batch.write(first, "2", UTF_8);
+        batch.write(first, "3", UTF_8);
+        batch.commit();
+        assertEquals(0, batch.getPendingCount());
+        assertEquals("3", Read(first));
+        assertEquals("", Read(second));
+
+        Overwrite(first);
+        Overwrite(second);
+        assertEquals(2, new AtomicWriteBatch(journal, NO_CHECKPOINT).recover());
+        assertEquals("3", Read(first));
+        assertEquals("", Read(second));
+        assertEquals(0, journal.length());
+    }
+
+    @Test
+    public void recoverDropsTornLastBatch() throws IOException {
+        File journal = mFolder.newFile("journal");
+        File first = new File(mFolder.getRoot(), "first.json");
+        File second = new File(mFolder.getRoot(), "second.json");
+
+        AtomicWriteBatch batch = new AtomicWriteBatch(journal, NO_CHECKPOINT);
+        batch.write(first, "1", UTF_8);
+        batch.commit();
+        long firstFrameEnd = journal.length();
+        batch.write(second, "2", UTF_8);
+        batch.commit();
+
+        for (long tornLength = journal.length() - 1; tornLength > firstFrameEnd; tornLength -= 7) {
+            File copy = mFolder.newFile("journal" + tornLength);
+            FileUtils.CopyFile(journal, copy);
+            Truncate(copy, tornLength);
+            Overwrite(first);
+            Overwrite(second);
+
+            assertEquals(1, new AtomicWriteBatch(copy, NO_CHECKPOINT).recover());
+            assertEquals("1", Read(first));
+            assertArrayEquals(LOST, FileUtils.ReadFileBytes(second));
+        }
+    }
+
+    @Test
+    public void commitAfterTornBatchOverwritesIt() throws IOException {
+        File journal = mFolder.newFile("journal");
+        File first = new File(mFolder.getRoot(), "first.json");
+
+        AtomicWriteBatch batch = new AtomicWriteBatch(journal, NO_CHECKPOINT);
+        batch.write(first, "1", UTF_8);
+        batch.commit();
+        Truncate(journal, journal.length() - 1);
+
+        batch = new AtomicWriteBatch(journal, NO_CHECKPOINT);
+        batch.write(first, "2", UTF_8);
+        batch.commit();
+
+        Overwrite(first);
+        assertEquals(1, new AtomicWriteBatch(journal, NO_CHECKPOINT).recover());
+        assertEquals("2", Read(first));
+    }
+
+    @Test
+    public void recoverSkipsFrameWithMissingEntries() throws IOException {
+        File journal = mFolder.newFile("journal");
+        File file = new File(mFolder.getRoot(), "file.json");
+
+        // Valid CRC over a body holding 1 entry while the header claims 2
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bodyOutput = new DataOutputStream(body);
+        byte[] path = file.getPath().getBytes(UTF_8);
+        bodyOutput.writeInt(path.length);
+        bodyOutput.write(path);
+        bodyOutput.writeInt(2);
+        bodyOutput.write("hi".getBytes(UTF_8));
+        bodyOutput.flush();
+        CRC32 crc = new CRC32();
+        crc.update(body.toByteArray());
+
+        DataOutputStream frameOutput = new DataOutputStream(new FileOutputStream(journal));
+        try {
+            frameOutput.writeInt(FRAME_MAGIC);
+            frameOutput.writeInt(2);
+            frameOutput.writeInt(body.size());
+            body.writeTo(frameOutput);
+            frameOutput.writeLong(crc.getValue());
+        } finally {
+            frameOutput.close();
+        }
+
+        assertEquals(0, new AtomicWriteBatch(journal, NO_CHECKPOINT).recover());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void checkpointEmptiesJournal() throws IOException {
+        File journal = mFolder.newFile("journal");
+        File file = new File(mFolder.getRoot(), "file.json");
+
+        AtomicWriteBatch batch = new AtomicWriteBatch(journal, 1);
+        batch.write(file, "1", UTF_8);
+        batch.commit();
+        assertEquals(0, journal.length());
+        assertEquals("1", Read(file));
+
+        Overwrite(file);
+        assertEquals(0, new AtomicWriteBatch(journal, 1).recover());
+        assertArrayEquals(LOST, FileUtils.ReadFileBytes(file));
+    }
+
+    private static String Read(File file) throws IOException {
+        return new String(FileUtils.ReadFileBytes(file), UTF_8);
+    }
+
+    private static void Overwrite(File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(LOST);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void Truncate(File file, long length) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(length);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+}
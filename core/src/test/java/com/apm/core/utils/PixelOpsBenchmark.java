@@ -0,0 +1,142 @@
+package com.apm.core.utils;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Rotation and downscale timings of {@link PixelOps}, on the calling thread and in stripes,
+ * against a per pixel inverse mapping as done by a Matrix transform in Bitmap.createBitmap.
+ * Android bitmaps are stubs on the JVM, so the reference runs on the same int[] pixels.
+ * <p>
+ * Skipped unless run with -Dbenchmark=true, e.g. ./gradlew :core:testDebugUnitTest -Pbenchmark=true
+ */
+public class PixelOpsBenchmark {
+
+    // CONSTANTS
+    private static final int WIDTH = 2048;
+    private static final int HEIGHT = 1536;
+    private static final int WARMUP_RUNS = 5;
+    private static final int MEASURED_RUNS = 20;
+
+    private int mDefaultStripeCount;
+    private int[] mSrc;
+    private int[] mDst;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        mDefaultStripeCount = PixelOps.sStripeCount;
+        mSrc = PixelOpsTest.RandomPixels(WIDTH * HEIGHT);
+        mDst = new int[WIDTH * HEIGHT];
+    }
+
+    @After
+    public void tearDown() {
+        PixelOps.sStripeCount = mDefaultStripeCount;
+    }
+
+    @Test
+    public void rotate90() {
+        Report("Rotate 90", new Runnable() {
+            @Override
+            public void run() {
+                PixelOps.Rotate(mSrc, WIDTH, HEIGHT, 90, mDst);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                MatrixRotate90(mSrc, WIDTH, HEIGHT, mDst);
+            }
+        });
+    }
+
+    @Test
+    public void downscaleHalf() {
+        Report("Downscale bilinear 1/2", new Runnable() {
+            @Override
+            public void run() {
+                PixelOps.DownscaleBilinear(mSrc, WIDTH, HEIGHT, WIDTH / 2, HEIGHT / 2, mDst);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                MatrixScale(mSrc, WIDTH, HEIGHT, WIDTH / 2, HEIGHT / 2, mDst);
+            }
+        });
+    }
+
+    private void Report(String name, Runnable pixelOps, Runnable matrix) {
+        PixelOps.sStripeCount = mDefaultStripeCount;
+        long parallel = Measure(pixelOps);
+        PixelOps.sStripeCount = 1;
+        long serial = Measure(pixelOps);
+        long reference = Measure(matrix);
+
+        System.out.println(String.format("%s %dx%d: PixelOps %d stripes %.2f ms, 1 stripe %.2f ms, "
+                        + "per pixel matrix mapping %.2f ms", name, WIDTH, HEIGHT, mDefaultStripeCount,
+                parallel / 1e6, serial / 1e6, reference / 1e6));
+    }
+
+    /**
+     * @return Median nanoseconds of a run
+     */
+    private static long Measure(Runnable runnable) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            runnable.run();
+        }
+
+        long[] times = new long[MEASURED_RUNS];
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            long start = System.nanoTime();
+            runnable.run();
+            times[i] = System.nanoTime() - start;
+        }
+        java.util.Arrays.sort(times);
+        return times[MEASURED_RUNS / 2];
+    }
+
+    /**
+     * Map every destination pixel back through the inverse transform, in floating point
+     */
+    private static void MatrixRotate90(int[] src, int width, int height, int[] dst) {
+        // Inverse of (x, y) -> (height - 1 - y, x)
+        float[] point = new float[2];
+        for (int y = 0; y < width; y++) {
+            for (int x = 0; x < height; x++) {
+                point[0] = y;
+                point[1] = height - 1 - x;
+                dst[y * height + x] = src[(int) point[1] * width + (int) point[0]];
+            }
+        }
+    }
+
+    private static void MatrixScale(int[] src, int width, int height, int dstWidth, int dstHeight, int[] dst) {
+        float scaleX = (float) width / dstWidth;
+        float scaleY = (float) height / dstHeight;
+        for (int y = 0; y < dstHeight; y++) {
+            float srcY = Math.min(height - 1.001f, (y + 0.5f) * scaleY - 0.5f);
+            int top = (int) srcY;
+            float fy = srcY - top;
+            for (int x = 0; x < dstWidth; x++) {
+                float srcX = Math.min(width - 1.001f, (x + 0.5f) * scaleX - 0.5f);
+                int left = (int) srcX;
+                float fx = srcX - left;
+
+                int topLeft = src[top * width + left];
+                int topRight = src[top * width + left + 1];
+                int bottomLeft = src[(top + 1) * width + left];
+                int bottomRight = src[(top + 1) * width + left + 1];
+
+                int color = 0;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    float upper = ((topLeft >>> shift) & 0xFF) * (1 - fx) + ((topRight >>> shift) & 0xFF) * fx;
+                    float lower = ((bottomLeft >>> shift) & 0xFF) * (1 - fx) + ((bottomRight >>> shift) & 0xFF) * fx;
+                    color |= ((int) (upper * (1 - fy) + lower * fy) & 0xFF) << shift;
+                }
+                dst[y * dstWidth + x] = color;
+            }
+        }
+    }
+}
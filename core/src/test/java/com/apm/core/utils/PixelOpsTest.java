@@ -0,0 +1,227 @@
+package com.apm.core.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Correctness of {@link PixelOps} against per pixel reference implementations, on small images
+ * (single stripe) and on images above {@link PixelOps#PARALLEL_THRESHOLD} split in 4 stripes
+ */
+public class PixelOpsTest {
+
+    // CONSTANTS
+    private static final int STRIPES = 4;
+    // Odd sizes, so stripes do not divide rows evenly
+    private static final int LARGE_WIDTH = 301;
+    private static final int LARGE_HEIGHT = 263;
+
+    private int mDefaultStripeCount;
+
+    @Before
+    public void setUp() {
+        mDefaultStripeCount = PixelOps.sStripeCount;
+        PixelOps.sStripeCount = STRIPES;
+    }
+
+    @After
+    public void tearDown() {
+        PixelOps.sStripeCount = mDefaultStripeCount;
+    }
+
+    @Test
+    public void rotateSmall() {
+        // 3 x 2:  1 2 3
+        //         4 5 6
+        int[] src = {1, 2, 3, 4, 5, 6};
+        assertArrayEquals(new int[]{4, 1, 5, 2, 6, 3}, PixelOps.Rotate(src, 3, 2, 90, null));
+        assertArrayEquals(new int[]{6, 5, 4, 3, 2, 1}, PixelOps.Rotate(src, 3, 2, 180, null));
+        assertArrayEquals(new int[]{3, 6, 2, 5, 1, 4}, PixelOps.Rotate(src, 3, 2, 270, null));
+        assertArrayEquals(src, PixelOps.Rotate(src, 3, 2, -360, null));
+        assertArrayEquals(PixelOps.Rotate(src, 3, 2, 270, null), PixelOps.Rotate(src, 3, 2, -90, null));
+    }
+
+    @Test
+    public void rotateLarge() {
+        int[] src = RandomPixels(LARGE_WIDTH * LARGE_HEIGHT);
+        for (int degrees = 0; degrees < 360; degrees += 90) {
+            assertArrayEquals("Rotation " + degrees, ReferenceRotate(src, LARGE_WIDTH, LARGE_HEIGHT, degrees),
+                    PixelOps.Rotate(src, LARGE_WIDTH, LARGE_HEIGHT, degrees, null));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rotateRejectsOtherAngles() {
+        PixelOps.Rotate(new int[4], 2, 2, 45, null);
+    }
+
+    @Test
+    public void flipSmall() {
+        int[] src = {1, 2, 3, 4, 5, 6};
+        assertArrayEquals(new int[]{3, 2, 1, 6, 5, 4}, PixelOps.Flip(src, 3, 2, true, null));
+        assertArrayEquals(new int[]{4, 5, 6, 1, 2, 3}, PixelOps.Flip(src, 3, 2, false, null));
+    }
+
+    @Test
+    public void flipLarge() {
+        int[] src = RandomPixels(LARGE_WIDTH * LARGE_HEIGHT);
+        for (boolean horizontal : new boolean[]{true, false}) {
+            int[] flipped = PixelOps.Flip(src, LARGE_WIDTH, LARGE_HEIGHT, horizontal, null);
+            for (int y = 0; y < LARGE_HEIGHT; y++) {
+                for (int x = 0; x < LARGE_WIDTH; x++) {
+                    int expected = horizontal ? src[y * LARGE_WIDTH + LARGE_WIDTH - 1 - x]
+                            : src[(LARGE_HEIGHT - 1 - y) * LARGE_WIDTH + x];
+                    assertEquals(expected, flipped[y * LARGE_WIDTH + x]);
+                }
+            }
+            assertArrayEquals(src, PixelOps.Flip(flipped, LARGE_WIDTH, LARGE_HEIGHT, horizontal, null));
+        }
+    }
+
+    @Test
+    public void cropLarge() {
+        int[] src = RandomPixels(LARGE_WIDTH * LARGE_HEIGHT);
+        int left = 17;
+        int top = 5;
+        int cropWidth = 280;
+        int cropHeight = 250;
+
+        int[] cropped = PixelOps.Crop(src, LARGE_WIDTH, LARGE_HEIGHT, left, top, cropWidth, cropHeight, null);
+        assertEquals(cropWidth * cropHeight, cropped.length);
+        for (int y = 0; y < cropHeight; y++) {
+            for (int x = 0; x < cropWidth; x++) {
+                assertEquals(src[(top + y) * LARGE_WIDTH + left + x], cropped[y * cropWidth + x]);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cropRejectsOutsideRectangle() {
+        PixelOps.Crop(new int[16], 4, 4, 2, 0, 3, 1, null);
+    }
+
+    @Test
+    public void downscaleBoxAveragesCoveredPixels() {
+        // 4 x 2 to 2 x 1, each destination pixel averages a 2 x 2 block
+        int[] src = {
+                0xFF000000, 0xFF040404, 0x00FF0000, 0x00FF0000,
+                0xFF080808, 0xFF0C0C0C, 0x80FF0000, 0x80FF0000};
+        assertArrayEquals(new int[]{0xFF060606, 0x40FF0000}, PixelOps.DownscaleBox(src, 4, 2, 2, 1, null));
+    }
+
+    @Test
+    public void downscaleLarge() {
+        int[] src = RandomPixels(LARGE_WIDTH * LARGE_HEIGHT);
+        int dstWidth = 97;
+        int dstHeight = 71;
+        assertArrayEquals(ReferenceDownscaleBox(src, LARGE_WIDTH, LARGE_HEIGHT, dstWidth, dstHeight),
+                PixelOps.DownscaleBox(src, LARGE_WIDTH, LARGE_HEIGHT, dstWidth, dstHeight, null));
+
+        int[] parallel = PixelOps.DownscaleBilinear(src, LARGE_WIDTH, LARGE_HEIGHT, 300, 260, null);
+        PixelOps.sStripeCount = 1;
+        assertArrayEquals(PixelOps.DownscaleBilinear(src, LARGE_WIDTH, LARGE_HEIGHT, 300, 260, null), parallel);
+    }
+
+    @Test
+    public void downscaleKeepsUniformColor() {
+        int[] src = new int[LARGE_WIDTH * LARGE_HEIGHT];
+        java.util.Arrays.fill(src, 0x80402010);
+        for (int color : PixelOps.DownscaleBox(src, LARGE_WIDTH, LARGE_HEIGHT, 50, 40, null)) {
+            assertEquals(0x80402010, color);
+        }
+        for (int color : PixelOps.DownscaleBilinear(src, LARGE_WIDTH, LARGE_HEIGHT, 150, 100, null)) {
+            assertEquals(0x80402010, color);
+        }
+    }
+
+    @Test
+    public void writesIntoGivenDestination() {
+        int[] src = RandomPixels(LARGE_WIDTH * LARGE_HEIGHT);
+        int[] dst = new int[src.length];
+        assertSame(dst, PixelOps.Rotate(src, LARGE_WIDTH, LARGE_HEIGHT, 90, dst));
+        assertSame(src, PixelOps.Grayscale(src, LARGE_WIDTH, LARGE_HEIGHT, src));
+    }
+
+    @Test
+    public void stripeFailureIsRethrownOnCaller() {
+        // Source shorter than width * height fails inside the stripes, not in argument checks
+        try {
+            PixelOps.Flip(new int[LARGE_WIDTH * LARGE_HEIGHT / 2], LARGE_WIDTH, LARGE_HEIGHT, true, null);
+            fail("Stripe failure was not rethrown");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // Expected
+        }
+    }
+
+    static int[] RandomPixels(int count) {
+        Random random = new Random(42);
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    /**
+     * Rotate by mapping every source pixel to its destination
+     */
+    static int[] ReferenceRotate(int[] src, int width, int height, int degrees) {
+        int[] dst = new int[src.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int color = src[y * width + x];
+                switch (degrees) {
+                    case 90:
+                        dst[x * height + (height - 1 - y)] = color;
+                        break;
+                    case 180:
+                        dst[(height - 1 - y) * width + (width - 1 - x)] = color;
+                        break;
+                    case 270:
+                        dst[(width - 1 - x) * height + y] = color;
+                        break;
+                    default:
+                        dst[y * width + x] = color;
+                }
+            }
+        }
+        return dst;
+    }
+
+    private static int[] ReferenceDownscaleBox(int[] src, int width, int height, int dstWidth, int dstHeight) {
+        int[] dst = new int[dstWidth * dstHeight];
+        for (int y = 0; y < dstHeight; y++) {
+            int top = y * height / dstHeight;
+            int bottom = Math.max(top + 1, (y + 1) * height / dstHeight);
+            for (int x = 0; x < dstWidth; x++) {
+                int left = x * width / dstWidth;
+                int right = Math.max(left + 1, (x + 1) * width / dstWidth);
+
+                long[] sums = new long[4];
+                for (int sy = top; sy < bottom; sy++) {
+                    for (int sx = left; sx < right; sx++) {
+                        int color = src[sy * width + sx];
+                        for (int channel = 0; channel < 4; channel++) {
+                            sums[channel] += (color >>> (24 - channel * 8)) & 0xFF;
+                        }
+                    }
+                }
+
+                int count = (bottom - top) * (right - left);
+                int color = 0;
+                for (int channel = 0; channel < 4; channel++) {
+                    color |= (int) (sums[channel] / count) << (24 - channel * 8);
+                }
+                dst[y * dstWidth + x] = color;
+            }
+        }
+        return dst;
+    }
+}